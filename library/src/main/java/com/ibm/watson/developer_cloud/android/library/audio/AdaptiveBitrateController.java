@@ -0,0 +1,314 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration.Bandwidth;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Steps the Opus encoder down a ladder of cheaper settings when the reader of the encoded stream cannot keep up, and
+ * back up once it can, so a slow uplink costs audio quality instead of ever growing latency.
+ *
+ * <p>Level 0 of the ladder is the session's own configuration; every further level lowers the bitrate, the highest
+ * bandwidth and the complexity a step. The controller watches two things, in the queue between the capture thread
+ * and the reader:
+ * <ul>
+ * <li>its standing depth, the least it held during a measurement window, converted to the time the reader needs to
+ * send it. Ogg pages arrive in bursts, so only what is still queued between them is latency;</li>
+ * <li>the rate the reader drains it at, which, while audio is waiting, is what the uplink can carry.</li>
+ * </ul>
+ * Once the standing queue takes longer than the target latency to send, the controller picks the best level whose
+ * bitrate lets the reader catch up within a few seconds. When the queue has stayed nearly empty for a while it probes
+ * one level up; a probe that has to be taken back doubles the wait before the next one.
+ *
+ * <p>Only used from the capture thread. The clock is passed in, so the controller can be driven in simulated time.
+ */
+public final class AdaptiveBitrateController {
+
+  /**
+   * Default latency the queue may reach before the encoder is stepped down.
+   */
+  public static final int DEFAULT_TARGET_LATENCY_MILLIS = 300;
+
+  private static final int[] BITRATES = {32000, 24000, 16000, 12000, 8000, 6000};
+  private static final Bandwidth[] MAX_BANDWIDTHS = {Bandwidth.SUPERWIDEBAND, Bandwidth.WIDEBAND, Bandwidth.WIDEBAND,
+          Bandwidth.WIDEBAND, Bandwidth.MEDIUMBAND, Bandwidth.NARROWBAND};
+  private static final int[] COMPLEXITIES = {8, 6, 5, 4, 2, 0};
+
+  /**
+   * Time a backlog is given to drain after stepping down.
+   */
+  static final int RECOVERY_MILLIS = 3000;
+  /**
+   * How long the queue must stay nearly empty before the first probe up.
+   */
+  static final int MIN_PROBE_MILLIS = 5000;
+  /**
+   * Longest wait between probes after failed ones.
+   */
+  static final int MAX_PROBE_MILLIS = 60000;
+  /**
+   * Shortest window the queue and the rates are measured over, and so the least time between two decisions. Short
+   * pages would otherwise give drain rates too noisy to act on.
+   */
+  static final int MIN_WINDOW_MILLIS = 200;
+  /**
+   * Share of the measured uplink rate the encoder may use.
+   */
+  private static final double HEADROOM = 0.85;
+
+  private final int sampleRate;
+  private final int channels;
+  private final int targetLatencyMillis;
+  private final int windowMillis;
+  private List<OpusEncoderConfiguration> ladder;
+  private int level;
+
+  private double producedBytesPerMilli;
+  private double overhead = 1;
+  private double drainBytesPerMilli;
+  private boolean started;
+  private long windowStart;
+  private double windowAudioMillis;
+  private long windowWritten;
+  private long windowConsumed;
+  private int windowMinQueued;
+  private long lastStepDown = Long.MIN_VALUE / 2;
+  private long lastStepUp = Long.MIN_VALUE / 2;
+  private long calmSince = -1;
+  private long probeMillis = MIN_PROBE_MILLIS;
+
+  /**
+   * Instantiates a new controller.
+   *
+   * @param base                the session's encoder settings, level 0 of the ladder
+   * @param sampleRate          the sample rate
+   * @param channels            the channel count
+   * @param targetLatencyMillis how much audio may be queued before the encoder is stepped down
+   * @param pageMillis          how much audio the encoder puts in one Ogg page, the size of the bursts the queue
+   *                            receives
+   */
+  public AdaptiveBitrateController(OpusEncoderConfiguration base, int sampleRate, int channels,
+                                   int targetLatencyMillis, int pageMillis) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.targetLatencyMillis = targetLatencyMillis;
+    // spans two pages, so the queue empties in every window the reader keeps up with
+    this.windowMillis = Math.max(MIN_WINDOW_MILLIS, 2 * pageMillis);
+    this.ladder = ladder(base, sampleRate, channels);
+    this.producedBytesPerMilli = nominalBytesPerMilli(0);
+  }
+
+  /**
+   * Builds the ladder of settings for a base configuration: the base itself, then every rung of the built-in ladder
+   * that is cheaper than it. Settings the ladder does not touch, like the application and frame duration, are kept.
+   *
+   * @param base       the session's encoder settings
+   * @param sampleRate the sample rate
+   * @param channels   the channel count
+   * @return the levels, from best to cheapest
+   */
+  static List<OpusEncoderConfiguration> ladder(OpusEncoderConfiguration base, int sampleRate, int channels) {
+    List<OpusEncoderConfiguration> levels = new ArrayList<OpusEncoderConfiguration>();
+    levels.add(base.copy());
+    int baseBitrate = nominalBitrate(base, sampleRate, channels);
+    for (int i = 0; i < BITRATES.length; i++) {
+      if (BITRATES[i] >= baseBitrate) {
+        continue;
+      }
+      OpusEncoderConfiguration level = base.copy();
+      level.bitrate = BITRATES[i];
+      level.vbrConstraint = true;
+      level.complexity = Math.min(base.complexity, COMPLEXITIES[i]);
+      if (MAX_BANDWIDTHS[i].ordinal() < base.maxBandwidth.ordinal()) {
+        level.maxBandwidth = MAX_BANDWIDTHS[i];
+      }
+      level.bandwidth = Bandwidth.AUTO;
+      levels.add(level);
+    }
+    return levels;
+  }
+
+  /**
+   * Gets the bitrate a configuration aims for, working out what libopus picks for {@code BITRATE_AUTO}.
+   *
+   * @param configuration the settings
+   * @param sampleRate    the sample rate
+   * @param channels      the channel count
+   * @return the bitrate in bits per second
+   */
+  static int nominalBitrate(OpusEncoderConfiguration configuration, int sampleRate, int channels) {
+    if (configuration.bitrate == OpusEncoderConfiguration.BITRATE_AUTO) {
+      return 60 * 1000 / configuration.frameDurationMillis + sampleRate * channels;
+    }
+    if (configuration.bitrate == OpusEncoderConfiguration.BITRATE_MAX) {
+      return 512000;
+    }
+    return configuration.bitrate;
+  }
+
+  /**
+   * Takes new settings for level 0, keeping the current level, for example after the application changed the
+   * encoder configuration during the session.
+   *
+   * @param base the new settings
+   * @return the settings of the current level to apply to the encoder
+   */
+  public OpusEncoderConfiguration rebase(OpusEncoderConfiguration base) {
+    ladder = ladder(base, sampleRate, channels);
+    level = Math.min(level, ladder.size() - 1);
+    return ladder.get(level).copy();
+  }
+
+  /**
+   * Accounts for one more chunk of captured audio and decides whether the encoder settings must change.
+   *
+   * @param nowMillis   a monotonic clock
+   * @param audioMillis the duration of the audio captured since the previous call
+   * @param queue       the queue of encoded audio the reader drains
+   * @return the settings to apply to the encoder, or null to keep the current ones
+   */
+  public OpusEncoderConfiguration update(long nowMillis, double audioMillis, AudioRingBuffer queue) {
+    long written = queue.getWrittenBytes();
+    long consumed = queue.getConsumedBytes();
+    if (!started) {
+      started = true;
+      startWindow(nowMillis, written, consumed);
+    }
+    windowAudioMillis += audioMillis;
+    windowMinQueued = Math.min(windowMinQueued, queue.available());
+    if (nowMillis - windowStart < windowMillis || windowAudioMillis < windowMillis) {
+      return null;
+    }
+    int standing = windowMinQueued;
+    measure(nowMillis, written, consumed, standing > 0);
+    startWindow(nowMillis, written, consumed);
+
+    // what is queued goes out at the rate the reader drains it
+    double latencyMillis = standing / (drainBytesPerMilli > 0 ? drainBytesPerMilli : producedBytesPerMilli);
+    int next = level;
+    if (latencyMillis > targetLatencyMillis) {
+      calmSince = -1;
+      next = levelFor(standing);
+    } else if (latencyMillis < targetLatencyMillis / 4.0 && level > 0) {
+      if (calmSince < 0) {
+        calmSince = nowMillis;
+      } else if (nowMillis - calmSince >= probeMillis) {
+        // the uplink may have recovered; the only way to find out is to try
+        next = level - 1;
+      }
+    } else {
+      calmSince = -1;
+    }
+    if (next == level) {
+      return null;
+    }
+
+    if (next > level) {
+      if (lastStepUp > lastStepDown && nowMillis - lastStepUp < probeMillis) {
+        // the last probe overloaded the uplink, wait longer before the next one
+        probeMillis = Math.min(probeMillis * 2, MAX_PROBE_MILLIS);
+      }
+      lastStepDown = nowMillis;
+    } else {
+      lastStepUp = nowMillis;
+      if (nowMillis - lastStepDown >= 4L * probeMillis) {
+        probeMillis = MIN_PROBE_MILLIS;
+      }
+    }
+    calmSince = -1;
+    level = next;
+    producedBytesPerMilli = predictedBytesPerMilli(level);
+    return ladder.get(level).copy();
+  }
+
+  /**
+   * Picks the best level, no better than the current one, at which the reader drains the current backlog within
+   * {@link #RECOVERY_MILLIS}. Without a measured drain rate, steps down one level.
+   */
+  private int levelFor(int queued) {
+    if (drainBytesPerMilli == 0) {
+      return Math.min(level + 1, ladder.size() - 1);
+    }
+    double affordable = (drainBytesPerMilli - queued / (double) RECOVERY_MILLIS) * HEADROOM;
+    for (int i = level; i < ladder.size(); i++) {
+      if (predictedBytesPerMilli(i) <= affordable) {
+        return i;
+      }
+    }
+    return ladder.size() - 1;
+  }
+
+  private void measure(long nowMillis, long written, long consumed, boolean backlogged) {
+    double produced = (written - windowWritten) / windowAudioMillis;
+    if (produced > 0) {
+      // a window holds one page more or less depending on where it falls, so smooth over several
+      producedBytesPerMilli = 0.75 * producedBytesPerMilli + 0.25 * produced;
+      overhead = Math.max(0.5, Math.min(2, producedBytesPerMilli / nominalBytesPerMilli(level)));
+    }
+    double drained = (consumed - windowConsumed) / (double) (nowMillis - windowStart);
+    if (backlogged) {
+      // audio was waiting the whole window, so the reader took all it could
+      drainBytesPerMilli = drainBytesPerMilli == 0 ? drained : 0.5 * drainBytesPerMilli + 0.5 * drained;
+    } else if (drained > drainBytesPerMilli) {
+      drainBytesPerMilli = drained;
+    }
+  }
+
+  private void startWindow(long nowMillis, long written, long consumed) {
+    windowStart = nowMillis;
+    windowAudioMillis = 0;
+    windowWritten = written;
+    windowConsumed = consumed;
+    windowMinQueued = Integer.MAX_VALUE;
+  }
+
+  private double nominalBytesPerMilli(int level) {
+    return nominalBitrate(ladder.get(level), sampleRate, channels) / 8000.0;
+  }
+
+  private double predictedBytesPerMilli(int level) {
+    return nominalBytesPerMilli(level) * overhead;
+  }
+
+  /**
+   * Gets the current level.
+   *
+   * @return 0 for the session's own settings, higher for cheaper ones
+   */
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Gets the number of levels.
+   *
+   * @return the number of levels, including level 0
+   */
+  public int getLevelCount() {
+    return ladder.size();
+  }
+
+  /**
+   * Gets the rate the reader was last measured to drain the queue at while audio was waiting.
+   *
+   * @return the drain rate in bytes per second, 0 if the reader has always kept up
+   */
+  public double getDrainBytesPerSecond() {
+    return drainBytesPerMilli * 1000;
+  }
+}
@@ -14,7 +14,7 @@
 package com.ibm.watson.developer_cloud.android.library.audio;
 
 /**
- * Receives amplitude and volume data per sample from {@link MicrophoneInputStream}.
+ * Receives amplitude and volume data from {@link MicrophoneInputStream}, at most at the stream's meter rate.
  */
 public interface AmplitudeListener {
   /**
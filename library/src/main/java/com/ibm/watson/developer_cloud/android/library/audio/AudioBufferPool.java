@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed set of preallocated audio buffers that are handed out with {@link #acquire(int)} and must be handed back
+ * with {@link #release(byte[])} once the holder is done with them. A buffer must not be touched after it has been
+ * released, since the next {@code acquire} may give it to someone else.
+ *
+ * <p>All buffers in the pool have the same size. Requests for any other size, or requests made while every buffer is
+ * out, are served with a fresh array that is simply dropped on release; {@link #getMisses()} counts them so a caller
+ * can verify that its steady state does not allocate.
+ */
+public final class AudioBufferPool {
+  private final int bufferSize;
+  private final AtomicReferenceArray<byte[]> free;
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Instantiates a new buffer pool and allocates all of its buffers.
+   *
+   * @param bufferCount number of buffers to keep
+   * @param bufferSize  size of each buffer in bytes
+   */
+  public AudioBufferPool(int bufferCount, int bufferSize) {
+    this.bufferSize = bufferSize;
+    this.free = new AtomicReferenceArray<>(bufferCount);
+    for (int i = 0; i < bufferCount; i++) {
+      free.set(i, new byte[bufferSize]);
+    }
+  }
+
+  /**
+   * Borrows a buffer of the pool's buffer size.
+   *
+   * @return a buffer the caller owns until it is passed to {@link #release(byte[])}
+   */
+  public byte[] acquire() {
+    return acquire(bufferSize);
+  }
+
+  /**
+   * Borrows a buffer of exactly the given length.
+   *
+   * @param length the required length in bytes
+   * @return a buffer the caller owns until it is passed to {@link #release(byte[])}
+   */
+  public byte[] acquire(int length) {
+    if (length == bufferSize) {
+      for (int i = 0; i < free.length(); i++) {
+        byte[] buffer = free.get(i);
+        if (buffer != null && free.compareAndSet(i, buffer, null)) {
+          return buffer;
+        }
+      }
+    }
+    misses.incrementAndGet();
+    return new byte[length];
+  }
+
+  /**
+   * Hands a buffer back to the pool.
+   *
+   * @param buffer a buffer previously returned by {@link #acquire(int)}
+   */
+  public void release(byte[] buffer) {
+    if (buffer == null || buffer.length != bufferSize) {
+      return;
+    }
+    for (int i = 0; i < free.length(); i++) {
+      if (free.get(i) == null && free.compareAndSet(i, null, buffer)) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Gets the size of the pooled buffers.
+   *
+   * @return the buffer size in bytes
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+  /**
+   * Gets the number of requests that had to allocate because no pooled buffer could serve them.
+   *
+   * @return the miss count
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+}
@@ -15,6 +15,10 @@ package com.ibm.watson.developer_cloud.android.library.audio;
 
 /**
  * Delegate for consuming audio data from {@link MicrophoneCaptureThread}.
+ *
+ * <p>Arrays passed to a consumer are only lent for the duration of the call. The producer hands them back to its
+ * buffer pool as soon as the call returns and refills them with later audio, so a consumer that needs the data
+ * afterwards must copy it.
  */
 public interface AudioConsumer {
   /**
@@ -32,4 +36,24 @@ public interface AudioConsumer {
    * @param data the data
    */
   void consume(byte[] data);
+
+  /**
+   * Data that has been recorded in the most recent sample and is ready for consumption.
+   *
+   * @param data      Buffer of audio data in raw form.
+   * @param offset    Offset of the first byte of audio in the buffer.
+   * @param length    Number of bytes of audio in the buffer.
+   * @param amplitude Amplitude from sample.
+   * @param volume    Volume from sample.
+   */
+  void consume(byte[] data, int offset, int length, double amplitude, double volume);
+
+  /**
+   * Consume a range of a buffer.
+   *
+   * @param data   the data
+   * @param offset the offset of the first byte to consume
+   * @param length the number of bytes to consume
+   */
+  void consume(byte[] data, int offset, int length);
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Feeds one stream of captured PCM to any number of independent {@link AudioConsumer}s. Every consumer gets its own
+ * bounded {@link AudioRingBuffer} with its own {@link OverflowPolicy} and its own delivery thread, so a slow consumer
+ * such as a disk writer only ever loses its own audio and never holds up the capture thread or the other consumers.
+ *
+ * <p>{@link #write(byte[], int, int)} must only be called from a single producer thread. Consumers are called with
+ * {@link AudioConsumer#consume(byte[], int, int)} on their delivery thread. A consumer that is also
+ * {@link Closeable} is closed by its delivery thread once the fan-out is closed and its queue is drained.
+ */
+public final class AudioFanOut {
+  private static final String TAG = AudioFanOut.class.getName();
+  private static final int DELIVERY_CHUNK_MILLIS = 20;
+
+  private final int sampleRate;
+  private final int channels;
+  private final Object branchesLock = new Object();
+  private volatile Branch[] branches = new Branch[0];
+  private volatile boolean closed;
+
+  /**
+   * Instantiates a new fan-out.
+   *
+   * @param sampleRate the sample rate of the audio
+   * @param channels   the channel count of the audio
+   */
+  public AudioFanOut(int sampleRate, int channels) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+  }
+
+  /**
+   * Adds a consumer and starts its delivery thread.
+   *
+   * @param consumer       the consumer
+   * @param capacityMillis how much audio may queue up for this consumer
+   * @param overflowPolicy what happens to audio that does not fit in this consumer's queue
+   */
+  public void addConsumer(AudioConsumer consumer, int capacityMillis, OverflowPolicy overflowPolicy) {
+    AudioRingBuffer queue = AudioRingBuffer.forDuration(capacityMillis, sampleRate, channels, overflowPolicy);
+    Branch branch = new Branch(consumer, queue,
+            AudioRingBuffer.bytesForDuration(DELIVERY_CHUNK_MILLIS, sampleRate, channels));
+
+    synchronized (branchesLock) {
+      if (closed) {
+        throw new IllegalStateException("Fan-out already closed");
+      }
+      Branch[] current = branches;
+      Branch[] updated = new Branch[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      updated[current.length] = branch;
+      branches = updated;
+    }
+    branch.start();
+  }
+
+  /**
+   * Queues audio for every consumer. Never blocks unless a consumer was added with {@link OverflowPolicy#BLOCK}.
+   *
+   * @param data   the audio as little-endian 16-bit samples
+   * @param offset the offset of the first byte
+   * @param length the number of bytes
+   */
+  public void write(byte[] data, int offset, int length) {
+    Branch[] current = branches;
+    for (int i = 0; i < current.length; i++) {
+      current[i].queue.write(data, offset, length);
+    }
+  }
+
+  /**
+   * Checks if any consumers have been added.
+   *
+   * @return true if there is at least one consumer
+   */
+  public boolean hasConsumers() {
+    return branches.length > 0;
+  }
+
+  /**
+   * Gets the number of bytes a consumer's queue discarded because the consumer fell behind.
+   *
+   * @param consumer the consumer
+   * @return the dropped byte count, 0 if the consumer was never added
+   */
+  public long getDroppedBytes(AudioConsumer consumer) {
+    Branch[] current = branches;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i].consumer == consumer) {
+        return current[i].queue.getDroppedBytes();
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Ends the stream for every consumer. Audio already queued is still delivered.
+   */
+  public void close() {
+    Branch[] current;
+    synchronized (branchesLock) {
+      closed = true;
+      current = branches;
+    }
+    for (int i = 0; i < current.length; i++) {
+      current[i].queue.close();
+    }
+  }
+
+  /**
+   * Waits until every consumer has received all queued audio.
+   *
+   * @param millis the maximum time to wait for each consumer
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void awaitDrained(long millis) throws InterruptedException {
+    Branch[] current = branches;
+    for (int i = 0; i < current.length; i++) {
+      current[i].join(millis);
+    }
+  }
+
+  /**
+   * Delivery thread for a single consumer.
+   */
+  private static final class Branch extends Thread {
+    private final AudioConsumer consumer;
+    private final AudioRingBuffer queue;
+    private final byte[] chunk;
+
+    Branch(AudioConsumer consumer, AudioRingBuffer queue, int chunkSize) {
+      super("AudioFanOut-" + consumer.getClass().getSimpleName());
+      setDaemon(true);
+      this.consumer = consumer;
+      this.queue = queue;
+      this.chunk = new byte[chunkSize];
+    }
+
+    @Override
+    public void run() {
+      int read;
+      while ((read = queue.read(chunk, 0, chunk.length)) != -1) {
+        try {
+          consumer.consume(chunk, 0, read);
+        } catch (RuntimeException e) {
+          Log.e(TAG, "Audio consumer failed", e);
+        }
+      }
+
+      if (consumer instanceof Closeable) {
+        try {
+          ((Closeable) consumer).close();
+        } catch (IOException e) {
+          Log.e(TAG, e.getMessage());
+        }
+      }
+    }
+  }
+}
@@ -46,7 +46,12 @@ import java.io.OutputStream;
  * @author Marc Gimpel, Wimba S.A. (mgimpel@horizonwimba.com)
  */
 public abstract class AudioFileWriter {
-  
+
+  /**
+   * The Ogg capture pattern, kept as bytes so writing a page header does not allocate.
+   */
+  private static final byte[] OGG_CAPTURE_PATTERN = {'O', 'g', 'g', 'S'};
+
   /**
    * Writes an Ogg Page Header to the given byte array.
    *
@@ -65,7 +70,8 @@ public abstract class AudioFileWriter {
                                        long granulepos, int streamSerialNumber,
                                        int pageCount, int packetCount,
                                        byte[] packetSizes) {
-    writeString(buf, offset, "OggS");             //  0 -  3: capture_pattern
+    System.arraycopy(OGG_CAPTURE_PATTERN, 0,      //  0 -  3: capture_pattern
+            buf, offset, 4);
     buf[offset + 4] = 0;                            //       4: stream_structure_version
     buf[offset + 5] = (byte) headerType;            //       5: header_type_flag
     writeLong(buf, offset + 6, granulepos);         //  6 - 13: absolute granule position
@@ -106,8 +112,31 @@ public abstract class AudioFileWriter {
    * @return Opus Header data
    */
   public static byte[] buildOpusHeader(int sampleRate) {
+    return buildOpusHeader(sampleRate, 1);
+  }
+
+  /**
+   * Builds an Opus identification header.
+   *
+   * @param sampleRate the input sample rate
+   * @param channels   the output channel count, 1 or 2
+   * @return the header
+   */
+  public static byte[] buildOpusHeader(int sampleRate, int channels) {
+    return buildOpusHeader(sampleRate, channels, 0);
+  }
+
+  /**
+   * Builds an Opus identification header.
+   *
+   * @param sampleRate the input sample rate
+   * @param channels   the output channel count, 1 or 2
+   * @param preSkip    the number of 48 kHz samples decoders discard at the start of the stream
+   * @return the header
+   */
+  public static byte[] buildOpusHeader(int sampleRate, int channels, int preSkip) {
     byte[] data = new byte[19];
-    writeOpusHeader(data, 0, sampleRate);
+    writeOpusHeader(data, 0, sampleRate, channels, preSkip);
     return data;
   }
 
@@ -121,11 +150,36 @@ public abstract class AudioFileWriter {
    * 
    */
   public static void writeOpusHeader(byte[] buf, int offset, int sampleRate) {
+    writeOpusHeader(buf, offset, sampleRate, 1);
+  }
+
+  /**
+   * Writes an Opus identification header.
+   *
+   * @param buf        the buffer
+   * @param offset     the offset
+   * @param sampleRate the input sample rate
+   * @param channels   the output channel count, 1 or 2
+   */
+  public static void writeOpusHeader(byte[] buf, int offset, int sampleRate, int channels) {
+    writeOpusHeader(buf, offset, sampleRate, channels, 0);
+  }
+
+  /**
+   * Writes an Opus identification header.
+   *
+   * @param buf        the buffer
+   * @param offset     the offset
+   * @param sampleRate the input sample rate
+   * @param channels   the output channel count, 1 or 2
+   * @param preSkip    the number of 48 kHz samples decoders discard at the start of the stream
+   */
+  public static void writeOpusHeader(byte[] buf, int offset, int sampleRate, int channels, int preSkip) {
     // Magic Signature
     writeString(buf, offset, "OpusHead");
     buf[offset + 8] = 1;                        // Version, MUST The version number MUST always be '1' for this version of the encapsulation specification.
-    buf[offset + 9] = 1;                        // Output Channel Count
-    writeShort(buf, offset + 10, 0);            // Pre-skip
+    buf[offset + 9] = (byte) channels;          // Output Channel Count
+    writeShort(buf, offset + 10, preSkip);      // Pre-skip
     writeInt(buf, offset + 12, sampleRate);     // Input Sample Rate (Hz)
     writeShort(buf, offset + 16, 0);            // Output Gain (Q7.8 in dB), +/- 128 dB
     buf[offset + 18] = 0; // Mapping Family (For channel mapping family 0, this value defaults to C-1 (i.e., 0 for mono and 1 for stereo), and is not coded.)
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures RMS and peak levels of 16-bit audio per codec frame and publishes them to listeners at a fixed rate.
+ *
+ * <p>The capture thread only folds samples into running sums and, at the end of each frame, stores the result in a
+ * single atomic register. A separate daemon thread wakes up at the publishing rate and passes the latest value to the
+ * listeners if it changed. Listeners therefore never run on, or slow down, the capture thread, and a UI meter costs
+ * one callback per refresh instead of one per captured chunk.
+ */
+public final class AudioLevelMeter {
+  /**
+   * Level reported for digital silence, the dynamic range of 16-bit audio.
+   */
+  public static final double MIN_DBFS = -96;
+  private static final double FULL_SCALE = 32768;
+
+  private final int frameSize;
+  private final int publishIntervalMillis;
+  /**
+   * Latest RMS and peak of a frame, as two float bit patterns, in units of full scale.
+   */
+  private final AtomicLong latest = new AtomicLong();
+  private final AtomicLong frames = new AtomicLong();
+
+  private long sumOfSquares;
+  private int peak;
+  private int count;
+
+  private volatile AmplitudeListener amplitudeListener;
+  private volatile LevelListener levelListener;
+  private Thread publisher;
+  private volatile boolean stopped;
+
+  /**
+   * Instantiates a new level meter.
+   *
+   * @param frameSize the number of samples per measured frame
+   * @param publishHz how many times per second listeners are updated at most
+   */
+  public AudioLevelMeter(int frameSize, int publishHz) {
+    this.frameSize = frameSize;
+    this.publishIntervalMillis = Math.max(1, 1000 / Math.max(1, publishHz));
+  }
+
+  /**
+   * Folds captured samples into the measurement. Only called from the capture thread.
+   *
+   * @param samples the samples
+   * @param offset  the offset of the first sample
+   * @param length  the number of samples
+   */
+  public void process(short[] samples, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      fold(samples[i]);
+    }
+  }
+
+  /**
+   * Folds captured float samples into the measurement, full scale being -1 to 1. Samples beyond full scale count as
+   * full scale. Only called from the capture thread.
+   *
+   * @param samples the samples
+   * @param offset  the offset of the first sample
+   * @param length  the number of samples
+   */
+  public void process(float[] samples, int offset, int length) {
+    for (int i = offset; i < offset + length; i++) {
+      fold(AudioRecordSource.toShort(samples[i]));
+    }
+  }
+
+  private void fold(int sample) {
+    sumOfSquares += sample * sample;
+    int magnitude = sample < 0 ? -sample : sample;
+    if (magnitude > peak) {
+      peak = magnitude;
+    }
+    if (++count == frameSize) {
+      float rms = (float) (Math.sqrt(sumOfSquares / (double) count) / FULL_SCALE);
+      float peakLevel = (float) (peak / FULL_SCALE);
+      latest.set(((long) Float.floatToIntBits(rms) << 32) | (Float.floatToIntBits(peakLevel) & 0xffffffffL));
+      frames.incrementAndGet();
+      sumOfSquares = 0;
+      peak = 0;
+      count = 0;
+    }
+  }
+
+  /**
+   * Gets the RMS level of the most recent frame.
+   *
+   * @return the RMS level in dBFS
+   */
+  public double getRmsDbfs() {
+    return toDbfs(Float.intBitsToFloat((int) (latest.get() >>> 32)));
+  }
+
+  /**
+   * Gets the peak level of the most recent frame.
+   *
+   * @return the peak level in dBFS
+   */
+  public double getPeakDbfs() {
+    return toDbfs(Float.intBitsToFloat((int) latest.get()));
+  }
+
+  /**
+   * Gets the number of frames measured so far.
+   *
+   * @return the frame count
+   */
+  public long getFrameCount() {
+    return frames.get();
+  }
+
+  /**
+   * Sets the listener receiving levels in dBFS, starting the publishing thread if needed.
+   *
+   * @param listener the listener, or null
+   */
+  public void setLevelListener(LevelListener listener) {
+    levelListener = listener;
+    startPublisher();
+  }
+
+  /**
+   * Sets the listener receiving amplitude (mean square) and volume, starting the publishing thread if needed.
+   *
+   * @param listener the listener, or null
+   */
+  public void setAmplitudeListener(AmplitudeListener listener) {
+    amplitudeListener = listener;
+    startPublisher();
+  }
+
+  /**
+   * Stops publishing.
+   */
+  public void stop() {
+    stopped = true;
+  }
+
+  private synchronized void startPublisher() {
+    if (publisher != null || stopped) {
+      return;
+    }
+    publisher = new Thread("AudioLevelMeter") {
+      @Override
+      public void run() {
+        long published = 0;
+        while (!stopped) {
+          try {
+            Thread.sleep(publishIntervalMillis);
+          } catch (InterruptedException e) {
+            return;
+          }
+          long current = frames.get();
+          if (current != published) {
+            published = current;
+            publish();
+          }
+        }
+      }
+    };
+    publisher.setDaemon(true);
+    publisher.start();
+  }
+
+  private void publish() {
+    long value = latest.get();
+    double rms = Float.intBitsToFloat((int) (value >>> 32));
+    double peakLevel = Float.intBitsToFloat((int) value);
+
+    LevelListener levelListener = this.levelListener;
+    if (levelListener != null) {
+      levelListener.onLevel(toDbfs(rms), toDbfs(peakLevel));
+    }
+    AmplitudeListener amplitudeListener = this.amplitudeListener;
+    if (amplitudeListener != null) {
+      double amplitude = rms * FULL_SCALE * rms * FULL_SCALE;
+      amplitudeListener.onSample(amplitude, amplitude > 0 ? 10 * Math.log10(amplitude) : 0);
+    }
+  }
+
+  private static double toDbfs(double level) {
+    if (level <= 0) {
+      return MIN_DBFS;
+    }
+    return Math.max(MIN_DBFS, 20 * Math.log10(level));
+  }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+
+import java.io.IOException;
+
+/**
+ * Reads from the device microphone through {@code AudioRecord}. The record comes from, and goes back to, a
+ * {@link MicrophoneSessionManager} so it can stay initialized between sessions.
+ *
+ * <p>The record captures 16-bit PCM, or float samples on Android 6.0 and later if asked to. Either way the source
+ * can be read in both formats; reading the other format converts through a scratch buffer.
+ */
+public final class AudioRecordSource implements FloatPcmSource {
+  private final MicrophoneSessionManager sessions;
+  private final int sampleRate;
+  private final int channels;
+  private final int recordBufferBytes;
+  private final int encoding;
+  private AudioRecord record;
+  private short[] shortScratch;
+  private float[] floatScratch;
+
+  /**
+   * Instantiates a new microphone source.
+   *
+   * @param sessions          the session manager providing the {@code AudioRecord}
+   * @param sampleRate        the sample rate
+   * @param channels          the channel count, 1 or 2
+   * @param recordBufferBytes the size of the internal {@code AudioRecord} buffer in bytes
+   */
+  public AudioRecordSource(MicrophoneSessionManager sessions, int sampleRate, int channels, int recordBufferBytes) {
+    this(sessions, sampleRate, channels, recordBufferBytes, AudioFormat.ENCODING_PCM_16BIT);
+  }
+
+  /**
+   * Instantiates a new microphone source recording in the given encoding.
+   *
+   * @param sessions          the session manager providing the {@code AudioRecord}
+   * @param sampleRate        the sample rate
+   * @param channels          the channel count, 1 or 2
+   * @param recordBufferBytes the size of the internal {@code AudioRecord} buffer in bytes
+   * @param encoding          {@code AudioFormat.ENCODING_PCM_16BIT}, or {@code ENCODING_PCM_FLOAT} on Android 6.0
+   *                          and later
+   */
+  public AudioRecordSource(MicrophoneSessionManager sessions, int sampleRate, int channels, int recordBufferBytes,
+                           int encoding) {
+    this.sessions = sessions;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.recordBufferBytes = recordBufferBytes;
+    this.encoding = encoding;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public void start() throws IOException {
+    record = sessions.acquireRecord(sampleRate, channels, encoding, recordBufferBytes);
+    if (record.getState() != AudioRecord.STATE_INITIALIZED) {
+      sessions.releaseRecord(record);
+      record = null;
+      throw new IOException("AudioRecord could not be initialized");
+    }
+    record.startRecording();
+  }
+
+  @Override
+  public int read(short[] buffer, int offset, int length) throws IOException {
+    if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+      if (floatScratch == null || floatScratch.length < length) {
+        floatScratch = new float[length];
+      }
+      int read = check(record.read(floatScratch, 0, length, AudioRecord.READ_BLOCKING));
+      for (int i = 0; i < read; i++) {
+        buffer[offset + i] = toShort(floatScratch[i]);
+      }
+      return read;
+    }
+    return check(record.read(buffer, offset, length));
+  }
+
+  @Override
+  public int read(float[] buffer, int offset, int length) throws IOException {
+    if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+      return check(record.read(buffer, offset, length, AudioRecord.READ_BLOCKING));
+    }
+    if (shortScratch == null || shortScratch.length < length) {
+      shortScratch = new short[length];
+    }
+    int read = check(record.read(shortScratch, 0, length));
+    for (int i = 0; i < read; i++) {
+      buffer[offset + i] = shortScratch[i] / 32768f;
+    }
+    return read;
+  }
+
+  /**
+   * Passes a read count through, turning an error code into an exception. Only a dead {@code AudioRecord}, lost to
+   * the media server, cannot be read again.
+   *
+   * @param read what {@code AudioRecord.read} returned
+   * @return the number of samples read
+   * @throws IOException if the read failed
+   */
+  static int check(int read) throws IOException {
+    if (read == AudioRecord.ERROR_DEAD_OBJECT) {
+      throw new IOException("AudioRecord is no longer valid");
+    }
+    if (read < 0) {
+      throw new TransientReadException("AudioRecord read failed with error " + read);
+    }
+    return read;
+  }
+
+  /**
+   * Converts a float sample to 16 bits, clipping it to full scale.
+   *
+   * @param sample the sample, full scale being -1 to 1
+   * @return the 16-bit sample
+   */
+  static short toShort(float sample) {
+    int value = Math.round(sample * 32768f);
+    return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+  }
+
+  @Override
+  public void stop() {
+    if (record != null) {
+      record.stop();
+      sessions.releaseRecord(record);
+      record = null;
+    }
+  }
+
+  /**
+   * Gets the {@code AudioFormat} input channel mask for a channel count.
+   *
+   * @param channels the channel count, 1 or 2
+   * @return the channel mask
+   */
+  static int channelMask(int channels) {
+    return channels == 2 ? AudioFormat.CHANNEL_IN_STEREO : AudioFormat.CHANNEL_IN_MONO;
+  }
+}
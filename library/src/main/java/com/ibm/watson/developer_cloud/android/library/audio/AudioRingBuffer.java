@@ -0,0 +1,346 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated single-producer/single-consumer byte queue used to hand audio from the capture thread to a reader.
+ * Neither side takes a lock or allocates; positions are published through atomics and a waiting side is parked
+ * until the other one makes progress.
+ *
+ * <p>Exactly one thread may call {@link #write(byte[], int, int)} and exactly one thread may call
+ * {@link #read(byte[], int, int)}. When the buffer is full the configured {@link OverflowPolicy} decides whether
+ * the producer waits or audio is discarded. Discards always happen in multiples of the alignment, so a reader never
+ * ends up in the middle of a sample.
+ */
+public final class AudioRingBuffer {
+  private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+  private final byte[] buffer;
+  private final int capacity;
+  private final int alignment;
+  private final OverflowPolicy overflowPolicy;
+
+  /**
+   * Total number of bytes ever written. Only advanced by the producer.
+   */
+  private final AtomicLong writePosition = new AtomicLong();
+  /**
+   * Total number of bytes ever consumed or discarded. Advanced by the consumer, and by the producer when it drops
+   * the oldest data.
+   */
+  private final AtomicLong readPosition = new AtomicLong();
+  private final AtomicLong droppedBytes = new AtomicLong();
+  /**
+   * Total number of bytes handed to the consumer. Only advanced by the consumer.
+   */
+  private final AtomicLong consumedBytes = new AtomicLong();
+
+  private volatile long highWaterMark;
+  private volatile boolean closed;
+  private volatile boolean writesAborted;
+  private volatile Thread waitingReader;
+  private volatile Thread waitingWriter;
+
+  /**
+   * Instantiates a new ring buffer.
+   *
+   * @param capacity       size of the buffer in bytes
+   * @param alignment      size of one sample frame in bytes; capacity must be a multiple of it
+   * @param overflowPolicy what to do with audio that does not fit
+   */
+  public AudioRingBuffer(int capacity, int alignment, OverflowPolicy overflowPolicy) {
+    if (alignment <= 0 || capacity <= 0 || capacity % alignment != 0) {
+      throw new IllegalArgumentException("Capacity must be a positive multiple of the alignment");
+    }
+    if (overflowPolicy == null) {
+      throw new IllegalArgumentException("Overflow policy must not be null");
+    }
+    this.buffer = new byte[capacity];
+    this.capacity = capacity;
+    this.alignment = alignment;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Creates a ring buffer large enough to hold the given duration of 16-bit PCM audio.
+   *
+   * @param millis         duration of audio the buffer should hold
+   * @param sampleRate     sample rate of the audio
+   * @param channels       channel count of the audio
+   * @param overflowPolicy what to do with audio that does not fit
+   * @return the ring buffer
+   */
+  public static AudioRingBuffer forDuration(int millis, int sampleRate, int channels, OverflowPolicy overflowPolicy) {
+    return new AudioRingBuffer(bytesForDuration(millis, sampleRate, channels), 2 * channels, overflowPolicy);
+  }
+
+  /**
+   * Gets the size of the given duration of 16-bit PCM audio, in whole frames and at least one.
+   *
+   * @param millis     duration of the audio
+   * @param sampleRate sample rate of the audio
+   * @param channels   channel count of the audio
+   * @return the size in bytes
+   */
+  static int bytesForDuration(int millis, int sampleRate, int channels) {
+    long frames = Math.max(1, (long) sampleRate * millis / 1000);
+    return (int) (frames * 2 * channels);
+  }
+
+  /**
+   * Queues audio for the consumer. Must only be called from the producer thread.
+   *
+   * @param data   the data
+   * @param offset the offset of the first byte to queue
+   * @param length the number of bytes to queue, a multiple of the alignment
+   * @return the number of bytes queued; less than {@code length} if data was dropped or the buffer was closed
+   */
+  public int write(byte[] data, int offset, int length) {
+    if (closed) {
+      return 0;
+    }
+
+    if (length > capacity && overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+      // only the most recent capacity worth of bytes could survive anyway
+      int skipped = length - capacity;
+      droppedBytes.addAndGet(skipped);
+      offset += skipped;
+      length = capacity;
+    }
+
+    int written = 0;
+    while (written < length) {
+      long w = writePosition.get();
+      long r = readPosition.get();
+      int free = capacity - (int) (w - r);
+
+      if (free == 0) {
+        if (closed) {
+          break;
+        }
+        if (overflowPolicy == OverflowPolicy.DROP_NEWEST || writesAborted) {
+          droppedBytes.addAndGet(length - written);
+          break;
+        } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+          long target = alignUp(r + (length - written));
+          if (target > w) {
+            target = w;
+          }
+          if (readPosition.compareAndSet(r, target)) {
+            droppedBytes.addAndGet(target - r);
+          }
+        } else {
+          waitingWriter = Thread.currentThread();
+          if (readPosition.get() == r && !closed) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+          }
+          waitingWriter = null;
+        }
+        continue;
+      }
+
+      int n = Math.min(free, length - written);
+      copyIn(data, offset + written, w, n);
+      writePosition.set(w + n);
+      written += n;
+
+      long used = w + n - readPosition.get();
+      if (used > highWaterMark) {
+        highWaterMark = used;
+      }
+      Thread reader = waitingReader;
+      if (reader != null) {
+        LockSupport.unpark(reader);
+      }
+    }
+    return written;
+  }
+
+  /**
+   * Reads queued audio, blocking until at least one byte is available. Must only be called from the consumer
+   * thread.
+   *
+   * @param data   the buffer to read into
+   * @param offset the offset to start writing at
+   * @param length the maximum number of bytes to read
+   * @return the number of bytes read, or -1 once the buffer is closed and fully drained
+   */
+  public int read(byte[] data, int offset, int length) {
+    if (length == 0) {
+      return 0;
+    }
+
+    while (true) {
+      long r = readPosition.get();
+      long w = writePosition.get();
+      int available = (int) (w - r);
+
+      if (available == 0) {
+        if (closed) {
+          // the producer may have published between the two reads above
+          if (writePosition.get() == readPosition.get()) {
+            return -1;
+          }
+          continue;
+        }
+        waitingReader = Thread.currentThread();
+        if (writePosition.get() == w && !closed) {
+          LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        waitingReader = null;
+        continue;
+      }
+
+      int n = Math.min(available, length);
+      copyOut(r, data, offset, n);
+      // fails only if the producer dropped what we just copied, in which case it may also have been overwritten
+      if (readPosition.compareAndSet(r, r + n)) {
+        consumedBytes.addAndGet(n);
+        Thread writer = waitingWriter;
+        if (writer != null) {
+          LockSupport.unpark(writer);
+        }
+        return n;
+      }
+    }
+  }
+
+  /**
+   * Marks the end of the stream. Pending data can still be read; further writes are ignored and blocked threads are
+   * released.
+   */
+  public void close() {
+    closed = true;
+    Thread reader = waitingReader;
+    if (reader != null) {
+      LockSupport.unpark(reader);
+    }
+    Thread writer = waitingWriter;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Stops writes from waiting for room: what does not fit from then on is dropped, whatever the overflow policy.
+   * Releases a producer blocked on a reader that is gone, while everything that still fits reaches a reader that is
+   * not.
+   */
+  public void abortWrites() {
+    writesAborted = true;
+    Thread writer = waitingWriter;
+    if (writer != null) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /**
+   * Checks if the buffer has been closed.
+   *
+   * @return true if closed
+   */
+  public boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Gets the number of bytes currently queued.
+   *
+   * @return the number of unread bytes
+   */
+  public int available() {
+    return (int) (writePosition.get() - readPosition.get());
+  }
+
+  /**
+   * Gets the capacity.
+   *
+   * @return the capacity in bytes
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * Gets the overflow policy.
+   *
+   * @return the overflow policy
+   */
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  /**
+   * Gets the largest number of bytes that have been queued at once.
+   *
+   * @return the high-water mark in bytes
+   */
+  public long getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /**
+   * Gets the number of bytes discarded by the overflow policy.
+   *
+   * @return the dropped byte count
+   */
+  public long getDroppedBytes() {
+    return droppedBytes.get();
+  }
+
+  /**
+   * Gets the number of bytes written since the buffer was created.
+   *
+   * @return the total written byte count
+   */
+  public long getWrittenBytes() {
+    return writePosition.get();
+  }
+
+  /**
+   * Gets the number of bytes the reader has consumed since the buffer was created, not counting dropped ones.
+   *
+   * @return the total read byte count
+   */
+  public long getConsumedBytes() {
+    return consumedBytes.get();
+  }
+
+  private long alignUp(long position) {
+    long remainder = position % alignment;
+    return remainder == 0 ? position : position + alignment - remainder;
+  }
+
+  private void copyIn(byte[] src, int srcOffset, long position, int length) {
+    int index = (int) (position % capacity);
+    int first = Math.min(length, capacity - index);
+    System.arraycopy(src, srcOffset, buffer, index, first);
+    if (first < length) {
+      System.arraycopy(src, srcOffset + first, buffer, 0, length - first);
+    }
+  }
+
+  private void copyOut(long position, byte[] dst, int dstOffset, int length) {
+    int index = (int) (position % capacity);
+    int first = Math.min(length, capacity - index);
+    System.arraycopy(buffer, index, dst, dstOffset, first);
+    if (first < length) {
+      System.arraycopy(buffer, 0, dst, dstOffset + first, length - first);
+    }
+  }
+}
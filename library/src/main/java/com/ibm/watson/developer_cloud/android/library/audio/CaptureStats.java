@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Snapshot of the timing of a capture session, from {@link MicrophoneInputStream#getCaptureStats()}. It tells where
+ * latency comes from:
+ * <ul>
+ *   <li>capture: a growing {@link #getDriftMillis() drift}, {@link #getOverruns() overruns}, short reads or read
+ *   errors mean the source is not delivering audio in real time;</li>
+ *   <li>encoding and processing: {@link #getAverageProcessingMicros()} close to the 10 ms frame duration means the
+ *   capture thread is barely keeping up;</li>
+ *   <li>the consumer: {@link #getBufferedBytes() buffered} or {@link #getDroppedBytes() dropped} bytes mean the
+ *   reader of the stream is falling behind.</li>
+ * </ul>
+ */
+public final class CaptureStats {
+  private final int sampleRate;
+  private final int channels;
+  private final long capturedFrames;
+  private final long elapsedNanos;
+  private final long reads;
+  private final long shortReads;
+  private final long readErrors;
+  private final String lastError;
+  private final long overruns;
+  private final long driftMillis;
+  private final long maxDriftMillis;
+  private final long lastFrameNanos;
+  private final double averageProcessingMicros;
+  private final double maxProcessingMicros;
+  private final long bufferedBytes;
+  private final long droppedBytes;
+
+  CaptureStats(int sampleRate, int channels, long capturedFrames, long elapsedNanos, long reads, long shortReads,
+               long readErrors, String lastError, long overruns, long driftMillis, long maxDriftMillis,
+               long lastFrameNanos, double averageProcessingMicros, double maxProcessingMicros, long bufferedBytes,
+               long droppedBytes) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.capturedFrames = capturedFrames;
+    this.elapsedNanos = elapsedNanos;
+    this.reads = reads;
+    this.shortReads = shortReads;
+    this.readErrors = readErrors;
+    this.lastError = lastError;
+    this.overruns = overruns;
+    this.driftMillis = driftMillis;
+    this.maxDriftMillis = maxDriftMillis;
+    this.lastFrameNanos = lastFrameNanos;
+    this.averageProcessingMicros = averageProcessingMicros;
+    this.maxProcessingMicros = maxProcessingMicros;
+    this.bufferedBytes = bufferedBytes;
+    this.droppedBytes = droppedBytes;
+  }
+
+  /**
+   * Gets the number of frames captured, one sample per channel each. This is the sample clock.
+   *
+   * @return the captured frame count
+   */
+  public long getCapturedFrames() {
+    return capturedFrames;
+  }
+
+  /**
+   * Gets the duration of the captured audio according to the sample clock.
+   *
+   * @return the captured duration in milliseconds
+   */
+  public long getCapturedMillis() {
+    return capturedFrames * 1000 / sampleRate;
+  }
+
+  /**
+   * Gets the wall-clock time from the first captured sample to the end of the latest read, on the monotonic clock.
+   *
+   * @return the elapsed time in milliseconds
+   */
+  public long getElapsedMillis() {
+    return elapsedNanos / 1000000;
+  }
+
+  /**
+   * Gets how far the wall clock has moved ahead of the sample clock since the first read. Positive values mean
+   * audio was lost or the audio clock runs slow; large negative values mean the source delivers faster than real
+   * time.
+   *
+   * @return the drift in milliseconds
+   */
+  public long getDriftMillis() {
+    return driftMillis;
+  }
+
+  /**
+   * Gets the largest drift seen during the session.
+   *
+   * @return the maximum drift in milliseconds
+   */
+  public long getMaxDriftMillis() {
+    return maxDriftMillis;
+  }
+
+  /**
+   * Gets the number of reads from the source.
+   *
+   * @return the read count
+   */
+  public long getReads() {
+    return reads;
+  }
+
+  /**
+   * Gets the number of reads that returned fewer samples than requested.
+   *
+   * @return the short read count
+   */
+  public long getShortReads() {
+    return shortReads;
+  }
+
+  /**
+   * Gets the number of reads that failed, such as {@code AudioRecord} returning a negative error code. Capture goes on
+   * after a {@link TransientReadException}, so this counts those plus the failure that ended it, if any.
+   *
+   * @return the failed read count
+   */
+  public long getReadErrors() {
+    return readErrors;
+  }
+
+  /**
+   * Gets the error of the last failed read.
+   *
+   * @return the error message, or null
+   */
+  public String getLastError() {
+    return lastError;
+  }
+
+  /**
+   * Gets the number of times the capture thread fell so far behind that the source must have discarded audio.
+   *
+   * @return the overrun count
+   */
+  public long getOverruns() {
+    return overruns;
+  }
+
+  /**
+   * Gets the monotonic timestamp of the end of the latest read, comparable with {@link System#nanoTime()}.
+   *
+   * @return the timestamp in nanoseconds
+   */
+  public long getLastFrameNanos() {
+    return lastFrameNanos;
+  }
+
+  /**
+   * Gets the average time the capture thread spent processing, encoding and handing off 10 ms of audio.
+   *
+   * @return the average in microseconds per 10 ms frame
+   */
+  public double getAverageProcessingMicros() {
+    return averageProcessingMicros;
+  }
+
+  /**
+   * Gets the longest time the capture thread spent on 10 ms of audio, averaged over the read it was part of.
+   *
+   * @return the maximum in microseconds per 10 ms frame
+   */
+  public double getMaxProcessingMicros() {
+    return maxProcessingMicros;
+  }
+
+  /**
+   * Gets the number of bytes captured but not yet read from the stream.
+   *
+   * @return the buffered byte count
+   */
+  public long getBufferedBytes() {
+    return bufferedBytes;
+  }
+
+  /**
+   * Gets the number of bytes the stream's buffer dropped because the reader fell behind.
+   *
+   * @return the dropped byte count
+   */
+  public long getDroppedBytes() {
+    return droppedBytes;
+  }
+
+  /**
+   * Gets the channel count of the captured audio.
+   *
+   * @return the channel count
+   */
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public String toString() {
+    return "CaptureStats{captured=" + getCapturedMillis() + "ms, elapsed=" + getElapsedMillis() + "ms, drift="
+            + driftMillis + "ms, maxDrift=" + maxDriftMillis + "ms, reads=" + reads + ", shortReads=" + shortReads
+            + ", readErrors=" + readErrors + ", overruns=" + overruns + ", processing="
+            + String.format("%.1f", averageProcessingMicros) + "us/frame, buffered=" + bufferedBytes
+            + "B, dropped=" + droppedBytes + "B}";
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Keeps the running timing counters of one capture session. Every read is stamped with the monotonic clock and
+ * compared with the sample clock, the number of frames captured so far. The difference, the lag, stays roughly
+ * constant while capture keeps up with real time: it grows when the source loses audio and shrinks when it delivers
+ * faster than real time, as file replay does.
+ *
+ * <p>Written by the capture thread only; {@link #snapshot} may be called from any thread.
+ */
+final class CaptureTelemetry {
+  private final int sampleRate;
+  private final int channels;
+  private final long overrunThresholdNanos;
+  private final ProcessingTime processingTime = new ProcessingTime(10);
+
+  private volatile long startNanos = -1;
+  private volatile long frames;
+  private volatile long lastFrameNanos;
+  private volatile long reads;
+  private volatile long shortReads;
+  private volatile long readErrors;
+  private volatile long overruns;
+  private volatile long lagNanos;
+  private volatile long maxLagNanos;
+  private long initialLagNanos;
+  private long lagBaselineNanos;
+  private volatile String lastError;
+
+  /**
+   * Instantiates new telemetry.
+   *
+   * @param sampleRate             the sample rate of the source
+   * @param channels               the channel count of the source
+   * @param overrunThresholdMillis how far the lag has to jump to count as lost audio; the size of the source's own
+   *                               buffer, since a late read up to that point loses nothing
+   */
+  CaptureTelemetry(int sampleRate, int channels, int overrunThresholdMillis) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.overrunThresholdNanos = overrunThresholdMillis * 1000000L;
+  }
+
+  /**
+   * Records a completed read.
+   *
+   * @param nowNanos  when the read returned, from {@link System#nanoTime()}
+   * @param requested the number of samples asked for
+   * @param read      the number of samples returned, counting every channel
+   * @return the monotonic time the first sample of the read was captured, in nanoseconds
+   */
+  long onRead(long nowNanos, int requested, int read) {
+    reads++;
+    if (read < requested) {
+      shortReads++;
+    }
+    int readFrames = read / channels;
+    // a blocking read returns as soon as its last sample has been captured
+    long firstFrameNanos = nowNanos - readFrames * 1000000000L / sampleRate;
+    if (startNanos < 0) {
+      startNanos = firstFrameNanos;
+    }
+    frames += readFrames;
+    lastFrameNanos = nowNanos;
+
+    long lag = (nowNanos - startNanos) - frames * 1000000000L / sampleRate;
+    if (reads == 1) {
+      initialLagNanos = lag;
+      lagBaselineNanos = lag;
+    }
+    if (lag < lagBaselineNanos) {
+      lagBaselineNanos = lag;
+    } else if (lag - lagBaselineNanos > overrunThresholdNanos) {
+      // later than the source can buffer: audio was lost; count it once and carry on from the new lag
+      overruns++;
+      lagBaselineNanos = lag;
+    }
+    lagNanos = lag;
+    maxLagNanos = Math.max(maxLagNanos, lag - initialLagNanos);
+    return firstFrameNanos;
+  }
+
+  /**
+   * Records a failed read.
+   *
+   * @param message the error
+   */
+  void onReadError(String message) {
+    readErrors++;
+    lastError = message;
+  }
+
+  /**
+   * Records the time the pipeline took to handle one read.
+   *
+   * @param nanos  the time spent
+   * @param frames the number of frames handled
+   */
+  void onProcessed(long nanos, int frames) {
+    processingTime.record(nanos, frames / (sampleRate / 100));
+  }
+
+  /**
+   * Gets the position of the next frame to be captured.
+   *
+   * @return the number of frames captured so far
+   */
+  long getFrames() {
+    return frames;
+  }
+
+  /**
+   * Takes a consistent-enough snapshot of the counters.
+   *
+   * @param bufferedBytes bytes waiting for the reader of the stream
+   * @param droppedBytes  bytes the stream's buffer dropped because the reader fell behind
+   * @return the snapshot
+   */
+  CaptureStats snapshot(long bufferedBytes, long droppedBytes) {
+    long frames = this.frames;
+    long start = startNanos;
+    return new CaptureStats(sampleRate, channels, frames, start < 0 ? 0 : lastFrameNanos - start, reads,
+            shortReads, readErrors, lastError, overruns, (lagNanos - initialLagNanos) / 1000000,
+            maxLagNanos / 1000000, lastFrameNanos, processingTime.getAverageMicrosPerFrame(),
+            processingTime.getMaxMicrosPerFrame(), bufferedBytes, droppedBytes);
+  }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Receives utterance boundaries detected on the device by {@link MicrophoneInputStream}. Called on the capture
+ * thread, so implementations should return quickly.
+ */
+public interface EndpointListener {
+  /**
+   * The first speech of the utterance was detected.
+   */
+  void onSpeechStart();
+
+  /**
+   * Speech was followed by the configured amount of silence.
+   */
+  void onEndOfSpeech();
+}
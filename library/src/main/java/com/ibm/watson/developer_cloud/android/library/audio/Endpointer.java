@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Detects the end of an utterance from the per-chunk decisions of a {@link VoiceActivityDetector}. The utterance
+ * ends once speech has been seen and the detector has then reported silence for the trailing silence duration. That
+ * silence comes on top of the detector's own hangover.
+ */
+public final class Endpointer {
+  private final int sampleRate;
+  private final long trailingSilenceSamples;
+
+  private volatile EndpointListener listener;
+  private boolean speechSeen;
+  private boolean ended;
+  private long silentSamples;
+
+  /**
+   * Instantiates a new endpointer.
+   *
+   * @param sampleRate            the sample rate of the audio
+   * @param trailingSilenceMillis how long the detector has to report silence after speech before the utterance ends
+   */
+  public Endpointer(int sampleRate, int trailingSilenceMillis) {
+    this.sampleRate = sampleRate;
+    this.trailingSilenceSamples = (long) sampleRate * trailingSilenceMillis / 1000;
+  }
+
+  /**
+   * Sets the listener notified about speech start and end of speech.
+   *
+   * @param listener the listener, or null
+   */
+  public void setListener(EndpointListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Feeds the detector's decision for the next chunk.
+   *
+   * @param speech  whether the detector found speech in the chunk
+   * @param samples the number of samples in the chunk
+   * @return true if the utterance ended with this chunk
+   */
+  public boolean update(boolean speech, int samples) {
+    if (ended) {
+      return false;
+    }
+
+    if (speech) {
+      silentSamples = 0;
+      if (!speechSeen) {
+        speechSeen = true;
+        EndpointListener listener = this.listener;
+        if (listener != null) {
+          listener.onSpeechStart();
+        }
+      }
+      return false;
+    }
+
+    if (speechSeen) {
+      silentSamples += samples;
+      if (silentSamples >= trailingSilenceSamples) {
+        ended = true;
+        EndpointListener listener = this.listener;
+        if (listener != null) {
+          listener.onEndOfSpeech();
+        }
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Checks if the end of the utterance has been detected.
+   *
+   * @return true if the utterance ended
+   */
+  public boolean isEnded() {
+    return ended;
+  }
+
+  /**
+   * Gets the silence after the most recent speech.
+   *
+   * @return the trailing silence in milliseconds
+   */
+  public long getTrailingSilenceMillis() {
+    return silentSamples * 1000 / sampleRate;
+  }
+
+  /**
+   * Starts waiting for the next utterance.
+   */
+  public void reset() {
+    speechSeen = false;
+    ended = false;
+    silentSamples = 0;
+  }
+}
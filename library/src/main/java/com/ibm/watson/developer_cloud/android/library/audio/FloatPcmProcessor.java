@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * A stage of the float capture pipeline, for example a gain or filter, that modifies captured float samples in place
+ * before they are measured and encoded. Samples may be left outside -1 to 1; the encoder soft-clips them. Called from
+ * the capture thread only.
+ */
+public interface FloatPcmProcessor {
+  /**
+   * Processes captured samples in place.
+   *
+   * @param samples the samples, interleaved if there is more than one channel
+   * @param offset  the offset of the first sample
+   * @param length  the number of samples, counting every channel
+   */
+  void process(float[] samples, int offset, int length);
+}
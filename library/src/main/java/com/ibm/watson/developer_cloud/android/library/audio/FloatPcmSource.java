@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.io.IOException;
+
+/**
+ * A {@link PcmSource} that can also deliver its audio as float samples, so a float capture pipeline gets them without
+ * going through 16-bit PCM. Full scale is -1 to 1. A stream is read either as shorts or as floats, not both.
+ */
+public interface FloatPcmSource extends PcmSource {
+  /**
+   * Reads the next samples as floats, blocking until some are available.
+   *
+   * @param buffer the buffer to read into
+   * @param offset the offset to start writing at
+   * @param length the maximum number of samples to read
+   * @return the number of samples read, or -1 at the end of the source
+   * @throws TransientReadException if this read failed but the next one may succeed
+   * @throws IOException            if reading failed for good
+   */
+  int read(float[] buffer, int offset, int length) throws IOException;
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Is told the capture time and sample position of every captured chunk, before the chunk is processed. Called on the
+ * capture thread, so implementations must return quickly and should not allocate.
+ */
+public interface FrameTimestampListener {
+  /**
+   * Called for every captured chunk.
+   *
+   * @param timestampNanos the monotonic time the first frame of the chunk was captured, comparable with
+   *                       {@link System#nanoTime()}
+   * @param position       the index of the first frame of the chunk since the start of the session
+   * @param frames         the number of frames in the chunk, one sample per channel each
+   */
+  void onFrames(long timestampNanos, long position, int frames);
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Pure Java windowed-sinc resampler. It needs no native code, so it is the fallback where libspeexdsp is not
+ * available, such as unit tests on a desktop JVM.
+ *
+ * <p>The ratio is handled exactly as a fraction: every output sample falls on one of {@code outputRate / gcd} phases
+ * between two input samples, and each phase has its own precomputed Blackman-windowed low-pass filter. The cutoff is
+ * just below the Nyquist frequency of the lower of the two rates, so downsampling does not alias.
+ */
+public final class JavaResampler implements Resampler {
+  private static final double CUTOFF_MARGIN = 0.95;
+  /**
+   * Filter half length in zero crossings of the sinc; more gives a steeper transition band.
+   */
+  private static final int ZERO_CROSSINGS = 8;
+
+  private final int inputRate;
+  private final int outputRate;
+  private final int channels;
+  private final int phases;
+  private final int step;
+  private final int halfTaps;
+  private final float[][] filters;
+
+  private short[] work;
+  private int workFrames;
+  private int position;
+  private int phase;
+
+  /**
+   * Instantiates a new resampler.
+   *
+   * @param channels   the number of interleaved channels
+   * @param inputRate  the input sample rate
+   * @param outputRate the output sample rate
+   */
+  public JavaResampler(int channels, int inputRate, int outputRate) {
+    this.inputRate = inputRate;
+    this.outputRate = outputRate;
+    this.channels = channels;
+    int gcd = gcd(inputRate, outputRate);
+    this.phases = outputRate / gcd;
+    this.step = inputRate / gcd;
+
+    double cutoff = Math.min(1.0, (double) outputRate / inputRate) * CUTOFF_MARGIN;
+    this.halfTaps = (int) Math.ceil(ZERO_CROSSINGS / cutoff);
+    this.filters = new float[phases][2 * halfTaps];
+    for (int p = 0; p < phases; p++) {
+      double sum = 0;
+      double[] taps = new double[2 * halfTaps];
+      for (int j = 0; j < taps.length; j++) {
+        double distance = j - halfTaps + 1 - (double) p / phases;
+        taps[j] = cutoff * sinc(cutoff * distance) * blackman(distance / halfTaps);
+        sum += taps[j];
+      }
+      for (int j = 0; j < taps.length; j++) {
+        // unity gain at DC for every phase
+        filters[p][j] = (float) (taps[j] / sum);
+      }
+    }
+    reset();
+  }
+
+  @Override
+  public int getInputRate() {
+    return inputRate;
+  }
+
+  @Override
+  public int getOutputRate() {
+    return outputRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public int getMaxOutputSamples(int inputSamples) {
+    long frames = inputSamples / channels + 2 * halfTaps;
+    return (int) ((frames * phases + step - 1) / step + 1) * channels;
+  }
+
+  @Override
+  public int process(short[] input, int inputOffset, int inputLength, short[] output, int outputOffset) {
+    int inputFrames = inputLength / channels;
+    if ((workFrames + inputFrames) * channels > work.length) {
+      short[] grown = new short[(workFrames + inputFrames) * channels];
+      System.arraycopy(work, 0, grown, 0, workFrames * channels);
+      work = grown;
+    }
+    System.arraycopy(input, inputOffset, work, workFrames * channels, inputFrames * channels);
+    workFrames += inputFrames;
+
+    int written = outputOffset;
+    int taps = 2 * halfTaps;
+    while (position + halfTaps < workFrames) {
+      float[] filter = filters[phase];
+      int first = (position - halfTaps + 1) * channels;
+      for (int c = 0; c < channels; c++) {
+        float sum = 0;
+        for (int j = 0, k = first + c; j < taps; j++, k += channels) {
+          sum += filter[j] * work[k];
+        }
+        output[written++] = clip(sum);
+      }
+      phase += step;
+      position += phase / phases;
+      phase %= phases;
+    }
+
+    // keep only what the next output still needs
+    int discard = Math.min(position - halfTaps + 1, workFrames);
+    if (discard > 0) {
+      System.arraycopy(work, discard * channels, work, 0, (workFrames - discard) * channels);
+      workFrames -= discard;
+      position -= discard;
+    }
+    return written - outputOffset;
+  }
+
+  @Override
+  public void reset() {
+    // start with silence as history, so the first output sample lines up with the first input sample
+    work = new short[2 * halfTaps * channels];
+    workFrames = halfTaps - 1;
+    position = halfTaps - 1;
+    phase = 0;
+  }
+
+  @Override
+  public void release() {
+  }
+
+  /**
+   * Gets the delay the filter adds.
+   *
+   * @return the latency in input frames
+   */
+  public int getInputLatency() {
+    return halfTaps;
+  }
+
+  private static short clip(float value) {
+    int rounded = Math.round(value);
+    if (rounded > Short.MAX_VALUE) {
+      return Short.MAX_VALUE;
+    }
+    if (rounded < Short.MIN_VALUE) {
+      return Short.MIN_VALUE;
+    }
+    return (short) rounded;
+  }
+
+  private static double sinc(double x) {
+    if (x == 0) {
+      return 1;
+    }
+    return Math.sin(Math.PI * x) / (Math.PI * x);
+  }
+
+  private static double blackman(double x) {
+    if (x <= -1 || x >= 1) {
+      return 0;
+    }
+    return 0.42 + 0.5 * Math.cos(Math.PI * x) + 0.08 * Math.cos(2 * Math.PI * x);
+  }
+
+  private static int gcd(int a, int b) {
+    while (b != 0) {
+      int t = a % b;
+      a = b;
+      b = t;
+    }
+    return a;
+  }
+}
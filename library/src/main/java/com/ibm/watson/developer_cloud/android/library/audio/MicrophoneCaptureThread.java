@@ -15,27 +15,68 @@ package com.ibm.watson.developer_cloud.android.library.audio;
 
 import android.media.AudioFormat;
 import android.media.AudioRecord;
-import android.media.MediaRecorder;
+import android.os.Build;
 import android.util.Log;
 
 import com.ibm.watson.developer_cloud.android.library.audio.opus.OggOpusEnc;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexDsp;
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexPreprocessor;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Dedicated thread for capturing raw audio data from the microphone. Captured data is passed to an
- * {@link AudioConsumer}. To begin capturing data, call {@link #start()}. Ensure {@link #end()} is called to stop this
- * thread from running and to clean up its resources appropriately.
+ * Dedicated thread for capturing raw audio data from the microphone, or from any other {@link PcmSource}. Captured
+ * data is passed to an {@link AudioConsumer}. To begin capturing data, call {@link #start()}. Ensure {@link #end()} is
+ * called to stop this thread from running and to clean up its resources appropriately. The thread also stops by
+ * itself when the source ends.
+ *
+ * <p>With {@link CaptureConfiguration#floatSamples} an Opus session reads float samples from a {@link FloatPcmSource}
+ * and keeps them in float through the {@link FloatPcmProcessor}, the meters and the encoder.
  */
 final class MicrophoneCaptureThread extends Thread {
   private static final String TAG = MicrophoneCaptureThread.class.getName();
-  private static final int SAMPLE_RATE = 16000;
+  /**
+   * One buffer holds the current chunk while the other one drains the voice activity gate's pre-roll.
+   */
+  private static final int POOLED_BUFFERS = 2;
+  /**
+   * Consecutive transient read failures after which the source is given up on, rather than spinning on it.
+   */
+  static final int MAX_FAILED_READS = 10;
+  /**
+   * Pause before the first retry of a failed read, growing by as much with every further failure in a row, so a source
+   * that needs a moment to recover gets it: the reads given up on span some 225 ms rather than a few microseconds.
+   */
+  static final int FAILED_READ_BACKOFF_MILLIS = 5;
   private final AudioConsumer consumer;
+  private final CaptureConfiguration configuration;
+  private final MicrophoneSessionManager sessions;
+  private final PcmSource source;
+  private final VoiceActivityDetector detector;
+  private final Endpointer endpointer;
+  private final int frameSize;
+  private final CaptureTelemetry telemetry;
+  private final boolean floatSamples;
+  private volatile FloatPcmProcessor floatProcessor;
+  private volatile FrameTimestampListener timestampListener;
   private boolean opusEncoded;
   private OggOpusEnc encoder;
-  private boolean stop;
-  private boolean stopped;
+  private final AtomicReference<OpusEncoderConfiguration> encoderConfiguration =
+          new AtomicReference<OpusEncoderConfiguration>();
+  private AudioRingBuffer encodedQueue;
+  private volatile AdaptiveBitrateController bitrateController;
+  private AudioBufferPool pool;
+  private volatile VoiceActivityGate gate;
+  private AudioFanOut fanOut;
+  private AudioLevelMeter meter;
+  private volatile SpeexPreprocessor preprocessor;
+  private final ProcessingTime preprocessingTime = new ProcessingTime(10);
+  private Runnable onFinished;
+  private volatile boolean stop;
+  private volatile boolean stopped;
 
   /**
    * This only initializes data associated with the thread. To start recording microphone data, call {@link #start()}.
@@ -45,9 +86,47 @@ final class MicrophoneCaptureThread extends Thread {
    * @param opusEncoded the opus encoded
    */
   public MicrophoneCaptureThread(AudioConsumer consumer, boolean opusEncoded) {
-    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
+    this(consumer, opusEncoded, new CaptureConfiguration(), new MicrophoneSessionManager(0));
+  }
+
+  /**
+   * This only initializes data associated with the thread. To start recording microphone data, call {@link #start()}.
+   * Ensure that there is a corresponding call to {@link #end()} when finished recording data.
+   *
+   * @param consumer      Delegate for consuming audio data from the microphone.
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   * @param sessions      provides the AudioRecord and encoder, warm from a previous session if possible
+   */
+  public MicrophoneCaptureThread(AudioConsumer consumer, boolean opusEncoded, CaptureConfiguration configuration,
+                                 MicrophoneSessionManager sessions) {
+    this(consumer, opusEncoded, configuration, sessions, microphoneSource(sessions, configuration, opusEncoded));
+  }
+
+  /**
+   * This only initializes data associated with the thread. To start capturing, call {@link #start()}. Ensure that
+   * there is a corresponding call to {@link #end()} when finished.
+   *
+   * @param consumer      Delegate for consuming audio data from the source.
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   * @param sessions      provides the encoder, warm from a previous session if possible
+   * @param source        the source of the audio, which determines its format
+   */
+  public MicrophoneCaptureThread(AudioConsumer consumer, boolean opusEncoded, CaptureConfiguration configuration,
+                                 MicrophoneSessionManager sessions, PcmSource source) {
     this.consumer = consumer;
     this.opusEncoded = opusEncoded;
+    this.configuration = configuration;
+    this.sessions = sessions;
+    this.source = source;
+    this.detector = new VoiceActivityDetector(source.getSampleRate(), configuration.speechThresholdDb,
+            configuration.speechHangoverMillis);
+    this.endpointer = new Endpointer(source.getSampleRate(), configuration.endOfSpeechSilenceMillis);
+    this.frameSize = CaptureConfiguration.frameSize(source.getSampleRate());
+    this.telemetry = new CaptureTelemetry(source.getSampleRate(), source.getChannels(),
+            configuration.recordBufferMillis);
+    this.floatSamples = floatPipeline(configuration, opusEncoded) && source instanceof FloatPcmSource;
   }
 
   /**
@@ -55,63 +134,599 @@ final class MicrophoneCaptureThread extends Thread {
    */
   @Override
   public void run() {
-    int bufferSize = Math.max(SAMPLE_RATE / 2,
-            AudioRecord.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT));
-    short[] buffer = new short[bufferSize]; // use short to hold 16-bit PCM encoding
+    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_URGENT_AUDIO);
 
-    AudioRecord record = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE, AudioFormat.CHANNEL_IN_MONO,
-            AudioFormat.ENCODING_PCM_16BIT, bufferSize);
-    record.startRecording();
+    // each read hands one quantum downstream; AudioRecord keeps its own, larger buffer so a short quantum cannot
+    // cause overruns
+    int sampleRate = source.getSampleRate();
+    int channels = source.getChannels();
+    int quantum = quantumSamples(configuration.captureQuantumMillis, sampleRate,
+            quantumFrameSize(configuration, opusEncoded, sampleRate)) * channels;
+    short[] buffer = floatSamples ? null : new short[quantum]; // use short to hold 16-bit PCM encoding
+    float[] floatBuffer = floatSamples ? new float[quantum] : null;
+    pool = new AudioBufferPool(POOLED_BUFFERS, quantum * 2);
+    if (configuration.voiceActivityGate) {
+      gate = new VoiceActivityGate(configuration.preRollMillis, sampleRate, channels);
+    }
+    if (configuration.noiseSuppression || configuration.automaticGainControl) {
+      if (SpeexDsp.isAvailable()) {
+        preprocessor = createPreprocessor(configuration, frameSize, sampleRate, channels);
+      } else {
+        Log.w(TAG, "libspeexdsp not available, capturing without preprocessing");
+      }
+    }
 
     if (opusEncoded) {
       try {
-        encoder = new OggOpusEnc(consumer);
+        encoder = sessions.acquireEncoder(consumer, sampleRate, channels, configuration.opusEncoder);
+        encoder.onStart(); // the headers go out once, ahead of the first audio
       } catch (Exception e) {
         e.printStackTrace();
       }
+      if (encoder != null && encodedQueue != null && configuration.adaptiveBitrate) {
+        // a page ends with every quantum, unless a frame or merged packet spans more than one
+        int pageMillis = Math.max(quantum / channels * 1000 / sampleRate, Math.max(
+                configuration.opusEncoder.frameDurationMillis, configuration.opusEncoder.packetDurationMillis));
+        bitrateController = new AdaptiveBitrateController(configuration.opusEncoder, sampleRate, channels,
+                configuration.adaptiveBitrateLatencyMillis, pageMillis);
+      }
     }
 
 
-    while (!stop) {
-      int r = record.read(buffer, 0, buffer.length);
-
-      // calculate amplitude and volume
-      long v = 0;
-      for (int i = 0; i < r; i++) {
-        v += buffer[i] * buffer[i];
+    int failedReads = 0;
+    try {
+      source.start();
+      while (!stop) {
+        int r;
+        try {
+          r = floatSamples ? ((FloatPcmSource) source).read(floatBuffer, 0, quantum)
+                  : source.read(buffer, 0, quantum);
+          failedReads = 0;
+        } catch (TransientReadException e) {
+          telemetry.onReadError(e.getMessage());
+          if (++failedReads < MAX_FAILED_READS) {
+            try {
+              Thread.sleep(FAILED_READ_BACKOFF_MILLIS * failedReads);
+            } catch (InterruptedException ie) {
+              Log.e(TAG, ie.getMessage());
+            }
+            continue;
+          }
+          Log.e(TAG, "Capture failed after " + failedReads + " reads in a row", e);
+          break;
+        }
+        long now = System.nanoTime();
+        if (r == -1) {
+          break;
+        }
+        long position = telemetry.getFrames();
+        long timestamp = telemetry.onRead(now, quantum, r);
+        if (r > 0) {
+          if (timestampListener != null) {
+            timestampListener.onFrames(timestamp, position, r / channels);
+          }
+          if (floatSamples) {
+            process(floatBuffer, r);
+          } else {
+            process(buffer, r);
+          }
+          if (encoder != null) {
+            endPage();
+          }
+          telemetry.onProcessed(System.nanoTime() - now, r / channels);
+        }
       }
+    } catch (IOException e) {
+      telemetry.onReadError(e.getMessage());
+      Log.e(TAG, "Capture failed", e);
+    } finally {
+      source.stop();
+    }
+
+    if (encoder != null) {
+      encoder.finish();
+      sessions.releaseEncoder(encoder);
+    }
+    if (preprocessor != null) {
+      Log.i(TAG, "Preprocessing: " + preprocessingTime);
+      preprocessor.release();
+      preprocessor = null;
+    }
+    stopped = true;
+    if (onFinished != null) {
+      onFinished.run();
+    }
+  }
+
+  /**
+   * Hands one chunk of captured samples to the consumer. The bytes are lent from the pool for the duration of the
+   * call and handed back afterwards, so the steady state does not allocate.
+   *
+   * @param buffer the captured samples, interleaved if there is more than one channel
+   * @param length the number of valid samples in the buffer, counting every channel
+   */
+  void process(short[] buffer, int length) {
+    applyEncoderConfiguration();
+    adaptBitrate(length);
+
+    if (preprocessor != null) {
+      long start = System.nanoTime();
+      preprocessor.process(buffer, 0, length);
+      preprocessingTime.record(System.nanoTime() - start, length / source.getChannels() / frameSize);
+    }
+
+    // calculate amplitude and volume
+    long v = 0;
+    for (int i = 0; i < length; i++) {
+      v += buffer[i] * buffer[i];
+    }
 
-      double amplitude = v / (double) r;
-      double volume = 0;
-      if (amplitude > 0) {
-        volume = 10 * Math.log10(amplitude);
+    double amplitude = v / (double) length;
+    double volume = 0;
+    if (amplitude > 0) {
+      volume = 10 * Math.log10(amplitude);
+    }
+
+    if (meter != null) {
+      meter.process(buffer, 0, length);
+    }
+
+    int frames = length / source.getChannels();
+    boolean speech = detector.update(amplitude, frames);
+    if (endpointer.update(speech, frames) && configuration.closeOnEndOfSpeech) {
+      stop = true;
+    }
+
+    boolean fannedOut = fanOut != null && fanOut.hasConsumers();
+    boolean held = gate != null && !speech;
+    if (opusEncoded && !fannedOut && !held) {
+      // nothing needs the samples as bytes, the encoder takes them as they are
+      if (gate != null) {
+        drainPreRoll();
       }
+      encode(buffer, length);
+      return;
+    }
 
-      // convert short buffer to bytes
-      ByteBuffer bufferBytes = ByteBuffer.allocate(r * 2); // 2 bytes per short
-      bufferBytes.order(ByteOrder.LITTLE_ENDIAN); // save little-endian byte from short buffer
-      bufferBytes.asShortBuffer().put(buffer, 0, r);
-      byte[] bytes = bufferBytes.array();
+    byte[] bytes = pool.acquire();
+    int byteCount = length * 2; // 2 bytes per short
+    toLittleEndian(buffer, length, bytes);
 
-      if (opusEncoded) {
-        try {
-          encoder.onStart(); // must be called before writing
-          encoder.encodeAndWrite(bytes);
-        } catch (Exception e) {
-          e.printStackTrace();
+    if (fannedOut) {
+      // additional consumers see everything that was captured, before any gating
+      fanOut.write(bytes, 0, byteCount);
+    }
+
+    try {
+      if (gate != null) {
+        if (!gate.offer(bytes, 0, byteCount, speech)) {
+          return;
         }
+        drainPreRoll();
+      }
+
+      if (opusEncoded) {
+        encode(bytes, 0, byteCount);
       } else {
-        consumer.consume(bytes, amplitude, volume);
+        consumer.consume(bytes, 0, byteCount, amplitude, volume);
+      }
+    } finally {
+      pool.release(bytes);
+    }
+  }
+
+  /**
+   * Hands one chunk of captured float samples to the encoder, and to the fan-out as 16-bit PCM if it has consumers.
+   * Only used in Opus mode without preprocessing or gating, so the samples stay in float all the way to the encoder.
+   *
+   * @param buffer the captured samples, interleaved if there is more than one channel
+   * @param length the number of valid samples in the buffer, counting every channel
+   */
+  void process(float[] buffer, int length) {
+    applyEncoderConfiguration();
+    adaptBitrate(length);
+
+    FloatPcmProcessor processor = floatProcessor;
+    if (processor != null) {
+      processor.process(buffer, 0, length);
+    }
+
+    // amplitude and volume in the same 16-bit units as for PCM input
+    double v = 0;
+    for (int i = 0; i < length; i++) {
+      v += buffer[i] * buffer[i];
+    }
+    double amplitude = v * 32768 * 32768 / length;
+
+    if (meter != null) {
+      meter.process(buffer, 0, length);
+    }
+
+    int frames = length / source.getChannels();
+    boolean speech = detector.update(amplitude, frames);
+    if (endpointer.update(speech, frames) && configuration.closeOnEndOfSpeech) {
+      stop = true;
+    }
+
+    if (fanOut != null && fanOut.hasConsumers()) {
+      byte[] bytes = pool.acquire();
+      try {
+        toLittleEndian(buffer, length, bytes);
+        fanOut.write(bytes, 0, length * 2);
+      } finally {
+        pool.release(bytes);
       }
+    }
 
+    try {
+      encoder.encodeAndWrite(buffer, 0, length);
+    } catch (Exception e) {
+      e.printStackTrace();
     }
+  }
 
-    if (encoder != null) {
-      encoder.close();
+  private void applyEncoderConfiguration() {
+    OpusEncoderConfiguration reconfiguration = encoderConfiguration.getAndSet(null);
+    if (reconfiguration != null && encoder != null) {
+      AdaptiveBitrateController controller = bitrateController;
+      if (controller != null) {
+        // the new settings become the best level, the uplink decides which level is used
+        reconfiguration = controller.rebase(reconfiguration);
+      }
+      try {
+        encoder.configure(reconfiguration);
+      } catch (IllegalArgumentException e) {
+        Log.e(TAG, "Could not reconfigure the encoder", e);
+      }
+    }
+  }
+
+  /**
+   * Lets the adaptive bitrate controller look at the queue of encoded audio and apply the level it picks.
+   *
+   * @param length the number of samples captured in this chunk, counting every channel
+   */
+  private void adaptBitrate(int length) {
+    AdaptiveBitrateController controller = bitrateController;
+    if (controller == null) {
+      return;
+    }
+    double audioMillis = length * 1000.0 / source.getChannels() / source.getSampleRate();
+    OpusEncoderConfiguration next = controller.update(System.nanoTime() / 1000000, audioMillis, encodedQueue);
+    if (next != null) {
+      Log.i(TAG, "Encoder stepped to level " + controller.getLevel() + " of " + controller.getLevelCount() + ", "
+              + next.bitrate + " bps, uplink drains " + (int) controller.getDrainBytesPerSecond() + " B/s");
+      try {
+        encoder.configure(next);
+      } catch (IllegalArgumentException e) {
+        Log.e(TAG, "Could not reconfigure the encoder", e);
+      }
+    }
+  }
+
+  /**
+   * Creates the speexdsp preprocessor for the enabled features.
+   */
+  private static SpeexPreprocessor createPreprocessor(CaptureConfiguration configuration, int frameSize,
+                                                      int sampleRate, int channels) {
+    SpeexPreprocessor preprocessor = new SpeexPreprocessor(frameSize, sampleRate, channels);
+    preprocessor.setDenoise(configuration.noiseSuppression, configuration.noiseSuppressionDb);
+    preprocessor.setAutomaticGainControl(configuration.automaticGainControl, configuration.agcLevel,
+            configuration.agcMaxGainDb);
+    return preprocessor;
+  }
+
+  /**
+   * Passes the audio the gate held back before the speech onset downstream, ahead of the chunk that opened it.
+   */
+  private void drainPreRoll() {
+    byte[] preRoll = pool.acquire();
+    try {
+      int read;
+      while ((read = gate.drainPreRoll(preRoll, 0, preRoll.length)) > 0) {
+        if (opusEncoded) {
+          encode(preRoll, 0, read);
+        } else {
+          consumer.consume(preRoll, 0, read);
+        }
+      }
+    } finally {
+      pool.release(preRoll);
+    }
+  }
+
+  private void encode(byte[] data, int offset, int length) {
+    try {
+      encoder.encodeAndWrite(data, offset, length);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void encode(short[] samples, int length) {
+    try {
+      encoder.encodeAndWrite(samples, 0, length);
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Passes on the packets encoded from the last quantum in a page of their own, so Opus audio reaches the reader as
+   * soon as raw audio would instead of once a full page has been collected.
+   */
+  private void endPage() {
+    try {
+      encoder.flushPage();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Sets the listener notified when speech starts and when the utterance ends.
+   *
+   * @param listener the listener, or null
+   */
+  void setEndpointListener(EndpointListener listener) {
+    endpointer.setListener(listener);
+  }
+
+  /**
+   * Sets the fan-out that receives a copy of every captured chunk for additional consumers.
+   *
+   * @param fanOut the fan-out, or null
+   */
+  void setFanOut(AudioFanOut fanOut) {
+    this.fanOut = fanOut;
+  }
+
+  /**
+   * Sets the meter that measures input levels of every captured chunk, in both raw and Opus mode.
+   *
+   * @param meter the meter, or null
+   */
+  void setLevelMeter(AudioLevelMeter meter) {
+    this.meter = meter;
+  }
+
+  /**
+   * Sets a callback run on this thread after capture has stopped and the encoder has written its last page, whether
+   * the thread was ended or stopped itself at the end of speech.
+   *
+   * @param onFinished the callback
+   */
+  void setOnFinished(Runnable onFinished) {
+    this.onFinished = onFinished;
+  }
+
+  /**
+   * Changes the encoder settings from the next captured chunk on.
+   *
+   * @param configuration the settings
+   */
+  void setEncoderConfiguration(OpusEncoderConfiguration configuration) {
+    configuration.validate();
+    encoderConfiguration.set(configuration.copy());
+  }
+
+  /**
+   * Sets the queue the encoded stream is written to, which {@link CaptureConfiguration#adaptiveBitrate} watches.
+   *
+   * @param queue the queue between this thread and the reader of the stream
+   */
+  void setEncodedQueue(AudioRingBuffer queue) {
+    this.encodedQueue = queue;
+  }
+
+  /**
+   * Gets the level the adaptive bitrate controller has the encoder at.
+   *
+   * @return 0 for the configured settings, higher for cheaper ones, -1 if adaptive bitrate is off
+   */
+  int getBitrateLevel() {
+    AdaptiveBitrateController controller = bitrateController;
+    return controller == null ? -1 : controller.getLevel();
+  }
+
+  /**
+   * Sets the stage that processes captured float samples before they are measured and encoded.
+   *
+   * @param processor the processor, or null
+   */
+  void setFloatProcessor(FloatPcmProcessor processor) {
+    this.floatProcessor = processor;
+  }
+
+  /**
+   * Sets the listener told the capture time and position of every captured chunk.
+   *
+   * @param listener the listener, or null
+   */
+  void setFrameTimestampListener(FrameTimestampListener listener) {
+    this.timestampListener = listener;
+  }
+
+  /**
+   * Gets the timing counters of this session.
+   *
+   * @return the telemetry
+   */
+  CaptureTelemetry getTelemetry() {
+    return telemetry;
+  }
+
+  /**
+   * Gets the time spent in the speexdsp preprocessor this session.
+   *
+   * @return the processing time, with no frames if preprocessing is off
+   */
+  ProcessingTime getPreprocessingTime() {
+    return preprocessingTime;
+  }
+
+  /**
+   * Gets the speech probability the preprocessor estimated for the latest frame.
+   *
+   * @return the probability in percent, -1 if preprocessing is off or nothing was processed yet
+   */
+  int getSpeechProbability() {
+    SpeexPreprocessor preprocessor = this.preprocessor;
+    return preprocessor == null ? -1 : preprocessor.getSpeechProbability();
+  }
+
+  /**
+   * Gets the number of bytes of captured audio the voice activity gate withheld because they contained no speech.
+   *
+   * @return the suppressed byte count, 0 if gating is disabled
+   */
+  long getSuppressedBytes() {
+    VoiceActivityGate gate = this.gate;
+    return gate == null ? 0 : gate.getSuppressedBytes();
+  }
+
+  /**
+   * Creates the microphone source for a configuration, resampling from the record rate to the session rate if they
+   * differ.
+   *
+   * @param sessions      the session manager providing the {@code AudioRecord}
+   * @param configuration the capture configuration
+   * @param opusEncoded   whether the session is Opus encoded
+   * @return the source
+   */
+  static PcmSource microphoneSource(MicrophoneSessionManager sessions, CaptureConfiguration configuration,
+                                    boolean opusEncoded) {
+    int recordSampleRate = configuration.getRecordSampleRate();
+    int encoding = recordEncoding(configuration, opusEncoded);
+    PcmSource microphone = new AudioRecordSource(sessions, recordSampleRate, configuration.channels,
+            recordBufferBytes(configuration, encoding), encoding);
+    if (recordSampleRate == configuration.sampleRate) {
+      return microphone;
+    }
+    return new ResamplingSource(microphone, configuration.sampleRate, configuration.resamplerQuality);
+  }
+
+  /**
+   * Computes the size of the internal {@code AudioRecord} buffer for a configuration.
+   *
+   * @param configuration the capture configuration
+   * @param encoding      the {@code AudioFormat} encoding recorded
+   * @return the buffer size in bytes, never less than the device minimum
+   */
+  static int recordBufferBytes(CaptureConfiguration configuration, int encoding) {
+    int sampleRate = configuration.getRecordSampleRate();
+    int channels = configuration.channels;
+    int bytesPerSample = encoding == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2;
+    return Math.max((int) ((long) sampleRate * configuration.recordBufferMillis / 1000) * bytesPerSample * channels,
+            AudioRecord.getMinBufferSize(sampleRate, AudioRecordSource.channelMask(channels), encoding));
+  }
+
+  /**
+   * Decides whether a session keeps its samples in float: only Opus sessions whose stages all work in float.
+   *
+   * @param configuration the capture configuration
+   * @param opusEncoded   whether the session is Opus encoded
+   * @return true to read, process and encode float samples
+   */
+  static boolean floatPipeline(CaptureConfiguration configuration, boolean opusEncoded) {
+    return configuration.floatSamples && opusEncoded && !configuration.noiseSuppression
+            && !configuration.automaticGainControl && !configuration.voiceActivityGate;
+  }
+
+  /**
+   * Picks the encoding the microphone records in: float where the session keeps float samples, the device supports
+   * it and no resampler, which works on 16-bit PCM, sits in between.
+   *
+   * @param configuration the capture configuration
+   * @param opusEncoded   whether the session is Opus encoded
+   * @return {@code AudioFormat.ENCODING_PCM_FLOAT} or {@code ENCODING_PCM_16BIT}
+   */
+  static int recordEncoding(CaptureConfiguration configuration, boolean opusEncoded) {
+    return recordEncoding(configuration, opusEncoded, Build.VERSION.SDK_INT);
+  }
+
+  /**
+   * Picks the encoding the microphone records in on the given Android version.
+   *
+   * @param configuration the capture configuration
+   * @param opusEncoded   whether the session is Opus encoded
+   * @param sdkInt        the API level of the device
+   * @return {@code AudioFormat.ENCODING_PCM_FLOAT} or {@code ENCODING_PCM_16BIT}
+   */
+  static int recordEncoding(CaptureConfiguration configuration, boolean opusEncoded, int sdkInt) {
+    if (floatPipeline(configuration, opusEncoded) && sdkInt >= Build.VERSION_CODES.M
+            && configuration.getRecordSampleRate() == configuration.sampleRate) {
+      return AudioFormat.ENCODING_PCM_FLOAT;
+    }
+    return AudioFormat.ENCODING_PCM_16BIT;
+  }
+
+  /**
+   * Gets the frame size a capture quantum is a multiple of: one Opus frame of the configured duration when encoding,
+   * 10 ms otherwise.
+   *
+   * @param configuration the capture settings
+   * @param opusEncoded   whether the audio is Opus encoded
+   * @param sampleRate    the sample rate
+   * @return the frame size in samples per channel
+   */
+  static int quantumFrameSize(CaptureConfiguration configuration, boolean opusEncoded, int sampleRate) {
+    return opusEncoded ? sampleRate / 1000 * configuration.opusEncoder.frameDurationMillis
+            : CaptureConfiguration.frameSize(sampleRate);
+  }
+
+  /**
+   * Converts a capture quantum in milliseconds to a whole number of encoder frames, rounding up, so that every read
+   * can be encoded without leftover samples.
+   *
+   * @param millis     the requested quantum in milliseconds
+   * @param sampleRate the sample rate
+   * @param frameSize  the encoder frame size in samples per channel
+   * @return the quantum in samples per channel, at least one frame
+   */
+  static int quantumSamples(int millis, int sampleRate, int frameSize) {
+    long samples = (long) sampleRate * millis / 1000;
+    long frames = Math.max(1, (samples + frameSize - 1) / frameSize);
+    return (int) (frames * frameSize);
+  }
+
+  /**
+   * Sets the pool {@link #process(short[], int)} borrows its byte buffers from. {@link #run()} installs its own.
+   *
+   * @param pool the pool
+   */
+  void setBufferPool(AudioBufferPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Writes 16-bit samples as little-endian bytes.
+   *
+   * @param samples the samples
+   * @param length  the number of samples to convert
+   * @param bytes   the destination, at least {@code 2 * length} long
+   */
+  static void toLittleEndian(short[] samples, int length, byte[] bytes) {
+    for (int i = 0, j = 0; i < length; i++, j += 2) {
+      short sample = samples[i];
+      bytes[j] = (byte) sample;
+      bytes[j + 1] = (byte) (sample >> 8);
+    }
+  }
+
+  /**
+   * Writes float samples as little-endian 16-bit PCM, clipping them to full scale.
+   *
+   * @param samples the samples, full scale being -1 to 1
+   * @param length  the number of samples to convert
+   * @param bytes   the destination, at least {@code 2 * length} long
+   */
+  static void toLittleEndian(float[] samples, int length, byte[] bytes) {
+    for (int i = 0, j = 0; i < length; i++, j += 2) {
+      short sample = AudioRecordSource.toShort(samples[i]);
+      bytes[j] = (byte) sample;
+      bytes[j + 1] = (byte) (sample >> 8);
     }
-    record.stop();
-    record.release();
-    stopped = true;
   }
 
   /**
@@ -129,4 +744,24 @@ final class MicrophoneCaptureThread extends Thread {
       }
     }
   }
+
+  /**
+   * Stops recording microphone data like {@link #end()}, but waits at most the given time for the thread to finish.
+   *
+   * @param timeoutMillis how long to wait
+   * @return true if the thread has finished
+   */
+  public boolean end(long timeoutMillis) {
+    stop = true;
+
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (!stopped && System.currentTimeMillis() < deadline) {
+      try {
+        Thread.sleep(10);
+      } catch (InterruptedException e) {
+        Log.e(TAG, e.getMessage());
+      }
+    }
+    return stopped;
+  }
 }
@@ -18,6 +18,8 @@ import android.content.pm.PackageManager;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
 /**
  * The Class MicrophoneHelper.
  */
@@ -30,6 +32,8 @@ public class MicrophoneHelper {
 
   private Activity activity;
   private MicrophoneInputStream inputStream;
+  private final MicrophoneSessionManager sessions =
+          new MicrophoneSessionManager(MicrophoneSessionManager.DEFAULT_IDLE_TIMEOUT_MILLIS);
 
   /**
    * Small helper class to sit in between the client and the more in-depth microphone classes. Meant to provide a
@@ -49,10 +53,40 @@ public class MicrophoneHelper {
    * @return the input stream
    */
   public MicrophoneInputStream getInputStream(boolean opusEncoded) {
-    this.inputStream = new MicrophoneInputStream(opusEncoded);
+    return getInputStream(opusEncoded, new CaptureConfiguration());
+  }
+
+  /**
+   * Gets the input stream.
+   *
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   * @return the input stream
+   */
+  public MicrophoneInputStream getInputStream(boolean opusEncoded, CaptureConfiguration configuration) {
+    this.inputStream = new MicrophoneInputStream(opusEncoded, configuration, sessions);
     return this.inputStream;
   }
 
+  /**
+   * Gets the microphone ready ahead of the next {@link #getInputStream} call, for example when the microphone button
+   * becomes visible, so capture starts almost instantly. The microphone and encoder stay ready between streams until
+   * they have been idle for a while.
+   *
+   * @param opusEncoded   whether the next stream will be opus encoded
+   * @param configuration the configuration the next stream will use
+   */
+  public void prepare(boolean opusEncoded, CaptureConfiguration configuration) {
+    sessions.prepare(configuration, opusEncoded);
+  }
+
+  /**
+   * Releases the microphone and encoder kept ready between streams. Call this when the activity is going away.
+   */
+  public void release() {
+    sessions.shutdown();
+  }
+
   /**
    * Close input stream.
    */
@@ -13,21 +13,22 @@
 
 package com.ibm.watson.developer_cloud.android.library.audio;
 
-import android.util.Log;
-
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
 import com.ibm.watson.developer_cloud.android.library.audio.utils.ContentType;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 
 /**
  * Captures raw audio data from the microphone and exposes it via an {@code InputStream}. Make sure {@link #close()}
  * gets called in order to free its resources appropriately.
  */
 public final class MicrophoneInputStream extends InputStream implements AudioConsumer {
-  private static final String TAG = MicrophoneInputStream.class.getName();
+  /**
+   * How long {@link #close()} lets the capture thread finish the stream before dropping what the reader does not take.
+   */
+  private static final long CLOSE_TIMEOUT_MILLIS = 1000;
 
   /**
    * The content type.
@@ -35,10 +36,11 @@ public final class MicrophoneInputStream extends InputStream implements AudioCon
   public final ContentType CONTENT_TYPE;
 
   private final MicrophoneCaptureThread captureThread;
-  private final PipedOutputStream os;
-  private final PipedInputStream is;
-
-  private AmplitudeListener amplitudeListener;
+  private final AudioRingBuffer buffer;
+  private final AudioFanOut fanOut;
+  private final AudioLevelMeter meter;
+  private final int sampleRate;
+  private final int channels;
 
   /**
    * Instantiates a new microphone input stream.
@@ -46,19 +48,88 @@ public final class MicrophoneInputStream extends InputStream implements AudioCon
    * @param opusEncoded the opus encoded
    */
   public MicrophoneInputStream(boolean opusEncoded) {
-    captureThread = new MicrophoneCaptureThread(this, opusEncoded);
+    this(opusEncoded, new CaptureConfiguration());
+  }
+
+  /**
+   * Instantiates a new microphone input stream.
+   *
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   */
+  public MicrophoneInputStream(boolean opusEncoded, CaptureConfiguration configuration) {
+    this(opusEncoded, configuration, new MicrophoneSessionManager(0));
+  }
+
+  /**
+   * Instantiates a new microphone input stream that takes its {@code AudioRecord} and encoder from a session
+   * manager, so they can be reused from the previous stream.
+   *
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   * @param sessions      the session manager
+   */
+  public MicrophoneInputStream(boolean opusEncoded, CaptureConfiguration configuration,
+                               MicrophoneSessionManager sessions) {
+    this(opusEncoded, configuration, sessions, MicrophoneCaptureThread.microphoneSource(sessions, configuration,
+            opusEncoded));
+  }
+
+  /**
+   * Instantiates a new input stream that captures from the given source instead of the microphone, for example a
+   * {@link WavFileSource} or a {@link SyntheticSource}. The stream ends when the source does, and has the source's
+   * sample rate and channel count.
+   *
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   * @param source        the source
+   */
+  public MicrophoneInputStream(boolean opusEncoded, CaptureConfiguration configuration, PcmSource source) {
+    this(opusEncoded, configuration, new MicrophoneSessionManager(0), source);
+  }
+
+  /**
+   * Instantiates a new input stream that captures from the given source, with the encoder from a session manager.
+   *
+   * @param opusEncoded   the opus encoded
+   * @param configuration the capture configuration
+   * @param sessions      the session manager
+   * @param source        the source
+   */
+  MicrophoneInputStream(boolean opusEncoded, CaptureConfiguration configuration, MicrophoneSessionManager sessions,
+                        PcmSource source) {
+    sampleRate = source.getSampleRate();
+    channels = source.getChannels();
+    checkFormat(opusEncoded, sampleRate, channels);
+    captureThread = new MicrophoneCaptureThread(this, opusEncoded, configuration, sessions, source);
     if (opusEncoded == true) {
       CONTENT_TYPE = ContentType.OPUS;
     } else {
       CONTENT_TYPE = ContentType.RAW;
     }
-    os = new PipedOutputStream();
-    is = new PipedInputStream();
-    try {
-      is.connect(os);
-    } catch (IOException e) {
-      Log.e(TAG, e.getMessage());
+    if (opusEncoded) {
+      // same size as the PCM it replaces, but an Ogg stream has no sample alignment to preserve; dropping bytes would
+      // tear pages apart, so the encoder always waits for the reader
+      buffer = new AudioRingBuffer(AudioRingBuffer.bytesForDuration(configuration.bufferCapacityMillis, sampleRate,
+              channels), 1, OverflowPolicy.BLOCK);
+      captureThread.setEncodedQueue(buffer);
+    } else {
+      buffer = AudioRingBuffer.forDuration(configuration.bufferCapacityMillis, sampleRate, channels,
+              configuration.overflowPolicy);
     }
+    fanOut = new AudioFanOut(sampleRate, channels);
+    captureThread.setFanOut(fanOut);
+    // interleaved channels are metered together
+    meter = new AudioLevelMeter(CaptureConfiguration.frameSize(sampleRate) * channels, configuration.meterRateHz);
+    captureThread.setLevelMeter(meter);
+    captureThread.setOnFinished(new Runnable() {
+      @Override
+      public void run() {
+        buffer.close();
+        fanOut.close();
+        meter.stop();
+      }
+    });
     captureThread.start();
   }
 
@@ -96,19 +167,27 @@ public final class MicrophoneInputStream extends InputStream implements AudioCon
    */
   @Override
   public int read(byte[] buffer, int offset, int length) throws IOException {
-    return is.read(buffer, offset, length);
+    return this.buffer.read(buffer, offset, length);
   }
 
   /**
-   * Close.
+   * Stops capturing. The audio captured so far, and for Opus the end of the Ogg stream, stays readable until
+   * {@link #read(byte[], int, int)} returns -1. If nobody reads and the buffer is full, close waits up to a second
+   * before dropping what does not fit.
    *
    * @throws IOException Signals that an I/O exception has occurred.
    */
   @Override
   public void close() throws IOException {
-    captureThread.end();
-    os.close();
-    is.close();
+    // the capture thread finishes the stream into the buffer, so a reader draining it still gets the end; only if
+    // nobody reads and the thread is stuck on a full buffer is the rest dropped
+    if (!captureThread.end(CLOSE_TIMEOUT_MILLIS)) {
+      buffer.abortWrites();
+      captureThread.end();
+    }
+    buffer.close();
+    fanOut.close();
+    meter.stop();
   }
 
   /**
@@ -120,15 +199,7 @@ public final class MicrophoneInputStream extends InputStream implements AudioCon
    */
   @Override
   public void consume(byte[] data, double amplitude, double volume) {
-    if (amplitudeListener != null) {
-      amplitudeListener.onSample(amplitude, volume);
-    }
-
-    try {
-      os.write(data);
-    } catch (IOException e) {
-      Log.e(TAG, e.getMessage());
-    }
+    consume(data, 0, data.length, amplitude, volume);
   }
 
   /**
@@ -138,28 +209,219 @@ public final class MicrophoneInputStream extends InputStream implements AudioCon
    */
   @Override
   public void consume(byte[] data) {
-    try {
-      os.write(data);
-    } catch (IOException e) {
-      Log.e(TAG, e.getMessage());
-    }
+    consume(data, 0, data.length);
   }
 
   /**
-   * Receive amplitude (and volume) data per sample from the {@code MicrophoneInputStream}.
+   * Consume.
    *
-   * @param listener Notified per sample with amplitude and volume data.
+   * @param data      the data
+   * @param offset    the offset
+   * @param length    the length
+   * @param amplitude the amplitude
+   * @param volume    the volume
+   */
+  @Override
+  public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+    buffer.write(data, offset, length);
+  }
+
+  /**
+   * Consume.
+   *
+   * @param data   the data
+   * @param offset the offset
+   * @param length the length
+   */
+  @Override
+  public void consume(byte[] data, int offset, int length) {
+    buffer.write(data, offset, length);
+  }
+
+  /**
+   * Receive amplitude (and volume) data from the {@code MicrophoneInputStream}, in both raw and Opus mode. Updates are
+   * delivered on a separate thread at most {@link CaptureConfiguration#meterRateHz} times per second.
+   *
+   * @param listener Notified with amplitude and volume data of the most recent audio frame.
    */
   public void setOnAmplitudeListener(AmplitudeListener listener) {
-    amplitudeListener = listener;
+    meter.setAmplitudeListener(listener);
+  }
+
+  /**
+   * Receive RMS and peak levels in dBFS from the {@code MicrophoneInputStream}, in both raw and Opus mode. Updates are
+   * delivered on a separate thread at most {@link CaptureConfiguration#meterRateHz} times per second, so a slow
+   * listener never holds up capture.
+   *
+   * @param listener Notified with the levels of the most recent audio frame.
+   */
+  public void setOnLevelListener(LevelListener listener) {
+    meter.setLevelListener(listener);
+  }
+
+  /**
+   * Feeds the raw PCM captured for this stream to an additional consumer, for example a local archive writer or a
+   * level meter, alongside the reader of this stream. The consumer runs on its own thread behind its own bounded
+   * queue, so it can never stall capture or this stream, and it sees all captured audio regardless of encoding or
+   * voice activity gating. If the consumer is {@link java.io.Closeable} it is closed after the last audio has been
+   * delivered.
+   *
+   * @param consumer       the consumer
+   * @param capacityMillis how much audio may queue up for the consumer
+   * @param overflowPolicy what happens to audio that does not fit in the consumer's queue
+   */
+  public void addConsumer(AudioConsumer consumer, int capacityMillis, OverflowPolicy overflowPolicy) {
+    fanOut.addConsumer(consumer, capacityMillis, overflowPolicy);
+  }
+
+  /**
+   * Receive speech start and end of speech notifications detected on the device. Combine with
+   * {@link CaptureConfiguration#closeOnEndOfSpeech} to end the stream at the end of the utterance.
+   *
+   * @param listener Notified on the capture thread when speech starts and ends.
+   */
+  public void setOnEndpointListener(EndpointListener listener) {
+    captureThread.setEndpointListener(listener);
+  }
+
+  /**
+   * Gets the largest amount of audio, in bytes, that has been waiting to be read at once.
+   *
+   * @return the high-water mark of the capture buffer
+   */
+  public long getBufferHighWaterMark() {
+    return buffer.getHighWaterMark();
+  }
+
+  /**
+   * Gets the number of bytes discarded because the reader fell behind and the overflow policy dropped audio.
+   *
+   * @return the dropped byte count
+   */
+  public long getDroppedBytes() {
+    return buffer.getDroppedBytes();
+  }
+
+  /**
+   * Gets the number of bytes of captured PCM that were not passed on because the voice activity gate found no speech
+   * in them.
+   *
+   * @return the suppressed byte count, 0 unless {@link CaptureConfiguration#voiceActivityGate} is enabled
+   */
+  public long getSuppressedBytes() {
+    return captureThread.getSuppressedBytes();
+  }
+
+  /**
+   * Gets a snapshot of the capture timing: sample and wall clocks, drift, overruns, short and failed reads, the time
+   * spent processing and encoding, and how much audio waits for the reader.
+   *
+   * @return the snapshot
+   */
+  public CaptureStats getCaptureStats() {
+    return captureThread.getTelemetry().snapshot(buffer.available(), buffer.getDroppedBytes());
+  }
+
+  /**
+   * Sets a listener told the monotonic capture time and sample position of every captured chunk, called on the
+   * capture thread.
+   *
+   * @param listener the listener, or null
+   */
+  public void setFrameTimestampListener(FrameTimestampListener listener) {
+    captureThread.setFrameTimestampListener(listener);
+  }
+
+  /**
+   * Changes the Opus encoder settings while capturing, for example to lower the bitrate when the uplink degrades.
+   * They apply from the next captured chunk on, and the stream stays valid. Has no effect on raw streams.
+   *
+   * @param configuration the settings, with the same application as {@link CaptureConfiguration#opusEncoder}
+   * @throws IllegalArgumentException if a setting is out of range
+   */
+  public void setOpusEncoderConfiguration(OpusEncoderConfiguration configuration) {
+    captureThread.setEncoderConfiguration(configuration);
+  }
+
+  /**
+   * Gets how far {@link CaptureConfiguration#adaptiveBitrate} has stepped the encoder down because the reader of this
+   * stream fell behind.
+   *
+   * @return 0 for the configured settings, higher for cheaper ones, -1 if adaptive bitrate is off or not started
+   */
+  public int getBitrateLevel() {
+    return captureThread.getBitrateLevel();
+  }
+
+  /**
+   * Sets a stage, for example a gain or filter, that processes captured audio in float before it is measured and
+   * encoded, called on the capture thread. Only used by Opus streams that keep their samples in float, see
+   * {@link CaptureConfiguration#floatSamples}.
+   *
+   * @param processor the processor, or null
+   */
+  public void setFloatProcessor(FloatPcmProcessor processor) {
+    captureThread.setFloatProcessor(processor);
+  }
+
+  /**
+   * Gets the time the capture thread spent in noise suppression and gain control this session.
+   *
+   * @return the processing time, with no frames unless {@link CaptureConfiguration#noiseSuppression} or
+   *     {@link CaptureConfiguration#automaticGainControl} is enabled and libspeexdsp is available
+   */
+  public ProcessingTime getPreprocessingTime() {
+    return captureThread.getPreprocessingTime();
+  }
+
+  /**
+   * Gets the speech probability the speexdsp preprocessor estimated for the latest frame.
+   *
+   * @return the probability in percent, -1 if preprocessing is off
+   */
+  public int getSpeechProbability() {
+    return captureThread.getSpeechProbability();
   }
 
   /**
    * Get the audio format from the {@code MicrophoneInputStream}.
    *
-   * @return audio/l16;rate=16000
+   * @return audio/l16;rate=16000 by default, or audio/ogg;codecs=opus
    */
   public String getContentType() {
-    return CONTENT_TYPE.toString();
+    return CONTENT_TYPE.toString(sampleRate, channels);
+  }
+
+  /**
+   * Gets the sample rate of the stream.
+   *
+   * @return the sample rate in Hz
+   */
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Gets the channel count of the stream.
+   *
+   * @return the number of interleaved channels
+   */
+  public int getChannels() {
+    return channels;
+  }
+
+  private static void checkFormat(boolean opusEncoded, int sampleRate, int channels) {
+    if (channels != 1 && channels != 2) {
+      throw new IllegalArgumentException("Only mono and stereo are supported, got " + channels + " channels");
+    }
+    if (opusEncoded) {
+      if (sampleRate != 8000 && sampleRate != 12000 && sampleRate != 16000 && sampleRate != 24000
+              && sampleRate != 48000) {
+        throw new IllegalArgumentException("Opus does not support a sample rate of " + sampleRate + " Hz");
+      }
+    } else if (sampleRate <= 0 || sampleRate % 100 != 0) {
+      // audio is handled in 10 ms frames
+      throw new IllegalArgumentException("Sample rate must be a multiple of 100 Hz, got " + sampleRate);
+    }
   }
 }
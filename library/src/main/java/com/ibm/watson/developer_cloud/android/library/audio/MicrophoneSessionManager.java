@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+import android.util.Log;
+
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OggOpusEnc;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import java.io.IOException;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Keeps an initialized {@code AudioRecord} and Opus encoder around between microphone sessions, so back-to-back
+ * push-to-talk turns do not pay for constructing them again. Both are released once they have been idle for the
+ * configured timeout, or when {@link #shutdown()} is called.
+ *
+ * <p>At most one session uses the warm resources at a time. A session that starts while another one holds them gets
+ * freshly created ones, which are then kept or released as usual.
+ */
+public class MicrophoneSessionManager {
+  private static final String TAG = MicrophoneSessionManager.class.getName();
+
+  /**
+   * Default time resources are kept warm after the last session ended.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30000;
+
+  private final long idleTimeoutMillis;
+  private Timer timer;
+
+  private AudioRecord record;
+  private int recordSampleRate;
+  private int recordChannels;
+  private int recordEncoding;
+  private int recordBufferBytes;
+  private OggOpusEnc encoder;
+  private TimerTask idleTask;
+
+  /**
+   * Instantiates a new session manager.
+   *
+   * @param idleTimeoutMillis how long idle resources are kept; 0 releases them as soon as a session ends
+   */
+  public MicrophoneSessionManager(long idleTimeoutMillis) {
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  /**
+   * Creates the resources for the next session ahead of time, for example when the microphone button is shown.
+   *
+   * @param configuration the capture configuration the next session will use
+   * @param opusEncoded   whether the next session will be Opus encoded
+   */
+  public synchronized void prepare(CaptureConfiguration configuration, boolean opusEncoded) {
+    int sampleRate = configuration.sampleRate;
+    int channels = configuration.channels;
+    int recordEncoding = MicrophoneCaptureThread.recordEncoding(configuration, opusEncoded);
+    int recordBufferBytes = MicrophoneCaptureThread.recordBufferBytes(configuration, recordEncoding);
+    if (record == null) {
+      record = createRecord(configuration.getRecordSampleRate(), channels, recordEncoding, recordBufferBytes);
+      this.recordSampleRate = configuration.getRecordSampleRate();
+      this.recordChannels = channels;
+      this.recordEncoding = recordEncoding;
+      this.recordBufferBytes = recordBufferBytes;
+    }
+    if (opusEncoded && encoder == null) {
+      try {
+        encoder = createEncoder(null, sampleRate, channels, configuration.opusEncoder);
+      } catch (Exception e) {
+        Log.e(TAG, "Could not prepare the Opus encoder", e);
+      }
+    }
+    scheduleIdleRelease();
+  }
+
+  /**
+   * Takes the warm {@code AudioRecord} if it matches, or creates a new one. The caller starts and stops it.
+   *
+   * @param sampleRate        the sample rate
+   * @param channels          the channel count
+   * @param encoding          the {@code AudioFormat} encoding
+   * @param recordBufferBytes the size of the internal buffer in bytes
+   * @return a stopped, initialized record
+   */
+  synchronized AudioRecord acquireRecord(int sampleRate, int channels, int encoding, int recordBufferBytes) {
+    cancelIdleRelease();
+    AudioRecord warm = record;
+    record = null;
+    if (warm != null && recordSampleRate == sampleRate && recordChannels == channels && recordEncoding == encoding
+            && this.recordBufferBytes == recordBufferBytes) {
+      return warm;
+    }
+    if (warm != null) {
+      warm.release();
+    }
+    this.recordSampleRate = sampleRate;
+    this.recordChannels = channels;
+    this.recordEncoding = encoding;
+    this.recordBufferBytes = recordBufferBytes;
+    return createRecord(sampleRate, channels, encoding, recordBufferBytes);
+  }
+
+  /**
+   * Hands a stopped {@code AudioRecord} back after a session.
+   *
+   * @param released the record
+   */
+  synchronized void releaseRecord(AudioRecord released) {
+    if (record != null || idleTimeoutMillis <= 0 || released.getState() != AudioRecord.STATE_INITIALIZED) {
+      released.release();
+      return;
+    }
+    record = released;
+    scheduleIdleRelease();
+  }
+
+  /**
+   * Takes the warm encoder if it matches, reset for a new stream to the given consumer, or creates a new one.
+   * Either way the encoder gets the given settings, whatever the previous session used.
+   *
+   * @param consumer      the consumer of the encoded stream
+   * @param sampleRate    the sample rate
+   * @param channels      the channel count
+   * @param configuration the encoder settings
+   * @return the encoder
+   * @throws IOException if a new encoder could not be created
+   */
+  synchronized OggOpusEnc acquireEncoder(AudioConsumer consumer, int sampleRate, int channels,
+                                         OpusEncoderConfiguration configuration) throws IOException {
+    cancelIdleRelease();
+    OggOpusEnc warm = encoder;
+    encoder = null;
+    if (warm != null && warm.getSampleRate() == sampleRate && warm.getChannels() == channels
+            && warm.getConfiguration().application == configuration.application
+            && warm.getConfiguration().frameDurationMillis == configuration.frameDurationMillis
+            && warm.getConfiguration().packetDurationMillis == configuration.packetDurationMillis) {
+      warm.reset(consumer);
+      warm.configure(configuration);
+      return warm;
+    }
+    if (warm != null) {
+      warm.release();
+    }
+    return createEncoder(consumer, sampleRate, channels, configuration);
+  }
+
+  /**
+   * Hands an encoder back after its stream has been finished.
+   *
+   * @param released the encoder
+   */
+  synchronized void releaseEncoder(OggOpusEnc released) {
+    if (encoder != null || idleTimeoutMillis <= 0) {
+      released.release();
+      return;
+    }
+    encoder = released;
+    scheduleIdleRelease();
+  }
+
+  /**
+   * Releases the warm resources immediately. The manager can still be used afterwards.
+   */
+  public synchronized void shutdown() {
+    cancelIdleRelease();
+    releaseIdle();
+  }
+
+  private void releaseIdle() {
+    if (record != null) {
+      record.release();
+      record = null;
+    }
+    if (encoder != null) {
+      encoder.release();
+      encoder = null;
+    }
+  }
+
+  private void scheduleIdleRelease() {
+    cancelIdleRelease();
+    if (idleTimeoutMillis <= 0) {
+      return;
+    }
+    idleTask = new TimerTask() {
+      @Override
+      public void run() {
+        synchronized (MicrophoneSessionManager.this) {
+          if (idleTask == this) {
+            idleTask = null;
+            releaseIdle();
+          }
+        }
+      }
+    };
+    if (timer == null) {
+      timer = new Timer("MicrophoneSessionManager", true);
+    }
+    timer.schedule(idleTask, idleTimeoutMillis);
+  }
+
+  private void cancelIdleRelease() {
+    if (idleTask != null) {
+      idleTask.cancel();
+      idleTask = null;
+    }
+  }
+
+  /**
+   * Creates an {@code AudioRecord} on the microphone. Tests override this to run without a device.
+   *
+   * @param sampleRate        the sample rate
+   * @param channels          the channel count
+   * @param encoding          the {@code AudioFormat} encoding
+   * @param recordBufferBytes the size of the internal buffer in bytes
+   * @return the record
+   */
+  protected AudioRecord createRecord(int sampleRate, int channels, int encoding, int recordBufferBytes) {
+    return new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate, AudioRecordSource.channelMask(channels),
+            encoding, recordBufferBytes);
+  }
+
+  /**
+   * Creates an Opus encoder. Tests override this to run without libopus.
+   *
+   * @param consumer      the consumer of the encoded stream, or null until the encoder is reset for a session
+   * @param sampleRate    the sample rate
+   * @param channels      the channel count
+   * @param configuration the encoder settings
+   * @return the encoder
+   * @throws IOException if the encoder could not be created
+   */
+  protected OggOpusEnc createEncoder(AudioConsumer consumer, int sampleRate, int channels,
+                                     OpusEncoderConfiguration configuration) throws IOException {
+    return new OggOpusEnc(consumer, sampleRate, channels, configuration);
+  }
+}
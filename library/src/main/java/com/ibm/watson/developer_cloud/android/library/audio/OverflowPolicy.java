@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * What an {@link AudioRingBuffer} does with incoming audio when it is full.
+ */
+public enum OverflowPolicy {
+  /**
+   * Wait for the consumer to make room. Nothing is lost, but a stalled consumer stalls the producer.
+   */
+  BLOCK,
+
+  /**
+   * Discard the oldest unread audio to make room for the new data. Keeps the stream close to real time.
+   */
+  DROP_OLDEST,
+
+  /**
+   * Discard whatever part of the new data does not fit. Keeps the audio that is already queued intact.
+   */
+  DROP_NEWEST
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.io.IOException;
+
+/**
+ * Where {@link MicrophoneInputStream} gets its 16-bit PCM from. The microphone is the usual source, but files and
+ * generated signals let the capture, encoding and transport pipeline run off-device, at real time or as fast as
+ * possible.
+ *
+ * <p>A source is started once, read from a single thread until it ends or the stream is closed, then stopped.
+ */
+public interface PcmSource {
+  /**
+   * Gets the sample rate.
+   *
+   * @return the sample rate in Hz
+   */
+  int getSampleRate();
+
+  /**
+   * Gets the channel count.
+   *
+   * @return the number of interleaved channels
+   */
+  int getChannels();
+
+  /**
+   * Starts producing audio.
+   *
+   * @throws IOException if the source could not be started
+   */
+  void start() throws IOException;
+
+  /**
+   * Reads the next samples, blocking until some are available.
+   *
+   * @param buffer the buffer to read into
+   * @param offset the offset to start writing at
+   * @param length the maximum number of samples to read
+   * @return the number of samples read, or -1 at the end of the source
+   * @throws TransientReadException if this read failed but the next one may succeed
+   * @throws IOException            if reading failed for good
+   */
+  int read(short[] buffer, int offset, int length) throws IOException;
+
+  /**
+   * Stops producing audio and releases the source's resources.
+   */
+  void stop();
+}
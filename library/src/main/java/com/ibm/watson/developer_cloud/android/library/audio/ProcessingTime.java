@@ -0,0 +1,97 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Time a capture session spent in a processing stage, measured on the capture thread around each call. Comparing it
+ * to the frame duration shows how much of the real-time budget the stage uses.
+ *
+ * <p>Written by the capture thread only; the getters may be called from any thread and see recent values.
+ */
+public final class ProcessingTime {
+  private final int frameMillis;
+  private volatile long frames;
+  private volatile long totalNanos;
+  private volatile long maxFrameNanos;
+
+  /**
+   * Instantiates a new measurement.
+   *
+   * @param frameMillis the duration of one frame in milliseconds
+   */
+  public ProcessingTime(int frameMillis) {
+    this.frameMillis = frameMillis;
+  }
+
+  /**
+   * Records one call of the stage.
+   *
+   * @param nanos  how long the call took
+   * @param frames how many frames it processed
+   */
+  void record(long nanos, int frames) {
+    if (frames <= 0) {
+      return;
+    }
+    this.frames += frames;
+    this.totalNanos += nanos;
+    long perFrame = nanos / frames;
+    if (perFrame > maxFrameNanos) {
+      maxFrameNanos = perFrame;
+    }
+  }
+
+  /**
+   * Gets the number of frames processed.
+   *
+   * @return the frame count
+   */
+  public long getFrames() {
+    return frames;
+  }
+
+  /**
+   * Gets the average time spent per frame.
+   *
+   * @return the average in microseconds, 0 if nothing was processed
+   */
+  public double getAverageMicrosPerFrame() {
+    long frames = this.frames;
+    return frames == 0 ? 0 : totalNanos / 1000.0 / frames;
+  }
+
+  /**
+   * Gets the longest time spent on a frame, averaged over the call it was part of.
+   *
+   * @return the maximum in microseconds
+   */
+  public double getMaxMicrosPerFrame() {
+    return maxFrameNanos / 1000.0;
+  }
+
+  /**
+   * Gets the share of real time the stage used.
+   *
+   * @return processing time divided by audio time, 0.01 meaning 1 percent
+   */
+  public double getLoad() {
+    return getAverageMicrosPerFrame() / (frameMillis * 1000.0);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d frames, %.1f us/frame average, %.1f us/frame max, %.2f%% load", frames,
+            getAverageMicrosPerFrame(), getMaxMicrosPerFrame(), getLoad() * 100);
+  }
+}
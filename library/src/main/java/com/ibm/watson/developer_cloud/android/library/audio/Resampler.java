@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Converts a stream of interleaved 16-bit PCM from one sample rate to another. Implementations keep filter state
+ * between calls, so consecutive blocks of one stream must go through the same instance, in order.
+ */
+public interface Resampler {
+  /**
+   * Gets the input sample rate.
+   *
+   * @return the input sample rate in Hz
+   */
+  int getInputRate();
+
+  /**
+   * Gets the output sample rate.
+   *
+   * @return the output sample rate in Hz
+   */
+  int getOutputRate();
+
+  /**
+   * Gets the channel count.
+   *
+   * @return the number of interleaved channels
+   */
+  int getChannels();
+
+  /**
+   * Gets the largest number of samples one call to {@link #process} can produce.
+   *
+   * @param inputSamples the number of input samples, counting every channel
+   * @return the output capacity needed, counting every channel
+   */
+  int getMaxOutputSamples(int inputSamples);
+
+  /**
+   * Resamples the next block of the stream. All input is consumed; output the filter cannot produce yet is held
+   * back until the next call.
+   *
+   * @param input        the input samples
+   * @param inputOffset  the offset of the first input sample
+   * @param inputLength  the number of input samples, a whole number of frames
+   * @param output       the buffer to write to, with room for {@link #getMaxOutputSamples(int)} samples
+   * @param outputOffset the offset to start writing at
+   * @return the number of samples written
+   */
+  int process(short[] input, int inputOffset, int inputLength, short[] output, int outputOffset);
+
+  /**
+   * Clears the filter state, for example before an unrelated stream.
+   */
+  void reset();
+
+  /**
+   * Frees any native resources. The resampler must not be used afterwards.
+   */
+  void release();
+}
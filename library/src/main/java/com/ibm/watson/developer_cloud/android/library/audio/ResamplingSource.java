@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexDsp;
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexResampler;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import java.io.IOException;
+
+/**
+ * Reads from another {@link PcmSource} at its own rate, typically the device's native 48 kHz, and delivers the audio
+ * resampled to the session rate. Resampling ourselves in fixed 10 ms blocks gives the same result on every device,
+ * instead of whatever a vendor's {@code AudioRecord} does internally when asked for a rate the hardware lacks.
+ */
+public final class ResamplingSource implements PcmSource {
+  private final PcmSource source;
+  private final Resampler resampler;
+  private short[] block;
+  private short[] resampled;
+  private int resampledOffset;
+  private int resampledLength;
+  private boolean ended;
+
+  /**
+   * Wraps a source, resampling with libspeexdsp where available and {@link JavaResampler} otherwise.
+   *
+   * @param source     the source
+   * @param outputRate the sample rate to deliver
+   * @param quality    the speexdsp resampler quality, 0 to 10
+   */
+  public ResamplingSource(PcmSource source, int outputRate, int quality) {
+    this(source, createResampler(source.getChannels(), source.getSampleRate(), outputRate, quality));
+  }
+
+  /**
+   * Wraps a source with the given resampler.
+   *
+   * @param source    the source
+   * @param resampler the resampler, converting from the source's rate
+   */
+  public ResamplingSource(PcmSource source, Resampler resampler) {
+    if (resampler.getInputRate() != source.getSampleRate() || resampler.getChannels() != source.getChannels()) {
+      throw new IllegalArgumentException("Resampler does not match the source format");
+    }
+    this.source = source;
+    this.resampler = resampler;
+  }
+
+  /**
+   * Creates the best resampler available on this platform.
+   *
+   * @param channels   the number of interleaved channels
+   * @param inputRate  the input sample rate
+   * @param outputRate the output sample rate
+   * @param quality    the speexdsp resampler quality, 0 to 10; the Java fallback has a single quality
+   * @return a {@link SpeexResampler}, or a {@link JavaResampler} if libspeexdsp is not available
+   */
+  public static Resampler createResampler(int channels, int inputRate, int outputRate, int quality) {
+    if (SpeexDsp.isAvailable()) {
+      return new SpeexResampler(channels, inputRate, outputRate, quality);
+    }
+    return new JavaResampler(channels, inputRate, outputRate);
+  }
+
+  @Override
+  public int getSampleRate() {
+    return resampler.getOutputRate();
+  }
+
+  @Override
+  public int getChannels() {
+    return source.getChannels();
+  }
+
+  @Override
+  public void start() throws IOException {
+    int blockSamples = CaptureConfiguration.frameSize(source.getSampleRate()) * source.getChannels();
+    block = new short[blockSamples];
+    resampled = new short[resampler.getMaxOutputSamples(blockSamples)];
+    resampledOffset = 0;
+    resampledLength = 0;
+    ended = false;
+    source.start();
+  }
+
+  @Override
+  public int read(short[] buffer, int offset, int length) throws IOException {
+    // fill the whole request if the source allows, so callers reading whole frames get whole frames
+    int filled = 0;
+    while (filled < length) {
+      if (resampledLength == 0) {
+        if (ended || !resampleBlock()) {
+          break;
+        }
+        continue;
+      }
+      int count = Math.min(length - filled, resampledLength);
+      System.arraycopy(resampled, resampledOffset, buffer, offset + filled, count);
+      resampledOffset += count;
+      resampledLength -= count;
+      filled += count;
+    }
+    return filled == 0 && ended ? -1 : filled;
+  }
+
+  @Override
+  public void stop() {
+    source.stop();
+    resampler.release();
+  }
+
+  private boolean resampleBlock() throws IOException {
+    int read = 0;
+    while (read < block.length) {
+      int r = source.read(block, read, block.length - read);
+      if (r == -1) {
+        ended = true;
+        break;
+      }
+      read += r;
+    }
+    read -= read % source.getChannels();
+    resampledOffset = 0;
+    resampledLength = resampler.process(block, 0, read, resampled, 0);
+    return read > 0;
+  }
+}
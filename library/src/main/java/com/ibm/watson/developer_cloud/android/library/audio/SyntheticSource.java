@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Generates test audio of a fixed duration: a sine tone, white noise, or a speech-like signal of voiced bursts
+ * separated by near silence, which exercises voice activity detection and endpointing. Output is deterministic for a
+ * given seed.
+ */
+public final class SyntheticSource implements FloatPcmSource {
+
+  /**
+   * The kind of signal to generate.
+   */
+  public enum Signal {
+    /**
+     * A pure sine tone.
+     */
+    TONE,
+    /**
+     * Uniform white noise.
+     */
+    NOISE,
+    /**
+     * Pitched, amplitude modulated bursts of 300 to 900 ms with 200 to 600 ms of quiet noise in between.
+     */
+    SPEECH
+  }
+
+  private static final double QUIET_LEVEL = 0.002;
+
+  private final Signal signal;
+  private final int sampleRate;
+  private final int channels;
+  private final long totalFrames;
+  private final double frequency;
+  private final double level;
+  private final boolean realTime;
+  private final Random random;
+
+  private long frame;
+  private long startNanos;
+  private double phase;
+  private long segmentEnd;
+  private boolean voiced;
+
+  /**
+   * Instantiates a new generator.
+   *
+   * @param signal         the kind of signal
+   * @param sampleRate     the sample rate
+   * @param channels       the channel count; every channel carries the same signal
+   * @param durationMillis how much audio to generate before the source ends
+   * @param frequency      the tone frequency, or the pitch of speech-like bursts, in Hz; ignored for noise
+   * @param level          the peak level as a fraction of full scale
+   * @param realTime       true to deliver audio no faster than it would be recorded
+   * @param seed           seed for the noise and burst lengths
+   */
+  public SyntheticSource(Signal signal, int sampleRate, int channels, long durationMillis, double frequency,
+                         double level, boolean realTime, long seed) {
+    this.signal = signal;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.totalFrames = durationMillis * sampleRate / 1000;
+    this.frequency = frequency;
+    this.level = level;
+    this.realTime = realTime;
+    this.random = new Random(seed);
+  }
+
+  /**
+   * Instantiates a generator that delivers 16 kHz mono as fast as possible.
+   *
+   * @param signal         the kind of signal
+   * @param durationMillis how much audio to generate before the source ends
+   */
+  public SyntheticSource(Signal signal, long durationMillis) {
+    this(signal, 16000, 1, durationMillis, 200, 0.5, false, 0);
+  }
+
+  @Override
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public void start() {
+    startNanos = System.nanoTime();
+  }
+
+  @Override
+  public int read(short[] buffer, int offset, int length) throws IOException {
+    int frames = (int) Math.min(length / channels, totalFrames - frame);
+    if (frames <= 0) {
+      return -1;
+    }
+
+    for (int i = 0; i < frames; i++) {
+      short sample = (short) Math.round(nextValue() * level * Short.MAX_VALUE);
+      for (int c = 0; c < channels; c++) {
+        buffer[offset + i * channels + c] = sample;
+      }
+    }
+
+    if (realTime) {
+      WavFileSource.pace(startNanos, frame, sampleRate);
+    }
+    return frames * channels;
+  }
+
+  @Override
+  public int read(float[] buffer, int offset, int length) throws IOException {
+    int frames = (int) Math.min(length / channels, totalFrames - frame);
+    if (frames <= 0) {
+      return -1;
+    }
+
+    for (int i = 0; i < frames; i++) {
+      float sample = (float) (nextValue() * level);
+      for (int c = 0; c < channels; c++) {
+        buffer[offset + i * channels + c] = sample;
+      }
+    }
+
+    if (realTime) {
+      WavFileSource.pace(startNanos, frame, sampleRate);
+    }
+    return frames * channels;
+  }
+
+  /**
+   * Generates the next sample and advances by one frame.
+   *
+   * @return the sample at full scale
+   */
+  private double nextValue() {
+    double step = 2 * Math.PI * frequency / sampleRate;
+    double value;
+    switch (signal) {
+      case TONE:
+        value = Math.sin(phase);
+        phase += step;
+        break;
+      case NOISE:
+        value = random.nextDouble() * 2 - 1;
+        break;
+      default:
+        value = speechSample(step);
+        break;
+    }
+    frame++;
+    return value;
+  }
+
+  @Override
+  public void stop() {
+  }
+
+  private double speechSample(double step) {
+    if (frame >= segmentEnd) {
+      voiced = !voiced;
+      int millis = voiced ? 300 + random.nextInt(600) : 200 + random.nextInt(400);
+      segmentEnd = frame + (long) millis * sampleRate / 1000;
+    }
+    double noise = (random.nextDouble() * 2 - 1) * QUIET_LEVEL;
+    if (!voiced) {
+      return noise;
+    }
+    // a few harmonics under a 4 Hz syllable envelope
+    phase += step;
+    double voice = 0.6 * Math.sin(phase) + 0.3 * Math.sin(2 * phase) + 0.1 * Math.sin(3 * phase);
+    double envelope = 0.55 + 0.45 * Math.sin(2 * Math.PI * 4 * frame / sampleRate);
+    return voice * envelope + noise;
+  }
+}
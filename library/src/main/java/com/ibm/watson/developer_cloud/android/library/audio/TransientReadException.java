@@ -0,0 +1,34 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link PcmSource#read} for a read that failed but left the source usable, such as {@code AudioRecord}
+ * reporting an invalid operation. Capture counts it in {@link CaptureStats#getReadErrors()} and reads again; any other
+ * {@link IOException} ends the capture.
+ */
+public class TransientReadException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Instantiates a new exception.
+   *
+   * @param message the detail message
+   */
+  public TransientReadException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Energy based voice activity detector. It is fed the mean square energy of consecutive chunks of 16-bit audio, the
+ * same value {@link AmplitudeListener} reports as amplitude, and decides per chunk whether speech is present.
+ *
+ * <p>The noise floor adapts to the environment: it follows quieter chunks quickly and louder non-speech chunks
+ * slowly. A chunk counts as speech when it is {@code thresholdDb} above the floor. Once speech has started the
+ * detector keeps reporting it until {@code hangoverMillis} of continuous non-speech have passed, so short pauses
+ * between words do not end an utterance.
+ */
+public final class VoiceActivityDetector {
+  /**
+   * Energy below which a chunk never counts as speech, about -60 dBFS.
+   */
+  private static final double MIN_SPEECH_ENERGY = 1073.0;
+  /**
+   * Lowest value the noise floor can fall to, so digital silence does not make every click look like speech.
+   */
+  private static final double MIN_NOISE_FLOOR = 1.0;
+  private static final double FALL_RATE = 0.2;
+  private static final double RISE_RATE = 0.02;
+
+  private final int sampleRate;
+  private final double thresholdRatio;
+  private final long hangoverSamples;
+
+  private double noiseFloor = -1;
+  private boolean speech;
+  private long silentSamples;
+
+  /**
+   * Instantiates a new voice activity detector.
+   *
+   * @param sampleRate     the sample rate of the audio
+   * @param thresholdDb    how far above the noise floor, in dB, a chunk has to be to count as speech
+   * @param hangoverMillis how long speech keeps being reported after the last loud chunk
+   */
+  public VoiceActivityDetector(int sampleRate, double thresholdDb, int hangoverMillis) {
+    this.sampleRate = sampleRate;
+    this.thresholdRatio = Math.pow(10, thresholdDb / 10);
+    this.hangoverSamples = (long) sampleRate * hangoverMillis / 1000;
+  }
+
+  /**
+   * Feeds the next chunk of audio to the detector.
+   *
+   * @param energy  mean square of the chunk's samples
+   * @param samples number of samples in the chunk
+   * @return true if speech is present after this chunk
+   */
+  public boolean update(double energy, int samples) {
+    if (noiseFloor < 0) {
+      noiseFloor = Math.max(energy, MIN_NOISE_FLOOR);
+    }
+
+    boolean loud = energy > MIN_SPEECH_ENERGY && energy > noiseFloor * thresholdRatio;
+
+    if (energy < noiseFloor) {
+      noiseFloor += (energy - noiseFloor) * FALL_RATE;
+    } else if (!loud) {
+      noiseFloor += (energy - noiseFloor) * RISE_RATE;
+    }
+    noiseFloor = Math.max(noiseFloor, MIN_NOISE_FLOOR);
+
+    if (loud) {
+      speech = true;
+      silentSamples = 0;
+    } else if (speech) {
+      silentSamples += samples;
+      if (silentSamples >= hangoverSamples) {
+        speech = false;
+      }
+    }
+    return speech;
+  }
+
+  /**
+   * Checks if speech is currently present.
+   *
+   * @return true if speech is present
+   */
+  public boolean isSpeech() {
+    return speech;
+  }
+
+  /**
+   * Gets the current noise floor.
+   *
+   * @return the noise floor as mean square energy
+   */
+  public double getNoiseFloor() {
+    return noiseFloor;
+  }
+
+  /**
+   * Gets the duration of non-speech since the last loud chunk.
+   *
+   * @return the trailing silence in milliseconds
+   */
+  public long getTrailingSilenceMillis() {
+    return silentSamples * 1000 / sampleRate;
+  }
+
+  /**
+   * Forgets the noise floor and any ongoing speech, for example before a new utterance in another environment.
+   */
+  public void reset() {
+    noiseFloor = -1;
+    speech = false;
+    silentSamples = 0;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+/**
+ * Decides which captured chunks are passed on to the encoder or consumer. While a {@link VoiceActivityDetector}
+ * reports silence, chunks are parked in a pre-roll ring that only keeps the most recent audio. When speech starts
+ * the pre-roll is released ahead of the chunk that triggered it, so the onset of the first word is not clipped.
+ *
+ * <p>Only used from the capture thread.
+ */
+final class VoiceActivityGate {
+  private final AudioRingBuffer preRoll;
+  private volatile long suppressedBytes;
+
+  /**
+   * Instantiates a new gate.
+   *
+   * @param preRollMillis how much audio before the speech onset is kept
+   * @param sampleRate    the sample rate of the audio
+   * @param channels      the channel count of the audio
+   */
+  VoiceActivityGate(int preRollMillis, int sampleRate, int channels) {
+    this.preRoll = AudioRingBuffer.forDuration(preRollMillis, sampleRate, channels, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Offers the next chunk to the gate.
+   *
+   * @param data    the chunk as little-endian 16-bit samples
+   * @param offset  the offset of the chunk
+   * @param length  the length of the chunk in bytes
+   * @param speech  whether the detector found speech in the chunk
+   * @return true if the chunk should be passed on, after draining any pending pre-roll with
+   *     {@link #drainPreRoll(byte[], int, int)}; false if the gate kept it
+   */
+  boolean offer(byte[] data, int offset, int length, boolean speech) {
+    if (speech) {
+      return true;
+    }
+    preRoll.write(data, offset, length);
+    suppressedBytes += length;
+    return false;
+  }
+
+  /**
+   * Takes audio out of the pre-roll. Call repeatedly until it returns 0 after {@link #offer} opened the gate.
+   *
+   * @param data   the buffer to copy into
+   * @param offset the offset to copy to
+   * @param length the maximum number of bytes to copy
+   * @return the number of bytes copied, 0 once the pre-roll is empty
+   */
+  int drainPreRoll(byte[] data, int offset, int length) {
+    if (preRoll.available() == 0) {
+      return 0;
+    }
+    int read = preRoll.read(data, offset, length);
+    suppressedBytes -= read;
+    return read;
+  }
+
+  /**
+   * Gets the number of bytes that were withheld from the consumer because they contained no speech.
+   *
+   * @return the suppressed byte count
+   */
+  long getSuppressedBytes() {
+    return suppressedBytes - preRoll.available();
+  }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Replays 16-bit PCM from a WAV file or from headerless little-endian data. Playback is either paced to real time,
+ * like a microphone, or as fast as the reader can take it.
+ */
+public final class WavFileSource implements PcmSource {
+  private static final int WAVE_FORMAT_PCM = 1;
+
+  private final InputStream input;
+  private final boolean realTime;
+  private final byte[] scratch = new byte[8192];
+  private int sampleRate;
+  private int channels;
+  private long startNanos;
+  private long framesRead;
+
+  /**
+   * Replays a WAV file.
+   *
+   * @param file     the file, 16-bit PCM
+   * @param realTime true to deliver audio no faster than it would be recorded
+   * @throws IOException if the file could not be opened or is not 16-bit PCM
+   */
+  public WavFileSource(File file, boolean realTime) throws IOException {
+    this(new FileInputStream(file), realTime);
+  }
+
+  /**
+   * Replays a WAV stream.
+   *
+   * @param input    the stream, 16-bit PCM with a RIFF header
+   * @param realTime true to deliver audio no faster than it would be recorded
+   * @throws IOException if the header could not be read or describes anything but 16-bit PCM
+   */
+  public WavFileSource(InputStream input, boolean realTime) throws IOException {
+    this.input = new BufferedInputStream(input);
+    this.realTime = realTime;
+    readHeader();
+  }
+
+  /**
+   * Replays headerless little-endian 16-bit PCM.
+   *
+   * @param input      the stream
+   * @param sampleRate the sample rate of the data
+   * @param channels   the channel count of the data
+   * @param realTime   true to deliver audio no faster than it would be recorded
+   */
+  public WavFileSource(InputStream input, int sampleRate, int channels, boolean realTime) {
+    this.input = new BufferedInputStream(input);
+    this.realTime = realTime;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+  }
+
+  @Override
+  public int getSampleRate() {
+    return sampleRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public void start() {
+    startNanos = System.nanoTime();
+  }
+
+  @Override
+  public int read(short[] buffer, int offset, int length) throws IOException {
+    // whole frames only, so channels stay interleaved correctly across reads
+    int frameBytes = 2 * channels;
+    int wanted = Math.min(length * 2, scratch.length) / frameBytes * frameBytes;
+    int filled = 0;
+    while (filled < wanted) {
+      int read = input.read(scratch, filled, wanted - filled);
+      if (read == -1) {
+        break;
+      }
+      filled += read;
+    }
+    filled = filled / frameBytes * frameBytes;
+    if (filled == 0) {
+      return -1;
+    }
+
+    int samples = filled / 2;
+    for (int i = 0; i < samples; i++) {
+      buffer[offset + i] = (short) ((scratch[2 * i] & 0xff) | (scratch[2 * i + 1] << 8));
+    }
+    framesRead += samples / channels;
+
+    if (realTime) {
+      pace(startNanos, framesRead, sampleRate);
+    }
+    return samples;
+  }
+
+  @Override
+  public void stop() {
+    try {
+      input.close();
+    } catch (IOException e) {
+      // nothing left to release
+    }
+  }
+
+  /**
+   * Sleeps until the given number of frames would have been recorded since the start.
+   *
+   * @param startNanos the start of the recording, from {@link System#nanoTime()}
+   * @param frames     the number of frames delivered so far
+   * @param sampleRate the sample rate
+   * @throws IOException if interrupted
+   */
+  static void pace(long startNanos, long frames, int sampleRate) throws IOException {
+    long dueNanos = startNanos + frames * 1000000000L / sampleRate;
+    long waitNanos = dueNanos - System.nanoTime();
+    if (waitNanos > 0) {
+      try {
+        Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while pacing replay");
+      }
+    }
+  }
+
+  private void readHeader() throws IOException {
+    DataInputStream data = new DataInputStream(input);
+    byte[] id = new byte[4];
+    data.readFully(id);
+    if (!"RIFF".equals(new String(id, "US-ASCII"))) {
+      throw new IOException("Not a RIFF file");
+    }
+    readIntLe(data);
+    data.readFully(id);
+    if (!"WAVE".equals(new String(id, "US-ASCII"))) {
+      throw new IOException("Not a WAVE file");
+    }
+
+    boolean formatSeen = false;
+    while (true) {
+      try {
+        data.readFully(id);
+      } catch (EOFException e) {
+        throw new IOException("No data chunk in WAVE file");
+      }
+      String chunk = new String(id, "US-ASCII");
+      int size = readIntLe(data);
+      if ("fmt ".equals(chunk)) {
+        int format = readShortLe(data);
+        channels = readShortLe(data);
+        sampleRate = readIntLe(data);
+        readIntLe(data); // byte rate
+        readShortLe(data); // block align
+        int bits = readShortLe(data);
+        if (format != WAVE_FORMAT_PCM || bits != 16) {
+          throw new IOException("Only 16-bit PCM WAVE files are supported");
+        }
+        skipFully(data, size - 16);
+        formatSeen = true;
+      } else if ("data".equals(chunk)) {
+        if (!formatSeen) {
+          throw new IOException("WAVE data chunk before format chunk");
+        }
+        return;
+      } else {
+        skipFully(data, size + (size & 1));
+      }
+    }
+  }
+
+  private static int readIntLe(DataInputStream data) throws IOException {
+    return Integer.reverseBytes(data.readInt());
+  }
+
+  private static int readShortLe(DataInputStream data) throws IOException {
+    return Short.reverseBytes(data.readShort()) & 0xffff;
+  }
+
+  private static void skipFully(DataInputStream data, int bytes) throws IOException {
+    int remaining = bytes;
+    while (remaining > 0) {
+      int skipped = data.skipBytes(remaining);
+      if (skipped <= 0) {
+        throw new EOFException();
+      }
+      remaining -= skipped;
+    }
+  }
+}
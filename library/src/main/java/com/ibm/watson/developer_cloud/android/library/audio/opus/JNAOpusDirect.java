@@ -0,0 +1,275 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Direct-mapped bindings for the libopus calls made for every frame. {@link JNAOpus} goes through a reflective proxy
+ * that boxes and converts every argument on every call; these are registered with {@code Native.register}, so a call
+ * costs little more than a JNI call. The rarely used multistream and custom APIs stay in {@link JNAOpus}.
+ *
+ * <p>Direct mapping cannot declare C varargs, so the {@code _ctl} functions are declared once per argument shape they
+ * are called with. Integer and pointer arguments are passed the same way to variadic and fixed functions on every
+ * Android ABI.
+ *
+ * <p>Encoder and decoder states are plain {@link Pointer}s. Buffers must be direct.
+ */
+public final class JNAOpusDirect {
+
+  static {
+    Native.register(JNAOpusDirect.class, JNAOpus.JNA_LIBRARY_NAME);
+  }
+
+  private JNAOpusDirect() {
+  }
+
+  /**
+   * Opus encoder create.
+   *
+   * @param Fs          the sample rate
+   * @param channels    the channel count
+   * @param application the OPUS_APPLICATION_* constant
+   * @param error       receives the error code in its first element
+   * @return the encoder state
+   */
+  public static native Pointer opus_encoder_create(int Fs, int channels, int application, int[] error);
+
+  /**
+   * Opus encode.
+   *
+   * @param st             the encoder state
+   * @param pcm            the interleaved input, a direct buffer
+   * @param frame_size     the samples per channel in the input
+   * @param data           receives the packet, a direct buffer
+   * @param max_data_bytes the capacity of data
+   * @return the packet length, or a negative error code
+   */
+  public static native int opus_encode(Pointer st, ShortBuffer pcm, int frame_size, ByteBuffer data,
+                                       int max_data_bytes);
+
+  /**
+   * Opus encode float.
+   *
+   * @param st             the encoder state
+   * @param pcm            the interleaved input, nominally between -1 and 1, a direct buffer
+   * @param frame_size     the samples per channel in the input
+   * @param data           receives the packet, a direct buffer
+   * @param max_data_bytes the capacity of data
+   * @return the packet length, or a negative error code
+   */
+  public static native int opus_encode_float(Pointer st, FloatBuffer pcm, int frame_size, ByteBuffer data,
+                                             int max_data_bytes);
+
+  /**
+   * Opus pcm soft clip. Brings float samples back between -1 and 1 with a smooth curve instead of hard clipping.
+   *
+   * @param pcm          the interleaved samples, clipped in place, a direct buffer
+   * @param frame_size   the samples per channel
+   * @param channels     the channel count
+   * @param softclip_mem the state carried from one call to the next, one element per channel, zeroed at first
+   */
+  public static native void opus_pcm_soft_clip(FloatBuffer pcm, int frame_size, int channels, float[] softclip_mem);
+
+  /**
+   * Opus encoder ctl for requests without an argument, such as OPUS_RESET_STATE.
+   *
+   * @param st      the encoder state
+   * @param request the request
+   * @return the error code
+   */
+  public static native int opus_encoder_ctl(Pointer st, int request);
+
+  /**
+   * Opus encoder ctl for OPUS_SET_* requests.
+   *
+   * @param st      the encoder state
+   * @param request the request
+   * @param value   the value
+   * @return the error code
+   */
+  public static native int opus_encoder_ctl(Pointer st, int request, int value);
+
+  /**
+   * Opus encoder ctl for OPUS_GET_* requests.
+   *
+   * @param st      the encoder state
+   * @param request the request
+   * @param value   receives the value in its first element
+   * @return the error code
+   */
+  public static native int opus_encoder_ctl(Pointer st, int request, int[] value);
+
+  /**
+   * Opus encoder destroy.
+   *
+   * @param st the encoder state
+   */
+  public static native void opus_encoder_destroy(Pointer st);
+
+  /**
+   * Opus decoder create.
+   *
+   * @param Fs       the sample rate
+   * @param channels the channel count
+   * @param error    receives the error code in its first element
+   * @return the decoder state
+   */
+  public static native Pointer opus_decoder_create(int Fs, int channels, int[] error);
+
+  /**
+   * Opus decode.
+   *
+   * @param st         the decoder state
+   * @param data       the packet, or null for packet loss concealment
+   * @param len        the packet length
+   * @param pcm        receives the interleaved output, a direct buffer
+   * @param frame_size the samples per channel pcm has room for
+   * @param decode_fec 1 to decode the forward error correction data of the packet instead
+   * @return the samples per channel decoded, or a negative error code
+   */
+  public static native int opus_decode(Pointer st, byte[] data, int len, ShortBuffer pcm, int frame_size,
+                                       int decode_fec);
+
+  /**
+   * Opus decoder ctl for requests without an argument, such as OPUS_RESET_STATE.
+   *
+   * @param st      the decoder state
+   * @param request the request
+   * @return the error code
+   */
+  public static native int opus_decoder_ctl(Pointer st, int request);
+
+  /**
+   * Opus decoder ctl for OPUS_SET_* requests.
+   *
+   * @param st      the decoder state
+   * @param request the request
+   * @param value   the value
+   * @return the error code
+   */
+  public static native int opus_decoder_ctl(Pointer st, int request, int value);
+
+  /**
+   * Opus decoder ctl for OPUS_GET_* requests.
+   *
+   * @param st      the decoder state
+   * @param request the request
+   * @param value   receives the value in its first element
+   * @return the error code
+   */
+  public static native int opus_decoder_ctl(Pointer st, int request, int[] value);
+
+  /**
+   * Opus decoder destroy.
+   *
+   * @param st the decoder state
+   */
+  public static native void opus_decoder_destroy(Pointer st);
+
+  /**
+   * Opus repacketizer create.
+   *
+   * @return the repacketizer state
+   */
+  public static native Pointer opus_repacketizer_create();
+
+  /**
+   * Opus repacketizer init. Drops the packets added so far.
+   *
+   * @param rp the repacketizer state
+   * @return the repacketizer state
+   */
+  public static native Pointer opus_repacketizer_init(Pointer rp);
+
+  /**
+   * Opus repacketizer cat. The repacketizer keeps pointing into the data, which must not change until the next
+   * {@link #opus_repacketizer_init}.
+   *
+   * @param rp   the repacketizer state
+   * @param data the packet, in native memory
+   * @param len  the packet length
+   * @return OPUS_OK, or OPUS_INVALID_PACKET if the packet is malformed, does not match the configuration of the
+   * packets added before, or would take the total over 120 ms
+   */
+  public static native int opus_repacketizer_cat(Pointer rp, Pointer data, int len);
+
+  /**
+   * Opus repacketizer out range.
+   *
+   * @param rp     the repacketizer state
+   * @param begin  the first frame to put in the packet
+   * @param end    the frame after the last one to put in the packet
+   * @param data   receives the packet, a direct buffer
+   * @param maxlen the capacity of data
+   * @return the packet length, or a negative error code
+   */
+  public static native int opus_repacketizer_out_range(Pointer rp, int begin, int end, ByteBuffer data, int maxlen);
+
+  /**
+   * Opus repacketizer destroy.
+   *
+   * @param rp the repacketizer state
+   */
+  public static native void opus_repacketizer_destroy(Pointer rp);
+
+  /**
+   * Opus packet get bandwidth.
+   *
+   * @param data the packet
+   * @return the OPUS_BANDWIDTH_* constant, or OPUS_INVALID_PACKET
+   */
+  public static native int opus_packet_get_bandwidth(byte[] data);
+
+  /**
+   * Opus packet get nb channels.
+   *
+   * @param data the packet
+   * @return the channel count, or OPUS_INVALID_PACKET
+   */
+  public static native int opus_packet_get_nb_channels(byte[] data);
+
+  /**
+   * Opus packet get nb frames.
+   *
+   * @param packet the packet
+   * @param len    the packet length
+   * @return the number of frames, or a negative error code
+   */
+  public static native int opus_packet_get_nb_frames(byte[] packet, int len);
+
+  /**
+   * Opus packet get samples per frame.
+   *
+   * @param data the packet
+   * @param Fs   the sample rate
+   * @return the samples per channel in each frame
+   */
+  public static native int opus_packet_get_samples_per_frame(byte[] data, int Fs);
+
+  /**
+   * Opus packet get nb samples.
+   *
+   * @param packet the packet
+   * @param len    the packet length
+   * @param Fs     the sample rate
+   * @return the samples per channel in the packet, or a negative error code
+   */
+  public static native int opus_packet_get_nb_samples(byte[] packet, int len, int Fs);
+}
@@ -15,16 +15,29 @@ package com.ibm.watson.developer_cloud.android.library.audio.opus;
 
 import com.ibm.watson.developer_cloud.android.library.audio.AudioConsumer;
 import com.ibm.watson.developer_cloud.android.library.audio.utils.SpeechConfiguration;
-import com.sun.jna.ptr.PointerByReference;
+import com.sun.jna.Pointer;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.ShortBuffer;
+import java.util.Arrays;
 
 /**
  * Ogg Opus Encoder.
+ *
+ * <p>Each stream goes through {@link #onStart()}, which writes the headers, any number of {@code encodeAndWrite}
+ * calls and {@link #finish()}, which writes the last page. {@link #reset(AudioConsumer)} then starts the next stream
+ * on the same native encoder, until {@link #release()} gives it back. Calls out of this order throw
+ * {@link IllegalStateException} instead of writing a corrupt stream.
+ *
+ * <p>Audio is taken as 16-bit PCM or as float samples, which are soft-clipped and encoded with
+ * {@code opus_encode_float} without being quantized to 16 bits first. A stream may switch between the two only at
+ * frame boundaries.
+ *
+ * <p>The native encoder is leased from an {@link OpusStatePool}, {@link OpusStatePool#getDefault()} unless another
+ * pool is given, so creating an encoder for a format that was used before does not allocate native memory.
  */
 public class OggOpusEnc extends OpusWriter {
 
@@ -33,14 +46,79 @@ public class OggOpusEnc extends OpusWriter {
    */
   // Use PROPRIETARY notice if class contains a main() method, otherwise use COPYRIGHT notice.
   public static final String COPYRIGHT_NOTICE = "(c) Copyright IBM Corp. 2015";
+  /**
+   * Largest packet libopus can produce, as recommended by its documentation.
+   */
+  static final int MAX_PACKET_BYTES = 4000;
+  private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
   /**
    * Data writer
    */
   private OpusWriter writer = null;
+  /**
+   * Stage rewrapping frames into packets of the configured duration, null for one packet per frame
+   */
+  private OpusRepacketizer repacketizer;
   /**
    * Opus encoder reference
    */
-  private PointerByReference opusEncoder;
+  private Pointer opusEncoder;
+  /**
+   * Pool the native encoder is leased from
+   */
+  private OpusStatePool pool;
+  /**
+   * Lease of the native encoder, null if it did not come from the pool
+   */
+  private OpusStatePool.State state;
+  /**
+   * Samples per channel in one encoded frame
+   */
+  private int frameSize;
+  /**
+   * Reusable input frame, a direct buffer so JNA can hand it to libopus without copying
+   */
+  private ByteBuffer pcmBytes;
+  /**
+   * Short view of pcmBytes
+   */
+  private ShortBuffer pcm;
+  /**
+   * Reusable float input frame, allocated with the first float input
+   */
+  private FloatBuffer pcmFloat;
+  /**
+   * Soft clipping state, one value per channel, carried from frame to frame
+   */
+  private float[] softClipMemory;
+  /**
+   * Reusable direct output buffer
+   */
+  private ByteBuffer packet;
+  /**
+   * Reusable copy of the packet for the writer
+   */
+  private byte[] packetBytes;
+  /**
+   * Encoder lookahead in 48 kHz samples, which decoders skip at the start of every stream
+   */
+  private int preSkip;
+  /**
+   * Encoder lookahead in samples per channel at the input rate, which has to be flushed out at the end of a stream
+   */
+  private int lookahead;
+  /**
+   * Whether the current stream holds any audio, whose end then needs flushing
+   */
+  private boolean audioWritten;
+  /**
+   * Whether the native encoder has been freed
+   */
+  private boolean released;
+  /**
+   * Settings last applied to the native encoder
+   */
+  private OpusEncoderConfiguration configuration;
 
   /**
    * Constructor.
@@ -52,6 +130,49 @@ public class OggOpusEnc extends OpusWriter {
     initEncoder(ac);
   }
 
+  /**
+   * Constructor for audio in the given format.
+   *
+   * @param ac         the ac
+   * @param sampleRate the sample rate, one of 8000, 12000, 16000, 24000 or 48000
+   * @param channels   the channel count, 1 or 2
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public OggOpusEnc(AudioConsumer ac, int sampleRate, int channels) throws IOException {
+    initEncoder(ac, sampleRate, channels);
+  }
+
+  /**
+   * Constructor for audio in the given format, with the given encoder settings.
+   *
+   * @param ac            the ac
+   * @param sampleRate    the sample rate, one of 8000, 12000, 16000, 24000 or 48000
+   * @param channels      the channel count, 1 or 2
+   * @param configuration the encoder settings
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public OggOpusEnc(AudioConsumer ac, int sampleRate, int channels, OpusEncoderConfiguration configuration)
+          throws IOException {
+    initEncoder(ac, sampleRate, channels, configuration);
+  }
+
+  /**
+   * Constructor for audio in the given format, with the given encoder settings, leasing the native encoder from the
+   * given pool instead of the default one.
+   *
+   * @param ac            the ac
+   * @param sampleRate    the sample rate, one of 8000, 12000, 16000, 24000 or 48000
+   * @param channels      the channel count, 1 or 2
+   * @param configuration the encoder settings
+   * @param pool          the pool
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public OggOpusEnc(AudioConsumer ac, int sampleRate, int channels, OpusEncoderConfiguration configuration,
+                    OpusStatePool pool) throws IOException {
+    this.pool = pool;
+    initEncoder(ac, sampleRate, channels, configuration);
+  }
+
   /**
    * For WebSocketClient.
    *
@@ -59,17 +180,277 @@ public class OggOpusEnc extends OpusWriter {
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public void initEncoder(AudioConsumer ac) throws IOException {
-    writer = new OpusWriter(ac);
+    initEncoder(ac, SpeechConfiguration.SAMPLE_RATE, SpeechConfiguration.AUDIO_CHANNELS);
+  }
+
+  /**
+   * For WebSocketClient, with audio in the given format.
+   *
+   * @param ac         the ac
+   * @param sampleRate the sample rate
+   * @param channels   the channel count
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void initEncoder(AudioConsumer ac, int sampleRate, int channels) throws IOException {
+    initEncoder(ac, sampleRate, channels, new OpusEncoderConfiguration());
+  }
+
+  /**
+   * For WebSocketClient, with audio in the given format and the given encoder settings.
+   *
+   * @param ac            the ac
+   * @param sampleRate    the sample rate
+   * @param channels      the channel count
+   * @param configuration the encoder settings
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void initEncoder(AudioConsumer ac, int sampleRate, int channels, OpusEncoderConfiguration configuration)
+          throws IOException {
+    configuration.validate();
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.frameSize = sampleRate / 1000 * configuration.frameDurationMillis;
+    writer = createWriter(ac, configuration.packetDurationMillis);
+    if (repacketizer != null) {
+      repacketizer.release();
+    }
+    repacketizer = configuration.packetDurationMillis > 0
+            ? createRepacketizer(writer, configuration.packetDurationMillis) : null;
+
+    // one frame of native-order PCM, visible both as bytes for bulk copies and as shorts for the encoder
+    pcmBytes = ByteBuffer.allocateDirect(frameSize * channels * 2).order(ByteOrder.nativeOrder());
+    pcm = pcmBytes.asShortBuffer();
+    packet = ByteBuffer.allocateDirect(MAX_PACKET_BYTES);
+    packetBytes = new byte[MAX_PACKET_BYTES];
+    pcmFloat = null;
+
+    if (state != null) {
+      // initialized again: the lease of the previous format would otherwise never go back to the pool
+      pool.giveBack(state);
+      state = null;
+    }
+    this.opusEncoder = createEncoder(sampleRate, channels, configuration.application.value);
+    this.released = false;
+    this.configuration = configuration.copy();
+    try {
+      configure(configuration);
+    } catch (IllegalArgumentException e) {
+      release();
+      throw e;
+    }
+    this.lookahead = getLookahead();
+    this.preSkip = lookahead * OPUS_GRANULE_RATE / sampleRate;
+    this.audioWritten = false;
+    writer.setPreSkip(preSkip);
+  }
+
+  /**
+   * Creates the writer of a stream, with pages of about the same duration whatever the packets hold.
+   */
+  private OpusWriter createWriter(AudioConsumer ac, int packetDurationMillis) {
+    int packetSize = packetDurationMillis > 0 ? sampleRate / 1000 * packetDurationMillis : frameSize;
+    return new OpusWriter(ac, sampleRate, channels, packetSize);
+  }
+
+  /**
+   * Creates the stage that rewraps the encoded frames into packets of the given duration.
+   *
+   * @param writer               the writer the packets go to
+   * @param packetDurationMillis the packet duration
+   * @return the repacketizer
+   */
+  protected OpusRepacketizer createRepacketizer(OpusWriter writer, int packetDurationMillis) {
+    return new OpusRepacketizer(writer, sampleRate, packetDurationMillis);
+  }
+
+  /**
+   * Leases the native encoder from the pool, reset if it was used before.
+   *
+   * @param sampleRate  the sample rate
+   * @param channels    the channel count
+   * @param application the OPUS_APPLICATION_* constant
+   * @return the encoder state
+   * @throws IOException if libopus rejected the format
+   */
+  protected Pointer createEncoder(int sampleRate, int channels, int application) throws IOException {
+    if (pool == null) {
+      pool = OpusStatePool.getDefault();
+    }
+    state = pool.leaseEncoder(sampleRate, channels, application);
+    return state.getPointer();
+  }
+
+  /**
+   * Encodes one frame with the native encoder.
+   *
+   * @param pcm    one frame of interleaved PCM in a direct buffer
+   * @param packet a direct buffer receiving the packet
+   * @return the packet length, or a negative libopus error code
+   */
+  protected int encodeFrame(ShortBuffer pcm, ByteBuffer packet) {
+    return JNAOpusDirect.opus_encode(this.opusEncoder, pcm, frameSize, packet, packet.capacity());
+  }
+
+  /**
+   * Encodes one frame of float samples with the native encoder.
+   *
+   * @param pcm    one frame of interleaved float samples in a direct buffer
+   * @param packet a direct buffer receiving the packet
+   * @return the packet length, or a negative libopus error code
+   */
+  protected int encodeFloatFrame(FloatBuffer pcm, ByteBuffer packet) {
+    return JNAOpusDirect.opus_encode_float(this.opusEncoder, pcm, frameSize, packet, packet.capacity());
+  }
+
+  /**
+   * Soft-clips one frame of float samples in place.
+   *
+   * @param pcm    one frame of interleaved float samples in a direct buffer
+   * @param memory the clipping state of every channel, updated for the next frame
+   */
+  protected void softClip(FloatBuffer pcm, float[] memory) {
+    JNAOpusDirect.opus_pcm_soft_clip(pcm, frameSize, channels, memory);
+  }
+
+  /**
+   * Gets the encoder's lookahead, the delay it adds in front of the audio.
+   *
+   * @return the lookahead in samples per channel at the input rate
+   */
+  protected int getLookahead() {
+    int[] lookahead = new int[1];
+    if (JNAOpusDirect.opus_encoder_ctl(this.opusEncoder, JNAOpus.OPUS_GET_LOOKAHEAD_REQUEST, lookahead)
+            != JNAOpus.OPUS_OK) {
+      return 0;
+    }
+    return lookahead[0];
+  }
+
+  /**
+   * Sets one integer parameter of the native encoder.
+   *
+   * @param request the OPUS_SET_*_REQUEST constant
+   * @param value   the value
+   * @return OPUS_OK, or a negative libopus error code
+   */
+  protected int encoderCtl(int request, int value) {
+    return JNAOpusDirect.opus_encoder_ctl(this.opusEncoder, request, value);
+  }
+
+  /**
+   * Applies new encoder settings. Takes effect from the next frame, so the bitrate, complexity and the rest can be
+   * changed while a stream is being encoded; the stream stays valid. Only the application cannot change, as it
+   * decides the lookahead the stream headers announce, the frame duration, which sizes the encoder's buffers, and
+   * the packet duration, which sizes the Ogg pages.
+   *
+   * @param configuration the settings; later changes to it have no effect until it is applied again
+   * @throws IllegalArgumentException if a setting is out of range, the application differs from the one the encoder
+   *                                  was created with, or libopus rejected a setting
+   */
+  public void configure(OpusEncoderConfiguration configuration) {
+    checkNotReleased();
+    configuration.validate();
+    if (configuration.application != this.configuration.application) {
+      throw new IllegalArgumentException("The encoder was created for " + this.configuration.application
+              + " and cannot switch to " + configuration.application);
+    }
+    if (configuration.frameDurationMillis != this.configuration.frameDurationMillis) {
+      throw new IllegalArgumentException("The encoder was created for " + this.configuration.frameDurationMillis
+              + " ms frames and cannot switch to " + configuration.frameDurationMillis + " ms");
+    }
+    if (configuration.packetDurationMillis != this.configuration.packetDurationMillis) {
+      throw new IllegalArgumentException("The stream was started with " + this.configuration.packetDurationMillis
+              + " ms packets and cannot switch to " + configuration.packetDurationMillis + " ms");
+    }
+    ctl(JNAOpus.OPUS_SET_BITRATE_REQUEST, configuration.bitrate, "bitrate");
+    ctl(JNAOpus.OPUS_SET_VBR_REQUEST, configuration.vbr ? 1 : 0, "vbr");
+    ctl(JNAOpus.OPUS_SET_VBR_CONSTRAINT_REQUEST, configuration.vbrConstraint ? 1 : 0, "vbrConstraint");
+    ctl(JNAOpus.OPUS_SET_COMPLEXITY_REQUEST, configuration.complexity, "complexity");
+    ctl(JNAOpus.OPUS_SET_SIGNAL_REQUEST, configuration.signal.value, "signal");
+    ctl(JNAOpus.OPUS_SET_MAX_BANDWIDTH_REQUEST, configuration.maxBandwidth.value, "maxBandwidth");
+    ctl(JNAOpus.OPUS_SET_BANDWIDTH_REQUEST, configuration.bandwidth.value, "bandwidth");
+    ctl(JNAOpus.OPUS_SET_DTX_REQUEST, configuration.dtx ? 1 : 0, "dtx");
+    ctl(JNAOpus.OPUS_SET_INBAND_FEC_REQUEST, configuration.inbandFec ? 1 : 0, "inbandFec");
+    ctl(JNAOpus.OPUS_SET_PACKET_LOSS_PERC_REQUEST, configuration.packetLossPercent, "packetLossPercent");
+    ctl(JNAOpus.OPUS_SET_LSB_DEPTH_REQUEST, configuration.lsbDepth, "lsbDepth");
+    this.configuration = configuration.copy();
+  }
+
+  private void ctl(int request, int value, String setting) {
+    int error = encoderCtl(request, value);
+    if (error != JNAOpus.OPUS_OK) {
+      throw new IllegalArgumentException("libopus rejected " + setting + "=" + value + ": error " + error);
+    }
+  }
+
+  /**
+   * Gets the settings last applied to the encoder.
+   *
+   * @return a copy of the settings
+   */
+  public OpusEncoderConfiguration getConfiguration() {
+    return configuration.copy();
+  }
+
+  /**
+   * Clears the native encoder's state, as if it had just been created.
+   */
+  protected void resetEncoder() {
+    JNAOpusDirect.opus_encoder_ctl(this.opusEncoder, JNAOpus.OPUS_RESET_STATE);
+  }
+
+  /**
+   * Gets the pre-skip written to the stream headers.
+   *
+   * @return the pre-skip in 48 kHz samples
+   */
+  public int getPreSkip() {
+    return preSkip;
+  }
+
+  /**
+   * Gets where the current stream is.
+   *
+   * @return the state of the current stream
+   */
+  @Override
+  public State getState() {
+    return writer.getState();
+  }
+
+  /**
+   * Gets the number of samples per channel the encoder codes into one packet.
+   *
+   * @return the frame size
+   */
+  public int getFrameSize() {
+    return frameSize;
+  }
+
+  /**
+   * Gets the sample rate the encoder was created for.
+   *
+   * @return the sample rate in Hz
+   */
+  public int getSampleRate() {
+    return sampleRate;
+  }
 
-    IntBuffer error = IntBuffer.allocate(4);
-    this.opusEncoder = JNAOpus.INSTANCE.opus_encoder_create(SpeechConfiguration.SAMPLE_RATE,
-            SpeechConfiguration.AUDIO_CHANNELS, JNAOpus.OPUS_APPLICATION_VOIP, error);
+  /**
+   * Gets the channel count the encoder was created for.
+   *
+   * @return the channel count
+   */
+  public int getChannels() {
+    return channels;
   }
 
   /**
-   * When the encode begins.
+   * When the encode begins. Writes the stream headers, so it must be called exactly once per stream, before the
+   * first audio.
    */
   public void onStart() {
+    checkNotReleased();
     writer.writeHeader("encoder=Lavc56.20.100 libopus");
   }
 
@@ -81,56 +462,419 @@ public class OggOpusEnc extends OpusWriter {
    * @throws IOException Signals that an I/O exception has occurred.
    */
   public int encodeAndWrite(byte[] rawAudio) throws IOException {
+    return encodeAndWrite(rawAudio, 0, rawAudio.length);
+  }
+
+  /**
+   * Encode a range of raw little-endian 16-bit audio into Opus format then call OpusWriter to write the Ogg packets.
+   * The range may have any length: audio that does not fill a frame, even half a sample, is kept and encoded with the
+   * audio of the next call, or by {@link #flush()} or {@link #finish()}. The audio is only read during the call.
+   * Nothing is allocated.
+   *
+   * @param rawAudio the raw audio
+   * @param offset   the offset of the first byte of audio
+   * @param length   the number of bytes of audio
+   * @return the number of encoded bytes written
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int encodeAndWrite(byte[] rawAudio, int offset, int length) throws IOException {
+    checkStreaming();
+    checkNoFloatsPending();
     int uploadedAudioSize = 0;
-    ByteArrayInputStream ios = new ByteArrayInputStream(rawAudio);
+    int end = offset + length;
 
-    byte[] data = new byte[SpeechConfiguration.FRAME_SIZE * 2];
-    int bufferSize, read;
+    for (int position = offset; position < end; ) {
+      int bufferSize = Math.min(pcmBytes.remaining(), end - position);
+      if (LITTLE_ENDIAN) {
+        // the bytes already have the layout the encoder reads
+        pcmBytes.put(rawAudio, position, bufferSize);
+      } else {
+        // swap byte by byte, as a sample may be split between two calls
+        for (int i = position; i < position + bufferSize; i++) {
+          int at = pcmBytes.position();
+          pcmBytes.put(at ^ 1, rawAudio[i]);
+          pcmBytes.position(at + 1);
+        }
+      }
+      position += bufferSize;
+      if (!pcmBytes.hasRemaining()) {
+        uploadedAudioSize += encodeBuffered(frameSize);
+      }
+    }
+
+    return uploadedAudioSize;
+  }
 
-    while ((read = ios.read(data)) > 0) {
-      bufferSize = read;
-      byte[] pcmBuffer = new byte[read];
-      System.arraycopy(data, 0, pcmBuffer, 0, read);
+  /**
+   * Encode 16-bit samples into Opus format then call OpusWriter to write the Ogg packets. Skips the conversion to
+   * bytes the byte overloads need. Like the byte overloads it takes any number of samples and keeps those that do not
+   * fill a frame for later. The samples are only read during the call. Nothing is allocated.
+   *
+   * @param samples the samples, interleaved if there is more than one channel
+   * @param offset  the offset of the first sample
+   * @param length  the number of samples, counting every channel
+   * @return the number of encoded bytes written
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int encodeAndWrite(short[] samples, int offset, int length) throws IOException {
+    checkStreaming();
+    checkSampleAligned();
+    checkNoFloatsPending();
+    int uploadedAudioSize = 0;
+    int end = offset + length;
 
-      ShortBuffer shortBuffer = ShortBuffer.allocate(bufferSize);
-      for (int i = 0; i < read; i += 2) {
-        int b1 = pcmBuffer[i] & 0xff;
-        int b2 = pcmBuffer[i + 1] << 8;
-        shortBuffer.put((short) (b1 | b2));
+    for (int position = offset; position < end; ) {
+      pcm.clear();
+      pcm.position(pcmBytes.position() / 2);
+      int bufferSize = Math.min(pcm.remaining(), end - position);
+      pcm.put(samples, position, bufferSize);
+      pcmBytes.position(pcm.position() * 2);
+      position += bufferSize;
+      if (!pcmBytes.hasRemaining()) {
+        uploadedAudioSize += encodeBuffered(frameSize);
       }
-      shortBuffer.flip();
-      ByteBuffer opusBuffer = ByteBuffer.allocate(bufferSize);
+    }
 
-      int opus_encoded = JNAOpus.INSTANCE.opus_encode(this.opusEncoder, shortBuffer, SpeechConfiguration.FRAME_SIZE,
-              opusBuffer, bufferSize);
+    return uploadedAudioSize;
+  }
 
-      opusBuffer.position(opus_encoded);
-      opusBuffer.flip();
+  /**
+   * Encode 16-bit samples into Opus format then call OpusWriter to write the Ogg packets. Reads the buffer from its
+   * position to its limit and leaves the position at the limit. Samples that do not fill a frame are kept for later.
+   *
+   * @param samples the samples, interleaved if there is more than one channel
+   * @return the number of encoded bytes written
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int encodeAndWrite(ShortBuffer samples) throws IOException {
+    checkStreaming();
+    checkSampleAligned();
+    checkNoFloatsPending();
+    int uploadedAudioSize = 0;
+    int limit = samples.limit();
 
-      byte[] opusData = new byte[opusBuffer.remaining()];
-      opusBuffer.get(opusData, 0, opusData.length);
+    while (samples.position() < limit) {
+      pcm.clear();
+      pcm.position(pcmBytes.position() / 2);
+      int bufferSize = Math.min(pcm.remaining(), limit - samples.position());
+      samples.limit(samples.position() + bufferSize);
+      pcm.put(samples);
+      samples.limit(limit);
+      pcmBytes.position(pcm.position() * 2);
+      if (!pcmBytes.hasRemaining()) {
+        uploadedAudioSize += encodeBuffered(frameSize);
+      }
+    }
+
+    return uploadedAudioSize;
+  }
 
-      if (opus_encoded > 0) {
-        uploadedAudioSize += opusData.length;
-        // System.out.println("This is where I'd write some data. " + uploadedAudioSize + " to be specific.");
-        writer.writePacket(opusData, 0, opusData.length);
+  /**
+   * Encode float samples into Opus format then call OpusWriter to write the Ogg packets. Full scale is -1 to 1;
+   * louder samples are soft-clipped unless {@link OpusEncoderConfiguration#softClip} is off, in which case the encoder
+   * clips them. Like the 16-bit overloads it takes any number of samples and keeps those that do not fill a frame for
+   * later. The samples are only read during the call. Nothing is allocated after the first call.
+   *
+   * @param samples the samples, interleaved if there is more than one channel
+   * @param offset  the offset of the first sample
+   * @param length  the number of samples, counting every channel
+   * @return the number of encoded bytes written
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int encodeAndWrite(float[] samples, int offset, int length) throws IOException {
+    checkStreaming();
+    checkNoShortsPending();
+    ensureFloatFrame();
+    int uploadedAudioSize = 0;
+    int end = offset + length;
+
+    for (int position = offset; position < end; ) {
+      int bufferSize = Math.min(pcmFloat.remaining(), end - position);
+      pcmFloat.put(samples, position, bufferSize);
+      position += bufferSize;
+      if (!pcmFloat.hasRemaining()) {
+        uploadedAudioSize += encodeBufferedFloat(frameSize);
       }
     }
 
-    ios.close();
+    return uploadedAudioSize;
+  }
+
+  /**
+   * Encode float samples into Opus format then call OpusWriter to write the Ogg packets. Reads the buffer from its
+   * position to its limit and leaves the position at the limit. Samples that do not fill a frame are kept for later.
+   *
+   * @param samples the samples, interleaved if there is more than one channel
+   * @return the number of encoded bytes written
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int encodeAndWrite(FloatBuffer samples) throws IOException {
+    checkStreaming();
+    checkNoShortsPending();
+    ensureFloatFrame();
+    int uploadedAudioSize = 0;
+    int limit = samples.limit();
+
+    while (samples.position() < limit) {
+      int bufferSize = Math.min(pcmFloat.remaining(), limit - samples.position());
+      samples.limit(samples.position() + bufferSize);
+      pcmFloat.put(samples);
+      samples.limit(limit);
+      if (!pcmFloat.hasRemaining()) {
+        uploadedAudioSize += encodeBufferedFloat(frameSize);
+      }
+    }
 
     return uploadedAudioSize;
   }
 
   /**
-   * Close writer.
+   * Gets the number of samples per channel kept back because they do not fill a frame yet.
+   *
+   * @return the buffered samples per channel, less than one frame
    */
-  public void close() {
+  public int getBufferedSamples() {
+    return (pcmBytes.position() / 2 + floatsPending()) / channels;
+  }
+
+  private int floatsPending() {
+    return pcmFloat == null ? 0 : pcmFloat.position();
+  }
+
+  /**
+   * Encodes the samples kept back from earlier calls right away, padded with silence to a whole frame, and writes
+   * the frames a repacketizer holds as a shorter packet. The padding stays in the stream, so call this only where a
+   * gap does not matter; {@link #finish()} flushes the end of the stream without it.
+   *
+   * @return the number of encoded bytes written
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int flush() throws IOException {
+    checkStreaming();
+    int written = 0;
+    if (floatsPending() > 0) {
+      written = encodeBufferedFloat(frameSize);
+    } else if (pcmBytes.position() > 0) {
+      written = encodeBuffered(frameSize);
+    }
+    if (repacketizer != null) {
+      repacketizer.flush();
+    }
+    return written;
+  }
+
+  /**
+   * Writes out the page the packets encoded so far are collected in, without padding anything, so they reach the
+   * consumer now instead of once the page is full. Live streams call this once per captured chunk; each page costs
+   * some 30 bytes of container overhead. Samples that do not fill a frame, and frames a repacketizer holds, stay back.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void flushPage() throws IOException {
+    checkStreaming();
+    writer.flushPage();
+  }
+
+  private void checkNotReleased() {
+    if (released) {
+      throw new IllegalStateException("Opus encoder already released");
+    }
+  }
+
+  private void checkStreaming() {
+    checkNotReleased();
+    if (writer.getState() != State.STREAMING) {
+      throw new IllegalStateException("Opus stream is " + writer.getState() + ", call onStart() before encoding");
+    }
+  }
+
+  private void checkNoFloatsPending() {
+    if (floatsPending() > 0) {
+      throw new IllegalStateException("Float samples that do not fill a frame are still waiting to be encoded");
+    }
+  }
+
+  private void checkNoShortsPending() {
+    if (pcmBytes.position() > 0) {
+      throw new IllegalStateException("16-bit samples that do not fill a frame are still waiting to be encoded");
+    }
+  }
+
+  /**
+   * Allocates the float frame the first time float samples arrive, so encoders fed 16-bit PCM do without it.
+   */
+  private void ensureFloatFrame() {
+    if (pcmFloat == null) {
+      pcmFloat = ByteBuffer.allocateDirect(frameSize * channels * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+      softClipMemory = new float[channels];
+    }
+  }
+
+  private void checkSampleAligned() {
+    if (pcmBytes.position() % 2 != 0) {
+      throw new IllegalStateException("Half a sample from earlier byte input is still waiting to be completed");
+    }
+  }
+
+  /**
+   * Encodes the frame collected in the PCM buffer and writes the packet.
+   *
+   * @param frames the number of samples per channel the packet counts for in the granule position
+   * @return the packet length
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private int encodeBuffered(int frames) throws IOException {
+    // a partial frame is padded with silence
+    while (pcmBytes.hasRemaining()) {
+      pcmBytes.put((byte) 0);
+    }
+    pcmBytes.clear();
+    pcm.clear();
+    packet.clear();
+
+    int opus_encoded = encodeFrame(pcm, packet);
+    return writeEncoded(opus_encoded, frames);
+  }
+
+  /**
+   * Soft-clips and encodes the frame collected in the float buffer and writes the packet.
+   *
+   * @param frames the number of samples per channel the packet counts for in the granule position
+   * @return the packet length
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private int encodeBufferedFloat(int frames) throws IOException {
+    while (pcmFloat.hasRemaining()) {
+      pcmFloat.put(0f);
+    }
+    pcmFloat.clear();
+    if (configuration.softClip) {
+      softClip(pcmFloat, softClipMemory);
+    }
+    packet.clear();
+
+    int opus_encoded = encodeFloatFrame(pcmFloat, packet);
+    return writeEncoded(opus_encoded, frames);
+  }
+
+  private int writeEncoded(int opus_encoded, int frames) throws IOException {
+    if (opus_encoded <= 0) {
+      return 0;
+    }
+    packet.get(packetBytes, 0, opus_encoded);
+    audioWritten |= frames > 0;
+    if (repacketizer != null) {
+      repacketizer.writePacket(packetBytes, 0, opus_encoded, frames);
+    } else {
+      writer.writePacket(packetBytes, 0, opus_encoded, frames);
+    }
+    return opus_encoded;
+  }
+
+  /**
+   * Starts a new stream to another consumer, reusing the native encoder. The encoder state is cleared with
+   * OPUS_RESET_STATE so nothing from the previous stream leaks into the new one, which is much cheaper than creating
+   * a new encoder. The previous stream must have been finished, or never started.
+   *
+   * @param ac the consumer of the new stream
+   */
+  public void reset(AudioConsumer ac) {
+    checkNotReleased();
+    if (writer.getState() == State.STREAMING) {
+      throw new IllegalStateException("Finish the current Opus stream before starting the next one");
+    }
+    pcmBytes.clear();
+    if (pcmFloat != null) {
+      pcmFloat.clear();
+      Arrays.fill(softClipMemory, 0f);
+    }
+    writer = createWriter(ac, configuration.packetDurationMillis);
+    writer.setPreSkip(preSkip);
+    audioWritten = false;
+    if (repacketizer != null) {
+      repacketizer.reset(writer);
+    }
+    resetEncoder();
+  }
+
+  /**
+   * Ends the current stream by encoding the samples kept back from earlier calls, followed by enough silence to
+   * flush the encoder's lookahead, and writing the last page. The granule position of the last page counts only the
+   * real samples, so decoders trim the padding and the silence. A trailing half sample is dropped. A stream that was
+   * never started gets its headers first, so the consumer always receives a complete, if empty, stream. The native
+   * encoder stays available for {@link #reset}.
+   */
+  public void finish() {
+    checkNotReleased();
+    if (writer.getState() == State.NEW) {
+      onStart();
+    }
+    if (writer.getState() == State.FINISHED) {
+      throw new IllegalStateException("Opus stream already finished");
+    }
     try {
+      int frames = getBufferedSamples();
+      if (floatsPending() > 0) {
+        encodeBufferedFloat(frames);
+      } else if (frames > 0) {
+        encodeBuffered(frames);
+      }
+      pcmBytes.clear();
+      if (pcmFloat != null) {
+        pcmFloat.clear();
+      }
+      if (audioWritten) {
+        // the encoder holds back its lookahead, so the last samples only come out with the silence that follows them;
+        // the padding of a partial last frame already counts towards it
+        int padding = frames > 0 ? frameSize - frames : 0;
+        for (int i = 0; i < flushFrames(lookahead, padding, frameSize); i++) {
+          encodeBuffered(0);
+        }
+      }
+      if (repacketizer != null) {
+        repacketizer.flush();
+      }
       writer.close();
-      JNAOpus.INSTANCE.opus_encoder_destroy(this.opusEncoder);
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
+
+  /**
+   * Gets the number of frames of silence that push the encoder's lookahead out at the end of a stream.
+   *
+   * @param lookahead the encoder lookahead in samples per channel
+   * @param padding   the silence the last frame was already padded with, in samples per channel
+   * @param frameSize the samples per channel in one frame
+   * @return the number of frames
+   */
+  static int flushFrames(int lookahead, int padding, int frameSize) {
+    int missing = lookahead - padding;
+    return missing <= 0 ? 0 : (missing + frameSize - 1) / frameSize;
+  }
+
+  /**
+   * Gives the native encoder back to its pool without writing anything. Calling it again has no effect.
+   */
+  public void release() {
+    released = true;
+    this.opusEncoder = null;
+    if (repacketizer != null) {
+      repacketizer.release();
+    }
+    if (state != null) {
+      pool.giveBack(state);
+      state = null;
+    }
+  }
+
+  /**
+   * Close writer, finishing the current stream unless that has already been done.
+   */
+  public void close() {
+    if (!released && writer.getState() != State.FINISHED) {
+      finish();
+    }
+    release();
+  }
 }
@@ -0,0 +1,561 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.ibm.watson.developer_cloud.android.library.audio.AudioConsumer;
+import com.ibm.watson.developer_cloud.android.library.audio.PcmSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes recorded PCM, for example a {@code WavFileSource}, to Ogg Opus as fast as the device allows, using several
+ * encoders at once. {@link OggOpusEnc} encodes a single stream on the calling thread; this splits the input into
+ * segments of about {@link #setSegmentMillis segmentMillis}, each cut at the quietest moment near its target length,
+ * and encodes the segments in parallel, each on an encoder leased from an {@link OpusStatePool}.
+ *
+ * <p>The segments are written, in order, either as one continuous stream or as a chained Ogg file:
+ * <ul>
+ * <li>{@link Output#SINGLE_STREAM} re-muxes the packets of all segments into one logical stream with a single set of
+ * headers and continuous granule positions. So that a segment continues the stream exactly where the previous one
+ * ends, its encoder is first fed a few frames of the audio before the cut, whose packets are dropped; the encoder
+ * then has the same lookahead and history a single sequential encoder would have had. Since cuts fall into the
+ * quietest audio, the change of encoder is inaudible.</li>
+ * <li>{@link Output#CHAINED_STREAMS} writes every segment as a complete stream with its own serial number, headers,
+ * pre-skip and granule positions, one after the other, as Ogg allows. Players handle the links one by one.</li>
+ * </ul>
+ *
+ * <p>At most twice as many segments as threads are held in memory, so inputs of any length are transcoded in bounded
+ * memory.
+ */
+public class OggOpusTranscoder {
+
+  /**
+   * How the encoded segments are put together.
+   */
+  public enum Output {
+    /**
+     * One logical Ogg Opus stream.
+     */
+    SINGLE_STREAM,
+    /**
+     * One complete Ogg Opus stream per segment, chained.
+     */
+    CHAINED_STREAMS
+  }
+
+  /**
+   * Default target length of a segment.
+   */
+  public static final int DEFAULT_SEGMENT_MILLIS = 30000;
+
+  /**
+   * Audio from before a cut that primes the encoder of the next segment in a single stream. Covers the encoder's
+   * lookahead of 6.5 ms several times over.
+   */
+  static final int PRIMING_MILLIS = 60;
+
+  private static final String COMMENT = "encoder=Lavc56.20.100 libopus";
+
+  private final OpusEncoderConfiguration configuration;
+  private final OpusStatePool pool;
+  private int threads = Runtime.getRuntime().availableProcessors();
+  private int segmentMillis = DEFAULT_SEGMENT_MILLIS;
+  private Output output = Output.SINGLE_STREAM;
+
+  /**
+   * Instantiates a transcoder leasing its encoders from the default pool.
+   *
+   * @param configuration the encoder settings, copied
+   */
+  public OggOpusTranscoder(OpusEncoderConfiguration configuration) {
+    this(configuration, OpusStatePool.getDefault());
+  }
+
+  /**
+   * Instantiates a transcoder leasing its encoders from the given pool. Give the pool room for one idle encoder per
+   * thread, or encoders are destroyed and created again between segments.
+   *
+   * @param configuration the encoder settings, copied
+   * @param pool          the pool
+   */
+  public OggOpusTranscoder(OpusEncoderConfiguration configuration, OpusStatePool pool) {
+    configuration.validate();
+    this.configuration = configuration.copy();
+    this.pool = pool;
+  }
+
+  /**
+   * Sets how many segments are encoded at once. Defaults to the number of processors.
+   *
+   * @param threads the number of encoding threads, at least 1
+   */
+  public void setThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one encoding thread is needed, got " + threads);
+    }
+    this.threads = threads;
+  }
+
+  /**
+   * Gets how many segments are encoded at once.
+   *
+   * @return the number of encoding threads
+   */
+  public int getThreads() {
+    return threads;
+  }
+
+  /**
+   * Sets the target length of a segment. Cuts are placed at the quietest frame within a quarter of this length of the
+   * target, so segments are between three quarters and one and a quarter of it long, except for the last one.
+   *
+   * @param segmentMillis the target length in milliseconds, at least 1000
+   */
+  public void setSegmentMillis(int segmentMillis) {
+    if (segmentMillis < 1000) {
+      throw new IllegalArgumentException("Segments must be at least 1000 ms long, got " + segmentMillis);
+    }
+    this.segmentMillis = segmentMillis;
+  }
+
+  /**
+   * Gets the target length of a segment.
+   *
+   * @return the target length in milliseconds
+   */
+  public int getSegmentMillis() {
+    return segmentMillis;
+  }
+
+  /**
+   * Sets how the segments are put together. Defaults to {@link Output#SINGLE_STREAM}.
+   *
+   * @param output the output layout
+   */
+  public void setOutput(Output output) {
+    this.output = output;
+  }
+
+  /**
+   * Gets how the segments are put together.
+   *
+   * @return the output layout
+   */
+  public Output getOutput() {
+    return output;
+  }
+
+  /**
+   * Reads the source to its end and writes it to the given stream as Ogg Opus. The source is started and stopped
+   * here; the output stream is left open. An empty source still gives a complete, empty stream.
+   *
+   * @param source the audio to encode, 16-bit PCM at a sample rate Opus supports
+   * @param out    where the Ogg Opus data is written
+   * @return the number of samples per channel encoded
+   * @throws IOException if reading, encoding or writing failed
+   */
+  public long transcode(PcmSource source, OutputStream out) throws IOException {
+    final int sampleRate = source.getSampleRate();
+    final int channels = source.getChannels();
+    int frame = sampleRate / 1000 * configuration.frameDurationMillis * channels;
+    int targetFrames = Math.max(1, sampleRate / 1000 * segmentMillis * channels / frame);
+    int primingFrames = (PRIMING_MILLIS + configuration.frameDurationMillis - 1) / configuration.frameDurationMillis;
+    boolean priming = output == Output.SINGLE_STREAM;
+    final OpusEncoderConfiguration settings = configuration.copy();
+    if (priming) {
+      // priming packets are dropped one frame each, so the packets are rewrapped once the segments are re-muxed
+      settings.packetDurationMillis = 0;
+    }
+
+    // room for the latest cut plus one frame, to measure the energy after it
+    short[] buffer = new short[(targetFrames + targetFrames / 4 + 1) * frame];
+    short[] previousTail = new short[0];
+    int buffered = 0;
+    long samples = 0;
+    Sink sink = output == Output.SINGLE_STREAM
+            ? new StreamSink(out, sampleRate, channels, frame / channels, configuration.packetDurationMillis)
+            : new ChainSink(out);
+    ArrayDeque<Future<Segment>> inFlight = new ArrayDeque<Future<Segment>>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    source.start();
+    try {
+      boolean ended = false;
+      boolean submitted = false;
+      while (!ended) {
+        while (buffered < buffer.length) {
+          int read = source.read(buffer, buffered, buffer.length - buffered);
+          if (read < 0) {
+            ended = true;
+            break;
+          }
+          buffered += read;
+        }
+        if (ended && buffered == 0 && submitted) {
+          break;
+        }
+        int cut = ended ? buffered - buffered % channels
+                : findCut(buffer, (targetFrames - targetFrames / 4) * frame, buffer.length - frame, frame);
+
+        final short[] segment = new short[previousTail.length + cut];
+        System.arraycopy(previousTail, 0, segment, 0, previousTail.length);
+        System.arraycopy(buffer, 0, segment, previousTail.length, cut);
+        final int dropped = previousTail.length / frame;
+        inFlight.add(executor.submit(new Callable<Segment>() {
+          @Override
+          public Segment call() throws IOException {
+            return encodeSegment(segment, dropped, sampleRate, channels, settings);
+          }
+        }));
+        submitted = true;
+        samples += cut / channels;
+
+        if (priming) {
+          int tail = Math.min(primingFrames * frame, cut - cut % frame);
+          previousTail = new short[tail];
+          System.arraycopy(buffer, cut - tail, previousTail, 0, tail);
+        }
+        System.arraycopy(buffer, cut, buffer, 0, buffered - cut);
+        buffered -= cut;
+
+        while (inFlight.size() >= 2 * threads) {
+          sink.write(await(inFlight.poll()));
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        sink.write(await(inFlight.poll()));
+      }
+      sink.close();
+    } finally {
+      executor.shutdownNow();
+      sink.release();
+      source.stop();
+    }
+    return samples;
+  }
+
+  /**
+   * Creates the encoder for one segment. Tests override this to run without libopus.
+   *
+   * @param consumer   the consumer of the segment's stream
+   * @param sampleRate the sample rate
+   * @param channels   the channel count
+   * @param settings   the encoder settings
+   * @param pool       the pool to lease the native encoder from
+   * @return the encoder
+   * @throws IOException if the encoder could not be created
+   */
+  protected OggOpusEnc createEncoder(AudioConsumer consumer, int sampleRate, int channels,
+                                     OpusEncoderConfiguration settings, OpusStatePool pool) throws IOException {
+    return new OggOpusEnc(consumer, sampleRate, channels, settings, pool);
+  }
+
+  private Segment encodeSegment(short[] samples, int droppedPackets, int sampleRate, int channels,
+                                OpusEncoderConfiguration settings) throws IOException {
+    ByteCollector collector = new ByteCollector(samples.length * 2 / 8);
+    OggOpusEnc encoder = createEncoder(collector, sampleRate, channels, settings, pool);
+    try {
+      encoder.onStart();
+      encoder.encodeAndWrite(samples, 0, samples.length);
+      encoder.finish();
+      return new Segment(collector.bytes.toByteArray(), encoder.getPreSkip(), droppedPackets,
+              samples.length / channels - droppedPackets * encoder.getFrameSize());
+    } finally {
+      encoder.release();
+    }
+  }
+
+  private static Segment await(Future<Segment> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a segment to be encoded");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  /**
+   * Finds where to cut: the frame boundary in the given range around which the audio is quietest, measured over one
+   * frame on either side.
+   *
+   * @param samples the interleaved samples, with at least one frame after {@code to}
+   * @param from    the first allowed cut, a multiple of {@code frame}
+   * @param to      the last allowed cut, a multiple of {@code frame}
+   * @param frame   the samples in one frame, counting every channel
+   * @return the index of the first sample after the cut
+   */
+  static int findCut(short[] samples, int from, int to, int frame) {
+    int best = to;
+    long bestEnergy = Long.MAX_VALUE;
+    long previous = energy(samples, Math.max(0, from - frame), from);
+    for (int cut = from; cut <= to; cut += frame) {
+      long next = energy(samples, cut, cut + frame);
+      if (previous + next < bestEnergy) {
+        bestEnergy = previous + next;
+        best = cut;
+      }
+      previous = next;
+    }
+    return best;
+  }
+
+  private static long energy(short[] samples, int from, int to) {
+    long energy = 0;
+    for (int i = from; i < to; i++) {
+      energy += samples[i] * samples[i];
+    }
+    return energy;
+  }
+
+  /**
+   * Splits an Ogg stream written by {@link OpusWriter} into its packets, headers included.
+   *
+   * @param stream the Ogg pages
+   * @return the packets in order
+   */
+  static List<byte[]> readPackets(byte[] stream) {
+    List<byte[]> packets = new ArrayList<byte[]>();
+    ByteArrayOutputStream packet = new ByteArrayOutputStream();
+    int position = 0;
+    while (position + 27 <= stream.length) {
+      int segments = stream[position + 26] & 0xff;
+      int body = position + 27 + segments;
+      for (int i = 0; i < segments; i++) {
+        int lacing = stream[position + 27 + i] & 0xff;
+        packet.write(stream, body, lacing);
+        body += lacing;
+        if (lacing < 255) {
+          packets.add(packet.toByteArray());
+          packet.reset();
+        }
+      }
+      position = body;
+    }
+    return packets;
+  }
+
+  /**
+   * One encoded segment.
+   */
+  private static final class Segment {
+    final byte[] ogg;
+    final int preSkip;
+    final int droppedPackets;
+    final int samples;
+
+    Segment(byte[] ogg, int preSkip, int droppedPackets, int samples) {
+      this.ogg = ogg;
+      this.preSkip = preSkip;
+      this.droppedPackets = droppedPackets;
+      this.samples = samples;
+    }
+  }
+
+  /**
+   * Puts encoded segments together, in order.
+   */
+  private interface Sink {
+    void write(Segment segment) throws IOException;
+
+    void close() throws IOException;
+
+    void release();
+  }
+
+  /**
+   * Writes every segment as a link of a chained file.
+   */
+  private static final class ChainSink implements Sink {
+    private final OutputStream out;
+
+    ChainSink(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(Segment segment) throws IOException {
+      out.write(segment.ogg);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void release() {
+    }
+  }
+
+  /**
+   * Re-muxes the packets of all segments into one stream, leaving out the headers and priming packets of each, and
+   * rewraps them into packets of the configured duration. The silence flushing the lookahead of a segment is only
+   * kept for the last one; the next segment re-encodes those samples itself.
+   */
+  private static final class StreamSink implements Sink {
+    private final StreamConsumer consumer;
+    private final OpusWriter writer;
+    private final OpusRepacketizer repacketizer;
+    private final int frameSize;
+    private List<byte[]> flushPackets = new ArrayList<byte[]>();
+
+    StreamSink(OutputStream out, int sampleRate, int channels, int frameSize, int packetDurationMillis) {
+      this.consumer = new StreamConsumer(out);
+      if (packetDurationMillis > 0) {
+        this.writer = new OpusWriter(consumer, sampleRate, channels, sampleRate / 1000 * packetDurationMillis);
+        this.repacketizer = new OpusRepacketizer(writer, sampleRate, packetDurationMillis);
+      } else {
+        this.writer = new OpusWriter(consumer, sampleRate, channels, frameSize);
+        this.repacketizer = null;
+      }
+      this.frameSize = frameSize;
+    }
+
+    @Override
+    public void write(Segment segment) throws IOException {
+      if (writer.getState() == OpusWriter.State.NEW) {
+        writer.setPreSkip(segment.preSkip);
+        writer.writeHeader(COMMENT);
+      }
+      List<byte[]> packets = readPackets(segment.ogg);
+      int remaining = segment.samples;
+      int i = 2 + segment.droppedPackets;
+      for (; i < packets.size() && remaining > 0; i++) {
+        int frames = Math.min(frameSize, remaining);
+        writePacket(packets.get(i), frames);
+        remaining -= frames;
+      }
+      flushPackets = packets.subList(i, packets.size());
+      consumer.check();
+    }
+
+    private void writePacket(byte[] packet, int frames) throws IOException {
+      if (repacketizer != null) {
+        repacketizer.writePacket(packet, 0, packet.length, frames);
+      } else {
+        writer.writePacket(packet, 0, packet.length, frames);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (writer.getState() == OpusWriter.State.NEW) {
+        writer.writeHeader(COMMENT);
+      }
+      // the stream ends with the silence of the last segment, which counts for no samples in the granule position
+      for (byte[] packet : flushPackets) {
+        writePacket(packet, 0);
+      }
+      if (repacketizer != null) {
+        repacketizer.flush();
+      }
+      writer.close();
+      consumer.check();
+    }
+
+    @Override
+    public void release() {
+      if (repacketizer != null) {
+        repacketizer.release();
+      }
+    }
+  }
+
+  /**
+   * Keeps the Ogg stream of a segment in memory.
+   */
+  private static final class ByteCollector implements AudioConsumer {
+    final ByteArrayOutputStream bytes;
+
+    ByteCollector(int capacity) {
+      bytes = new ByteArrayOutputStream(Math.max(capacity, 256));
+    }
+
+    @Override public void consume(byte[] data, double amplitude, double volume) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+      consume(data, offset, length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length) {
+      bytes.write(data, offset, length);
+    }
+  }
+
+  /**
+   * Passes the pages of the single stream on to the output stream. Consumers cannot throw, so the first failure is
+   * kept and rethrown by {@link #check()}.
+   */
+  private static final class StreamConsumer implements AudioConsumer {
+    private final OutputStream out;
+    private IOException failure;
+
+    StreamConsumer(OutputStream out) {
+      this.out = out;
+    }
+
+    void check() throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    @Override public void consume(byte[] data, double amplitude, double volume) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+      consume(data, offset, length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length) {
+      if (failure != null) {
+        return;
+      }
+      try {
+        out.write(data, offset, length);
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+/**
+ * Settings of the Opus encoder, applied with {@code opus_encoder_ctl}. Start from the defaults or one of the
+ * profiles and override single fields as needed, for example:
+ *
+ * <pre>
+ * OpusEncoderConfiguration encoder = OpusEncoderConfiguration.lowestBandwidth();
+ * encoder.bitrate = 16000;
+ * </pre>
+ *
+ * <p>Everything except {@link #application}, {@link #frameDurationMillis} and {@link #packetDurationMillis} can also be
+ * changed while a stream is being encoded.
+ */
+public class OpusEncoderConfiguration {
+
+  /**
+   * Intended use of the encoder, which decides the coding modes it can choose from.
+   */
+  public enum Application {
+    /**
+     * Best for most VoIP and speech applications, where listening quality and intelligibility matter most.
+     */
+    VOIP(JNAOpus.OPUS_APPLICATION_VOIP),
+    /**
+     * Best for music and mixed content, where faithfulness to the input matters most.
+     */
+    AUDIO(JNAOpus.OPUS_APPLICATION_AUDIO),
+    /**
+     * Only the lowest-delay coding mode, which shortens the encoder lookahead at the cost of speech quality.
+     */
+    RESTRICTED_LOWDELAY(JNAOpus.OPUS_APPLICATION_RESTRICTED_LOWDELAY);
+
+    final int value;
+
+    Application(int value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Hint about the type of content, which biases the encoder's mode decisions.
+   */
+  public enum Signal {
+    /**
+     * Let the encoder detect the content type.
+     */
+    AUTO(JNAOpus.OPUS_AUTO),
+    /**
+     * Speech.
+     */
+    VOICE(JNAOpus.OPUS_SIGNAL_VOICE),
+    /**
+     * Music.
+     */
+    MUSIC(JNAOpus.OPUS_SIGNAL_MUSIC);
+
+    final int value;
+
+    Signal(int value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Audio bandwidth the encoder codes.
+   */
+  public enum Bandwidth {
+    /**
+     * Let the encoder choose from the bitrate.
+     */
+    AUTO(JNAOpus.OPUS_AUTO),
+    /**
+     * 4 kHz.
+     */
+    NARROWBAND(JNAOpus.OPUS_BANDWIDTH_NARROWBAND),
+    /**
+     * 6 kHz.
+     */
+    MEDIUMBAND(JNAOpus.OPUS_BANDWIDTH_MEDIUMBAND),
+    /**
+     * 8 kHz.
+     */
+    WIDEBAND(JNAOpus.OPUS_BANDWIDTH_WIDEBAND),
+    /**
+     * 12 kHz.
+     */
+    SUPERWIDEBAND(JNAOpus.OPUS_BANDWIDTH_SUPERWIDEBAND),
+    /**
+     * 20 kHz.
+     */
+    FULLBAND(JNAOpus.OPUS_BANDWIDTH_FULLBAND);
+
+    final int value;
+
+    Bandwidth(int value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Value of {@link #bitrate} that lets the encoder choose from the sample rate and channel count.
+   */
+  public static final int BITRATE_AUTO = JNAOpus.OPUS_AUTO;
+
+  /**
+   * Value of {@link #bitrate} that uses as many bits as the encoder can.
+   */
+  public static final int BITRATE_MAX = JNAOpus.OPUS_BITRATE_MAX;
+
+  /**
+   * Intended use of the encoder. Fixed once the encoder is created, as it decides the encoder's lookahead.
+   */
+  public Application application = Application.VOIP;
+
+  /**
+   * Duration of one Opus frame in milliseconds: 10, 20, 40 or 60. Longer frames mean fewer encoder calls, packets
+   * and container bytes per second of audio, which suits batch transcription, at the cost of that much more delay
+   * before audio leaves the device. Fixed once the encoder is created.
+   */
+  public int frameDurationMillis = 10;
+
+  /**
+   * Duration of the packets written to the stream in milliseconds, up to 120, or 0 for one packet per frame. Frames
+   * are merged into longer packets, or 40 and 60 ms CELT and hybrid packets split into their 20 ms frames, with the
+   * libopus repacketizer, which cuts per-packet overhead for batch uploads without changing
+   * {@link #frameDurationMillis}. A 40 or 60 ms SILK-only packet is a single frame and passes through unchanged.
+   * Merged packets leave the device only once they are complete. Fixed once the encoder is created.
+   */
+  public int packetDurationMillis = 0;
+
+  /**
+   * Target bitrate in bits per second for all channels together, from 500 to 512000, {@link #BITRATE_AUTO} or
+   * {@link #BITRATE_MAX}.
+   */
+  public int bitrate = BITRATE_AUTO;
+
+  /**
+   * Vary the bitrate with the content. Constant bitrate wastes bits on easy audio, but makes every packet the same
+   * size.
+   */
+  public boolean vbr = true;
+
+  /**
+   * Keep a variable bitrate close enough to {@link #bitrate} that the stream never needs more than that much
+   * bandwidth over a short window. Unconstrained VBR has the best quality per byte on average.
+   */
+  public boolean vbrConstraint = true;
+
+  /**
+   * Computational complexity, from 0 (least CPU) to 10 (best quality for the bitrate).
+   */
+  public int complexity = 9;
+
+  /**
+   * Type of content.
+   */
+  public Signal signal = Signal.AUTO;
+
+  /**
+   * Bandwidth to code, {@link Bandwidth#AUTO} to let the encoder choose up to {@link #maxBandwidth}.
+   */
+  public Bandwidth bandwidth = Bandwidth.AUTO;
+
+  /**
+   * Highest bandwidth the encoder may choose. Cannot be {@link Bandwidth#AUTO}.
+   */
+  public Bandwidth maxBandwidth = Bandwidth.FULLBAND;
+
+  /**
+   * Discontinuous transmission: during silence only a tiny packet is sent every 400 ms, which saves uplink bytes
+   * between utterances.
+   */
+  public boolean dtx = false;
+
+  /**
+   * Inband forward error correction, which spends bits on redundancy so a decoder can recover from lost packets.
+   * Only useful over lossy transports, and only takes effect with {@link #packetLossPercent} above 0.
+   */
+  public boolean inbandFec = false;
+
+  /**
+   * Expected packet loss in percent, from 0 to 100, for {@link #inbandFec}.
+   */
+  public int packetLossPercent = 0;
+
+  /**
+   * Bit depth of the input, from 8 to 24. Audio captured as 16-bit PCM has no more than 16 significant bits, and
+   * saying so lets the encoder spend fewer bits on noise below them.
+   */
+  public int lsbDepth = 16;
+
+  /**
+   * Soft-clip float input with {@code opus_pcm_soft_clip} before encoding it, so samples that processing pushed past
+   * full scale are brought back with a smooth curve instead of the harsh distortion of hard clipping. Has no effect on
+   * 16-bit input, which cannot exceed full scale.
+   */
+  public boolean softClip = true;
+
+  /**
+   * Instantiate default configuration: the VoIP application with the encoder choosing bitrate, bandwidth and mode.
+   */
+  public OpusEncoderConfiguration() {
+  }
+
+  /**
+   * Profile for the shortest delay: only the low-delay coding mode, which cuts the encoder lookahead from 6.5 ms to
+   * 2.5 ms.
+   *
+   * @return a new configuration
+   */
+  public static OpusEncoderConfiguration lowestLatency() {
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    configuration.application = Application.RESTRICTED_LOWDELAY;
+    return configuration;
+  }
+
+  /**
+   * Profile for the fewest uplink bytes: wideband speech at 12 kbit/s of unconstrained VBR in 60 ms frames, with
+   * discontinuous transmission during silence and the encoder working its hardest on every bit.
+   *
+   * @return a new configuration
+   */
+  public static OpusEncoderConfiguration lowestBandwidth() {
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    configuration.frameDurationMillis = 60;
+    configuration.bitrate = 12000;
+    configuration.vbrConstraint = false;
+    configuration.complexity = 10;
+    configuration.signal = Signal.VOICE;
+    configuration.maxBandwidth = Bandwidth.WIDEBAND;
+    configuration.dtx = true;
+    return configuration;
+  }
+
+  /**
+   * Profile for the least device CPU: the cheapest encoder search on wideband speech in 60 ms frames, with the
+   * content type given so it is not analyzed.
+   *
+   * @return a new configuration
+   */
+  public static OpusEncoderConfiguration lowestCpu() {
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    configuration.frameDurationMillis = 60;
+    configuration.complexity = 0;
+    configuration.signal = Signal.VOICE;
+    configuration.maxBandwidth = Bandwidth.WIDEBAND;
+    return configuration;
+  }
+
+  /**
+   * Profile for keeping recordings: the general audio application at 96 kbit/s of unconstrained VBR in 20 ms frames,
+   * full bandwidth and full complexity.
+   *
+   * @return a new configuration
+   */
+  public static OpusEncoderConfiguration archival() {
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    configuration.application = Application.AUDIO;
+    configuration.frameDurationMillis = 20;
+    configuration.bitrate = 96000;
+    configuration.vbrConstraint = false;
+    configuration.complexity = 10;
+    return configuration;
+  }
+
+  /**
+   * Copies the configuration, so later changes to either do not affect the other.
+   *
+   * @return the copy
+   */
+  public OpusEncoderConfiguration copy() {
+    OpusEncoderConfiguration copy = new OpusEncoderConfiguration();
+    copy.application = application;
+    copy.frameDurationMillis = frameDurationMillis;
+    copy.packetDurationMillis = packetDurationMillis;
+    copy.bitrate = bitrate;
+    copy.vbr = vbr;
+    copy.vbrConstraint = vbrConstraint;
+    copy.complexity = complexity;
+    copy.signal = signal;
+    copy.bandwidth = bandwidth;
+    copy.maxBandwidth = maxBandwidth;
+    copy.dtx = dtx;
+    copy.inbandFec = inbandFec;
+    copy.packetLossPercent = packetLossPercent;
+    copy.lsbDepth = lsbDepth;
+    copy.softClip = softClip;
+    return copy;
+  }
+
+  /**
+   * Checks that every setting is in the range libopus accepts.
+   *
+   * @throws IllegalArgumentException naming the first setting that is not
+   */
+  public void validate() {
+    if (application == null || signal == null || bandwidth == null) {
+      throw new IllegalArgumentException("application, signal and bandwidth must be set");
+    }
+    if (frameDurationMillis != 10 && frameDurationMillis != 20 && frameDurationMillis != 40
+            && frameDurationMillis != 60) {
+      throw new IllegalArgumentException("frameDurationMillis must be 10, 20, 40 or 60, got " + frameDurationMillis);
+    }
+    if (packetDurationMillis < 0 || packetDurationMillis > OpusRepacketizer.MAX_PACKET_MILLIS) {
+      throw new IllegalArgumentException("packetDurationMillis must be between 0 and "
+              + OpusRepacketizer.MAX_PACKET_MILLIS + ", got " + packetDurationMillis);
+    }
+    if (bitrate != BITRATE_AUTO && bitrate != BITRATE_MAX && (bitrate < 500 || bitrate > 512000)) {
+      throw new IllegalArgumentException("bitrate must be between 500 and 512000, got " + bitrate);
+    }
+    if (complexity < 0 || complexity > 10) {
+      throw new IllegalArgumentException("complexity must be between 0 and 10, got " + complexity);
+    }
+    if (maxBandwidth == null || maxBandwidth == Bandwidth.AUTO) {
+      throw new IllegalArgumentException("maxBandwidth must be a bandwidth, got " + maxBandwidth);
+    }
+    if (packetLossPercent < 0 || packetLossPercent > 100) {
+      throw new IllegalArgumentException("packetLossPercent must be between 0 and 100, got " + packetLossPercent);
+    }
+    if (lsbDepth < 8 || lsbDepth > 24) {
+      throw new IllegalArgumentException("lsbDepth must be between 8 and 24, got " + lsbDepth);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "OpusEncoderConfiguration{application=" + application + ", frameDurationMillis=" + frameDurationMillis
+            + ", packetDurationMillis=" + packetDurationMillis + ", bitrate=" + bitrate + ", vbr=" + vbr
+            + ", vbrConstraint=" + vbrConstraint + ", complexity=" + complexity + ", signal=" + signal
+            + ", bandwidth=" + bandwidth + ", maxBandwidth=" + maxBandwidth + ", dtx=" + dtx + ", inbandFec="
+            + inbandFec + ", packetLossPercent=" + packetLossPercent + ", lsbDepth=" + lsbDepth + ", softClip="
+            + softClip + "}";
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sits between an encoder and the {@link OpusWriter} of its stream and rewraps the encoded frames into packets of a
+ * given duration with the libopus repacketizer, without decoding or changing them.
+ *
+ * <p>Merging several short frames into one packet of up to 120 ms keeps the encoder's frame size, and with it its
+ * delay and quality, while the stream carries fewer packets: fewer lacing values and Ogg pages, and less handling per
+ * packet wherever the stream goes, which suits batch uploads. Splitting goes the other way: a packet of several
+ * frames, as 40 and 60 ms CELT frames are, becomes one packet per frame for sinks that want audio in small pieces.
+ *
+ * <p>Only frames of the same mode, bandwidth, frame size and channel count can share a packet, so when the encoder
+ * switches, for example between SILK and CELT, the frames collected so far go out as a shorter packet. Granule
+ * positions count the same samples as they would without the stage.
+ */
+public class OpusRepacketizer {
+
+  /**
+   * Longest packet Opus allows.
+   */
+  public static final int MAX_PACKET_MILLIS = 120;
+  /**
+   * Room for the frames of one packet, and for the packets they were taken from.
+   */
+  static final int BUFFER_BYTES = 32768;
+
+  private OpusWriter writer;
+  private final int sampleRate;
+  private final int packetSamples;
+  private final int maxSamples;
+  /**
+   * The packets added since the last init, which the native state points into
+   */
+  private final ByteBuffer input = ByteBuffer.allocateDirect(BUFFER_BYTES);
+  private final ByteBuffer output = ByteBuffer.allocateDirect(BUFFER_BYTES);
+  private final byte[] outputBytes = new byte[BUFFER_BYTES];
+  private Pointer state;
+  private Pointer inputPointer;
+  /**
+   * TOC byte of the frames held, without the frame count code
+   */
+  private int toc;
+  private int frameSamples;
+  private int frames;
+  /**
+   * Samples per channel the frames held count for in the granule position, less than they hold at the end of a stream
+   */
+  private int samples;
+
+  /**
+   * Instantiates a new repacketizer.
+   *
+   * @param writer               the writer the packets go to
+   * @param sampleRate           the sample rate of the stream
+   * @param packetDurationMillis the duration of the packets written, up to {@link #MAX_PACKET_MILLIS}; packets get as
+   *                             many whole frames as fit, and at least one
+   */
+  public OpusRepacketizer(OpusWriter writer, int sampleRate, int packetDurationMillis) {
+    if (packetDurationMillis <= 0 || packetDurationMillis > MAX_PACKET_MILLIS) {
+      throw new IllegalArgumentException("packetDurationMillis must be between 1 and " + MAX_PACKET_MILLIS + ", got "
+              + packetDurationMillis);
+    }
+    this.writer = writer;
+    this.sampleRate = sampleRate;
+    this.packetSamples = sampleRate / 1000 * packetDurationMillis;
+    this.maxSamples = sampleRate / 1000 * MAX_PACKET_MILLIS;
+  }
+
+  /**
+   * Adds a packet. Writes every packet of the target duration its frames complete, and keeps the rest for the next
+   * call or {@link #flush()}.
+   *
+   * @param data    the encoded packet
+   * @param offset  the offset of the packet
+   * @param length  the length of the packet
+   * @param samples the number of samples per channel the packet counts for in the granule position
+   * @throws IOException if the writer failed, or libopus could not rewrap the frames
+   */
+  public void writePacket(byte[] data, int offset, int length, int samples) throws IOException {
+    if (length <= 0) {
+      return;
+    }
+    int count = framesIn(data, offset, length);
+    int size = samplesPerFrame(data[offset], sampleRate);
+    int packetToc = data[offset] & 0xfc;
+    if (frames > 0 && (packetToc != toc || (frames + count) * size > maxSamples
+            || input.position() + length > input.capacity())) {
+      flush();
+    }
+    if (count <= 0 || length > input.capacity()) {
+      // not something the repacketizer can take apart, so it goes out as it is
+      flush();
+      writer.writePacket(data, offset, length, samples);
+      return;
+    }
+    if (frames == 0) {
+      init();
+      input.clear();
+    }
+    int start = input.position();
+    input.put(data, offset, length);
+    if (cat(input, start, length) != JNAOpus.OPUS_OK) {
+      input.position(start);
+      flush();
+      writer.writePacket(data, offset, length, samples);
+      return;
+    }
+    this.toc = packetToc;
+    this.frameSamples = size;
+    this.frames += count;
+    this.samples += samples;
+
+    int perPacket = Math.max(1, packetSamples / size);
+    int begin = 0;
+    while (frames - begin >= perPacket) {
+      write(begin, begin + perPacket, Math.min(perPacket * size, this.samples));
+      begin += perPacket;
+    }
+    if (begin > 0) {
+      keepFrom(begin);
+    }
+  }
+
+  /**
+   * Writes the frames held as one packet, shorter than the target duration, for example at the end of a stream.
+   *
+   * @throws IOException if the writer failed, or libopus could not rewrap the frames
+   */
+  public void flush() throws IOException {
+    if (frames > 0) {
+      write(0, frames, samples);
+      frames = 0;
+      samples = 0;
+    }
+  }
+
+  /**
+   * Drops the frames held and sends the following packets to another writer, for the next stream.
+   *
+   * @param writer the writer of the next stream
+   */
+  public void reset(OpusWriter writer) {
+    this.writer = writer;
+    frames = 0;
+    samples = 0;
+  }
+
+  /**
+   * Gets the number of frames held back because they do not fill a packet yet.
+   *
+   * @return the number of frames
+   */
+  public int getBufferedFrames() {
+    return frames;
+  }
+
+  /**
+   * Frees the native state. Calling it again has no effect.
+   */
+  public void release() {
+    if (state != null) {
+      destroy();
+      state = null;
+    }
+    frames = 0;
+    samples = 0;
+  }
+
+  private void write(int begin, int end, int granuleSamples) throws IOException {
+    output.clear();
+    int length = outRange(begin, end, output);
+    if (length < 0) {
+      throw new IOException("libopus could not repacketize frames " + begin + " to " + end + ": error " + length);
+    }
+    output.get(outputBytes, 0, length);
+    writer.writePacket(outputBytes, 0, length, granuleSamples);
+    samples -= granuleSamples;
+  }
+
+  /**
+   * Starts over with the frames from {@code begin} on, so the native state holds no more than one packet's worth and
+   * the input buffer does not fill up with frames already written.
+   */
+  private void keepFrom(int begin) throws IOException {
+    int left = frames - begin;
+    frames = 0;
+    if (left == 0) {
+      return;
+    }
+    output.clear();
+    int length = outRange(begin, begin + left, output);
+    if (length < 0) {
+      throw new IOException("libopus could not repacketize frames " + begin + " to " + (begin + left) + ": error "
+              + length);
+    }
+    init();
+    input.clear();
+    output.limit(length);
+    input.put(output);
+    if (cat(input, 0, length) != JNAOpus.OPUS_OK) {
+      throw new IOException("libopus rejected its own packet of " + left + " frames");
+    }
+    frames = left;
+  }
+
+  /**
+   * Clears the native state, creating it the first time.
+   */
+  protected void init() {
+    if (state == null) {
+      state = JNAOpusDirect.opus_repacketizer_create();
+    } else {
+      JNAOpusDirect.opus_repacketizer_init(state);
+    }
+  }
+
+  /**
+   * Adds a packet to the native state.
+   *
+   * @param input  a direct buffer holding the packet, which must not change until the next {@link #init()}
+   * @param offset the offset of the packet
+   * @param length the length of the packet
+   * @return OPUS_OK, or a negative libopus error code
+   */
+  protected int cat(ByteBuffer input, int offset, int length) {
+    if (inputPointer == null) {
+      inputPointer = Native.getDirectBufferPointer(input);
+    }
+    return JNAOpusDirect.opus_repacketizer_cat(state, inputPointer.share(offset), length);
+  }
+
+  /**
+   * Puts a range of the frames added since {@link #init()} into one packet.
+   *
+   * @param begin  the first frame
+   * @param end    the frame after the last one
+   * @param output a direct buffer receiving the packet
+   * @return the packet length, or a negative libopus error code
+   */
+  protected int outRange(int begin, int end, ByteBuffer output) {
+    return JNAOpusDirect.opus_repacketizer_out_range(state, begin, end, output, output.capacity());
+  }
+
+  /**
+   * Frees the native state.
+   */
+  protected void destroy() {
+    JNAOpusDirect.opus_repacketizer_destroy(state);
+  }
+
+  /**
+   * Gets the number of frames in a packet from its TOC byte and frame count, as {@code opus_packet_get_nb_frames}
+   * does.
+   *
+   * @param data   the packet
+   * @param offset the offset of the packet
+   * @param length the length of the packet
+   * @return the number of frames, or -1 if the packet is too short to tell
+   */
+  static int framesIn(byte[] data, int offset, int length) {
+    switch (data[offset] & 0x3) {
+      case 0:
+        return 1;
+      case 3:
+        return length < 2 ? -1 : data[offset + 1] & 0x3f;
+      default:
+        return 2;
+    }
+  }
+
+  /**
+   * Gets the duration of every frame in a packet from its TOC byte, as {@code opus_packet_get_samples_per_frame}
+   * does.
+   *
+   * @param toc        the first byte of the packet
+   * @param sampleRate the sample rate
+   * @return the samples per channel in one frame
+   */
+  static int samplesPerFrame(byte toc, int sampleRate) {
+    int configuration = (toc & 0xff) >> 3;
+    if (configuration >= 16) {
+      // CELT: 2.5, 5, 10 and 20 ms
+      return (sampleRate << (configuration & 0x3)) / 400;
+    }
+    if (configuration >= 12) {
+      // hybrid: 10 and 20 ms
+      return (configuration & 0x1) != 0 ? sampleRate / 50 : sampleRate / 100;
+    }
+    // SILK: 10, 20, 40 and 60 ms
+    int size = configuration & 0x3;
+    return size == 3 ? sampleRate * 60 / 1000 : (sampleRate << size) / 100;
+  }
+}
@@ -0,0 +1,419 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import android.util.Log;
+
+import com.sun.jna.Pointer;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded pool of native Opus encoder and decoder states, keyed by sample rate, channel count and, for encoders,
+ * application. Sessions lease a state instead of creating one, so once the pool is warm, starting a session does not
+ * touch the native allocator. A state taken from the pool is cleared with OPUS_RESET_STATE before it is handed out.
+ *
+ * <p>At most {@code maxIdlePerKey} returned states are kept for each key; any more are destroyed. A lease that is
+ * never returned is detected once the {@link State} becomes unreachable: the leak is logged, counted in
+ * {@link #getLeakedCount()}, and the native state is destroyed.
+ *
+ * <p>All methods are thread safe.
+ */
+public class OpusStatePool {
+  private static final String TAG = OpusStatePool.class.getName();
+
+  /**
+   * Default number of idle states kept for each format.
+   */
+  public static final int DEFAULT_MAX_IDLE_PER_KEY = 4;
+
+  private static OpusStatePool defaultPool;
+
+  private final int maxIdlePerKey;
+  private final Map<Key, ArrayDeque<Pointer>> idle = new HashMap<Key, ArrayDeque<Pointer>>();
+  private final Set<Lease> leases = new HashSet<Lease>();
+  private final ReferenceQueue<State> unreachable = new ReferenceQueue<State>();
+  private boolean recordLeaseSites;
+  private int idleCount;
+  private long created;
+  private long leaked;
+
+  /**
+   * A leased native state. Give it back with {@link #giveBack(State)} and do not use it afterwards.
+   */
+  public static final class State {
+    private final Pointer pointer;
+    private final Key key;
+    private Lease lease;
+
+    State(Pointer pointer, Key key) {
+      this.pointer = pointer;
+      this.key = key;
+    }
+
+    /**
+     * Gets the native encoder or decoder state.
+     *
+     * @return the pointer to pass to libopus
+     */
+    public Pointer getPointer() {
+      return pointer;
+    }
+
+    /**
+     * Gets the sample rate the state was created for.
+     *
+     * @return the sample rate in Hz
+     */
+    public int getSampleRate() {
+      return key.sampleRate;
+    }
+
+    /**
+     * Gets the channel count the state was created for.
+     *
+     * @return the channel count
+     */
+    public int getChannels() {
+      return key.channels;
+    }
+
+    /**
+     * Checks if this is a decoder state.
+     *
+     * @return true for a decoder, false for an encoder
+     */
+    public boolean isDecoder() {
+      return key.decoder;
+    }
+  }
+
+  /**
+   * What a state was created for.
+   */
+  private static final class Key {
+    final int sampleRate;
+    final int channels;
+    final int application;
+    final boolean decoder;
+
+    Key(int sampleRate, int channels, int application, boolean decoder) {
+      this.sampleRate = sampleRate;
+      this.channels = channels;
+      this.application = application;
+      this.decoder = decoder;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return sampleRate == other.sampleRate && channels == other.channels && application == other.application
+              && decoder == other.decoder;
+    }
+
+    @Override
+    public int hashCode() {
+      return ((sampleRate * 31 + channels) * 31 + application) * 2 + (decoder ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+      return (decoder ? "decoder " : "encoder ") + sampleRate + " Hz, " + channels + " channels"
+              + (decoder ? "" : ", application " + application);
+    }
+  }
+
+  /**
+   * Outstanding lease. Holds the native state, but only weakly the {@link State} handed out, so it notices when that
+   * is dropped without being given back.
+   */
+  private static final class Lease extends WeakReference<State> {
+    final Pointer pointer;
+    final Key key;
+    final Throwable leasedAt;
+
+    Lease(State state, ReferenceQueue<State> queue, Throwable leasedAt) {
+      super(state, queue);
+      this.pointer = state.pointer;
+      this.key = state.key;
+      this.leasedAt = leasedAt;
+    }
+  }
+
+  /**
+   * Instantiates a new pool.
+   *
+   * @param maxIdlePerKey how many returned states are kept for each format
+   */
+  public OpusStatePool(int maxIdlePerKey) {
+    this.maxIdlePerKey = maxIdlePerKey;
+  }
+
+  /**
+   * Gets the pool encoders use unless they are given another one.
+   *
+   * @return the shared pool
+   */
+  public static synchronized OpusStatePool getDefault() {
+    if (defaultPool == null) {
+      defaultPool = new OpusStatePool(DEFAULT_MAX_IDLE_PER_KEY);
+    }
+    return defaultPool;
+  }
+
+  /**
+   * Records where every state is leased, so a leak report can name the code that leaked it. Costs a stack trace per
+   * lease, so only turn it on while looking for a leak.
+   *
+   * @param recordLeaseSites whether to record lease sites
+   */
+  public synchronized void setRecordLeaseSites(boolean recordLeaseSites) {
+    this.recordLeaseSites = recordLeaseSites;
+  }
+
+  /**
+   * Leases an encoder state, reset if it comes from the pool.
+   *
+   * @param sampleRate  the sample rate
+   * @param channels    the channel count
+   * @param application the OPUS_APPLICATION_* constant
+   * @return the state
+   * @throws IOException if a new state was needed and libopus could not create it
+   */
+  public State leaseEncoder(int sampleRate, int channels, int application) throws IOException {
+    return lease(new Key(sampleRate, channels, application, false));
+  }
+
+  /**
+   * Leases a decoder state, reset if it comes from the pool.
+   *
+   * @param sampleRate the sample rate
+   * @param channels   the channel count
+   * @return the state
+   * @throws IOException if a new state was needed and libopus could not create it
+   */
+  public State leaseDecoder(int sampleRate, int channels) throws IOException {
+    return lease(new Key(sampleRate, channels, 0, true));
+  }
+
+  private State lease(Key key) throws IOException {
+    Pointer pointer;
+    synchronized (this) {
+      reclaimLeaks();
+      ArrayDeque<Pointer> states = idle.get(key);
+      pointer = states != null ? states.pollFirst() : null;
+      if (pointer != null) {
+        idleCount--;
+      }
+    }
+    boolean fresh = pointer == null;
+    if (fresh) {
+      pointer = key.decoder ? createDecoderState(key.sampleRate, key.channels)
+              : createEncoderState(key.sampleRate, key.channels, key.application);
+    } else {
+      resetState(pointer, key.decoder);
+    }
+
+    State state = new State(pointer, key);
+    synchronized (this) {
+      if (fresh) {
+        created++;
+      }
+      state.lease = new Lease(state, unreachable, recordLeaseSites ? new Throwable("Leased here") : null);
+      leases.add(state.lease);
+    }
+    return state;
+  }
+
+  /**
+   * Gives a leased state back. It is kept for the next lease of the same format if there is room, and destroyed
+   * otherwise.
+   *
+   * @param state the state
+   * @throws IllegalStateException if the state was already given back
+   */
+  public void giveBack(State state) {
+    boolean keep;
+    synchronized (this) {
+      reclaimLeaks();
+      if (state.lease == null || !leases.remove(state.lease)) {
+        throw new IllegalStateException("Opus " + state.key + " state was already given back");
+      }
+      state.lease.clear();
+      state.lease = null;
+      ArrayDeque<Pointer> states = idle.get(state.key);
+      if (states == null) {
+        states = new ArrayDeque<Pointer>();
+        idle.put(state.key, states);
+      }
+      keep = states.size() < maxIdlePerKey;
+      if (keep) {
+        states.addFirst(state.pointer);
+        idleCount++;
+      }
+    }
+    if (!keep) {
+      destroyState(state.pointer, state.key.decoder);
+    }
+  }
+
+  /**
+   * Destroys all idle states. Leased states are not affected.
+   */
+  public void clear() {
+    Map<Key, ArrayDeque<Pointer>> destroyed;
+    synchronized (this) {
+      reclaimLeaks();
+      destroyed = new HashMap<Key, ArrayDeque<Pointer>>(idle);
+      idle.clear();
+      idleCount = 0;
+    }
+    for (Map.Entry<Key, ArrayDeque<Pointer>> entry : destroyed.entrySet()) {
+      for (Pointer pointer : entry.getValue()) {
+        destroyState(pointer, entry.getKey().decoder);
+      }
+    }
+  }
+
+  /**
+   * Gets the number of states waiting in the pool.
+   *
+   * @return the idle state count
+   */
+  public synchronized int getIdleCount() {
+    return idleCount;
+  }
+
+  /**
+   * Gets the number of states currently leased.
+   *
+   * @return the leased state count
+   */
+  public synchronized int getLeasedCount() {
+    reclaimLeaks();
+    return leases.size();
+  }
+
+  /**
+   * Gets the number of native states the pool had to create.
+   *
+   * @return the created state count
+   */
+  public synchronized long getCreatedCount() {
+    return created;
+  }
+
+  /**
+   * Gets the number of leased states that became unreachable without having been given back.
+   *
+   * @return the leaked state count
+   */
+  public synchronized long getLeakedCount() {
+    reclaimLeaks();
+    return leaked;
+  }
+
+  /**
+   * Destroys the native states of leases whose {@link State} was dropped without being given back.
+   */
+  private void reclaimLeaks() {
+    Reference<? extends State> reference;
+    while ((reference = unreachable.poll()) != null) {
+      Lease lease = (Lease) reference;
+      if (leases.remove(lease)) {
+        leaked++;
+        Log.w(TAG, "Opus " + lease.key + " state was never given back"
+                + (lease.leasedAt == null ? "; call setRecordLeaseSites(true) to see where it was leased" : ""),
+                lease.leasedAt);
+        destroyState(lease.pointer, lease.key.decoder);
+      }
+    }
+  }
+
+  /**
+   * Creates a native encoder state.
+   *
+   * @param sampleRate  the sample rate
+   * @param channels    the channel count
+   * @param application the OPUS_APPLICATION_* constant
+   * @return the state
+   * @throws IOException if libopus rejected the format
+   */
+  protected Pointer createEncoderState(int sampleRate, int channels, int application) throws IOException {
+    int[] error = new int[1];
+    Pointer encoder = JNAOpusDirect.opus_encoder_create(sampleRate, channels, application, error);
+    if (error[0] != JNAOpus.OPUS_OK) {
+      throw new IOException("Could not create Opus encoder for " + sampleRate + " Hz, " + channels
+              + " channels: error " + error[0]);
+    }
+    return encoder;
+  }
+
+  /**
+   * Creates a native decoder state.
+   *
+   * @param sampleRate the sample rate
+   * @param channels   the channel count
+   * @return the state
+   * @throws IOException if libopus rejected the format
+   */
+  protected Pointer createDecoderState(int sampleRate, int channels) throws IOException {
+    int[] error = new int[1];
+    Pointer decoder = JNAOpusDirect.opus_decoder_create(sampleRate, channels, error);
+    if (error[0] != JNAOpus.OPUS_OK) {
+      throw new IOException("Could not create Opus decoder for " + sampleRate + " Hz, " + channels
+              + " channels: error " + error[0]);
+    }
+    return decoder;
+  }
+
+  /**
+   * Clears a native state, as if it had just been created.
+   *
+   * @param state   the state
+   * @param decoder whether it is a decoder state
+   */
+  protected void resetState(Pointer state, boolean decoder) {
+    if (decoder) {
+      JNAOpusDirect.opus_decoder_ctl(state, JNAOpus.OPUS_RESET_STATE);
+    } else {
+      JNAOpusDirect.opus_encoder_ctl(state, JNAOpus.OPUS_RESET_STATE);
+    }
+  }
+
+  /**
+   * Frees a native state.
+   *
+   * @param state   the state
+   * @param decoder whether it is a decoder state
+   */
+  protected void destroyState(Pointer state, boolean decoder) {
+    if (decoder) {
+      JNAOpusDirect.opus_decoder_destroy(state);
+    } else {
+      JNAOpusDirect.opus_encoder_destroy(state);
+    }
+  }
+}
@@ -16,6 +16,7 @@ package com.ibm.watson.developer_cloud.android.library.audio.opus;
 
 import com.ibm.watson.developer_cloud.android.library.audio.AudioConsumer;
 import com.ibm.watson.developer_cloud.android.library.audio.AudioFileWriter;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
 import com.ibm.watson.developer_cloud.android.library.audio.utils.SpeechConfiguration;
 
 import java.io.File;
@@ -24,12 +25,44 @@ import java.util.Random;
 
 /**
  * The Class OpusWriter.
+ *
+ * <p>Writes a single Ogg Opus stream: {@link #writeHeader(String)} once, then any number of packets, then
+ * {@link #close()} for the last page. Calls out of this order throw {@link IllegalStateException}, as they would
+ * produce a stream decoders reject.
  */
 public class OpusWriter extends AudioFileWriter {
+
   /**
-   * Number of packets in an Ogg page (must be less than 255).
+   * Where a writer is in its stream.
+   */
+  public enum State {
+    /**
+     * Nothing has been written; the headers come next.
+     */
+    NEW,
+    /**
+     * The headers have been written; audio packets follow.
+     */
+    STREAMING,
+    /**
+     * The last page has been written.
+     */
+    FINISHED
+  }
+
+  /**
+   * Number of 10 ms packets in an Ogg page. Pages of longer packets hold proportionally fewer of them, so a page
+   * always carries about half a second of audio and streaming latency does not grow with the frame duration.
    */
   public static final int PACKETS_PER_OGG_PAGE = 50;
+  /**
+   * Most lacing values, and so segments, an Ogg page can hold.
+   */
+  private static final int MAX_SEGMENTS = 255;
+  /**
+   * Rate at which granule positions are counted, independent of the input sample rate.
+   */
+  public static final int OPUS_GRANULE_RATE = 48000;
   /**
    * The audio consumer.
    */
@@ -38,6 +71,10 @@ public class OpusWriter extends AudioFileWriter {
    * Defines the sampling rate of the audio input.
    */
   protected int sampleRate;
+  /**
+   * Defines the channel count of the audio input.
+   */
+  protected int channels;
 
   /**
    * Ogg Stream Serial Number.
@@ -60,6 +97,10 @@ public class OpusWriter extends AudioFileWriter {
    * Header buffer.
    */
   private byte[] headerBuffer;
+  /**
+   * Reusable Ogg page header, so flushing a page does not allocate.
+   */
+  private byte[] pageHeader;
   /**
    * Pointer within the Header buffer
    */
@@ -70,13 +111,25 @@ public class OpusWriter extends AudioFileWriter {
   private int packetCount;
   /**
    * Absolute granule position
-   * (the number of audio samples from beginning of file to end of Ogg Packet).
+   * (the number of 48 kHz audio samples from beginning of file to end of Ogg Packet, whatever the input rate).
    */
   private long granulepos;
   /**
-   * Frame size
+   * Frame size, in samples per channel at the input rate
    */
   private int frameSize;
+  /**
+   * Packets after which a page is written out
+   */
+  private int packetsPerPage;
+  /**
+   * Samples at 48 kHz decoders discard at the start of the stream
+   */
+  private int preSkip;
+  /**
+   * Where the stream is
+   */
+  private State state = State.NEW;
 
   /**
    * Setting up the OggOpus Writer.
@@ -90,19 +143,45 @@ public class OpusWriter extends AudioFileWriter {
    * @param ac the ac
    */
   public OpusWriter(AudioConsumer ac) {
+    this(ac, SpeechConfiguration.SAMPLE_RATE, SpeechConfiguration.AUDIO_CHANNELS);
+  }
+
+  /**
+   * Instantiates a new opus writer for audio in the given format.
+   *
+   * @param ac         the ac
+   * @param sampleRate the input sample rate
+   * @param channels   the channel count
+   */
+  public OpusWriter(AudioConsumer ac, int sampleRate, int channels) {
+    this(ac, sampleRate, channels, CaptureConfiguration.frameSize(sampleRate));
+  }
+
+  /**
+   * Instantiates a new opus writer for audio in the given format, encoded in frames of the given size.
+   *
+   * @param ac         the ac
+   * @param sampleRate the input sample rate
+   * @param channels   the channel count
+   * @param frameSize  the samples per channel in one packet
+   */
+  public OpusWriter(AudioConsumer ac, int sampleRate, int channels, int frameSize) {
     this.audioConsumer = ac;
 
     if (streamSerialNumber == 0)
       streamSerialNumber = new Random().nextInt();
     dataBuffer = new byte[65565];
     dataBufferPtr = 0;
-    headerBuffer = new byte[255];
+    headerBuffer = new byte[MAX_SEGMENTS];
+    pageHeader = new byte[27 + MAX_SEGMENTS];
     headerBufferPtr = 0;
     pageCount = 0;
     packetCount = 0;
     granulepos = 0;
-    this.sampleRate = SpeechConfiguration.SAMPLE_RATE;
-    this.frameSize = SpeechConfiguration.FRAME_SIZE;
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+    this.frameSize = frameSize;
+    this.packetsPerPage = Math.max(1, PACKETS_PER_OGG_PAGE * CaptureConfiguration.frameSize(sampleRate) / frameSize);
   }
 
   /**
@@ -112,7 +191,49 @@ public class OpusWriter extends AudioFileWriter {
    */
   @Override
   public void close() throws IOException {
+    checkState(State.STREAMING, "close");
     flush(true);
+    state = State.FINISHED;
+  }
+
+  /**
+   * Ends the current page early, so the packets written so far go to the consumer without waiting for the page to
+   * fill. Does nothing if no packet is waiting.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void flushPage() throws IOException {
+    checkState(State.STREAMING, "flushPage");
+    if (packetCount > 0) {
+      flush(false);
+    }
+  }
+
+  /**
+   * Gets where the writer is in its stream.
+   *
+   * @return the state
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Sets the number of samples decoders discard at the start of the stream, usually the encoder's lookahead. Granule
+   * positions of audio pages start from it, as the Ogg Opus mapping requires.
+   *
+   * @param preSkip the pre-skip in 48 kHz samples
+   */
+  public void setPreSkip(int preSkip) {
+    checkState(State.NEW, "setPreSkip");
+    this.preSkip = preSkip;
+    this.granulepos = preSkip;
+  }
+
+  private void checkState(State expected, String call) {
+    if (state != expected) {
+      throw new IllegalStateException(call + " called on a " + state + " Ogg Opus stream, expected " + expected);
+    }
   }
 
   /**
@@ -142,13 +263,14 @@ public class OpusWriter extends AudioFileWriter {
    */
   @Override
   public void writeHeader(String comment) {
+    checkState(State.NEW, "writeHeader");
     byte[] header;
     byte[] data;
     int chkSum;
 
         /* writes the OGG header page */
     header = buildOggPageHeader(2, 0, streamSerialNumber, pageCount++, 1, new byte[]{19});
-    data = buildOpusHeader(sampleRate);
+    data = buildOpusHeader(sampleRate, channels, preSkip);
     chkSum = OggCrc.checksum(0, header, 0, header.length);
     chkSum = OggCrc.checksum(chkSum, data, 0, data.length);
     writeInt(header, 22, chkSum);
@@ -156,13 +278,14 @@ public class OpusWriter extends AudioFileWriter {
     this.write(data);
 
         /* Writes the OGG comment page */
-    header = buildOggPageHeader(0, 0, streamSerialNumber, pageCount++, 1, new byte[]{(byte) (comment.length() + 8)});
     data = buildOpusComment(comment);
+    header = buildOggPageHeader(0, 0, streamSerialNumber, pageCount++, 1, new byte[]{(byte) data.length});
     chkSum = OggCrc.checksum(0, header, 0, header.length);
     chkSum = OggCrc.checksum(chkSum, data, 0, data.length);
     writeInt(header, 22, chkSum);
     this.write(header);
     this.write(data);
+    state = State.STREAMING;
   }
 
   /**
@@ -176,18 +299,40 @@ public class OpusWriter extends AudioFileWriter {
   @Override
   public void writePacket(byte[] data, int offset, int len)
           throws IOException {
+    writePacket(data, offset, len, this.frameSize);
+  }
+
+  /**
+   * Write a data packet that counts for fewer samples than a whole frame in the granule position, as the padded last
+   * packet of a stream does.
+   *
+   * @param data   audio data
+   * @param offset the offset from which to start reading the data.
+   * @param len    the length of data to read.
+   * @param frames the number of samples per channel, at the input rate, the packet holds
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public void writePacket(byte[] data, int offset, int len, int frames)
+          throws IOException {
+    checkState(State.STREAMING, "writePacket");
     // if nothing to write
     if (len <= 0) {
       return;
     }
-    if (packetCount > PACKETS_PER_OGG_PAGE) {
+    // a packet takes one lacing value per 255 bytes, plus one below 255 (possibly 0) to end it
+    int segments = len / 255 + 1;
+    if (packetCount >= packetsPerPage || headerBufferPtr + segments > MAX_SEGMENTS) {
       flush(false);
     }
     System.arraycopy(data, offset, dataBuffer, dataBufferPtr, len);
     dataBufferPtr += len;
-    headerBuffer[headerBufferPtr++] = (byte) len;
+    for (int i = 0; i < segments - 1; i++) {
+      headerBuffer[headerBufferPtr++] = (byte) 255;
+    }
+    headerBuffer[headerBufferPtr++] = (byte) (len % 255);
     packetCount++;
-    granulepos += this.frameSize * 2;
+    // Ogg Opus granule positions always count at 48 kHz
+    granulepos += (long) frames * OPUS_GRANULE_RATE / this.sampleRate;
   }
 
   /**
@@ -198,14 +343,14 @@ public class OpusWriter extends AudioFileWriter {
    */
   protected void flush(final boolean eos) throws IOException {
     int chksum;
-    byte[] header;
-        /* Writes the OGG header page */
-    header = buildOggPageHeader((eos ? 4 : 0), granulepos, streamSerialNumber, pageCount++, packetCount, headerBuffer);
-    chksum = OggCrc.checksum(0, header, 0, header.length);
+        /* Writes the OGG header page into the reusable page header, one segment per lacing value */
+    int headerLength = writeOggPageHeader(pageHeader, 0, (eos ? 4 : 0), granulepos, streamSerialNumber, pageCount++,
+            headerBufferPtr, headerBuffer);
+    chksum = OggCrc.checksum(0, pageHeader, 0, headerLength);
     chksum = OggCrc.checksum(chksum, dataBuffer, 0, dataBufferPtr);
-    writeInt(header, 22, chksum);
+    writeInt(pageHeader, 22, chksum);
 
-    this.write(header);
+    this.write(pageHeader, 0, headerLength);
     this.write(dataBuffer, 0, dataBufferPtr);
 
     dataBufferPtr = 0;
@@ -219,7 +364,7 @@ public class OpusWriter extends AudioFileWriter {
    * @param data the data
    */
   public void write(byte[] data) {
-    this.audioConsumer.consume(data);
+    this.audioConsumer.consume(data, 0, data.length);
   }
 
   /**
@@ -230,10 +375,6 @@ public class OpusWriter extends AudioFileWriter {
    * @param count  the count
    */
   public void write(byte[] data, int offset, int count) {
-    byte[] tmp = new byte[count];
-    System.arraycopy(data, offset, tmp, 0, count);
-
-    this.audioConsumer.consume(tmp);
-
+    this.audioConsumer.consume(data, offset, count);
   }
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.speex;
+
+import com.sun.jna.Library;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.FloatByReference;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * JNA binding to the parts of libspeexdsp the library uses. Unlike JNAOpus there is no eager INSTANCE; get it from
+ * {@link SpeexDsp#getInstance()}, which returns null where the native library is missing so callers can fall back to
+ * Java implementations.
+ */
+public interface JNASpeexDsp extends Library {
+
+  /**
+   * The Constant JNA_LIBRARY_NAME.
+   */
+  String JNA_LIBRARY_NAME = "speexdsp";
+
+  /**
+   * The Constant RESAMPLER_ERR_SUCCESS.
+   */
+  int RESAMPLER_ERR_SUCCESS = 0;
+
+  /**
+   * The Constant SPEEX_RESAMPLER_QUALITY_MAX.
+   */
+  int SPEEX_RESAMPLER_QUALITY_MAX = 10;
+
+  /**
+   * The Constant SPEEX_RESAMPLER_QUALITY_MIN.
+   */
+  int SPEEX_RESAMPLER_QUALITY_MIN = 0;
+
+  /**
+   * The Constant SPEEX_RESAMPLER_QUALITY_DEFAULT.
+   */
+  int SPEEX_RESAMPLER_QUALITY_DEFAULT = 4;
+
+  /**
+   * The Constant SPEEX_RESAMPLER_QUALITY_VOIP.
+   */
+  int SPEEX_RESAMPLER_QUALITY_VOIP = 3;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_SET_DENOISE.
+   */
+  int SPEEX_PREPROCESS_SET_DENOISE = 0;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_SET_AGC.
+   */
+  int SPEEX_PREPROCESS_SET_AGC = 2;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_SET_VAD.
+   */
+  int SPEEX_PREPROCESS_SET_VAD = 4;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_SET_AGC_LEVEL.
+   */
+  int SPEEX_PREPROCESS_SET_AGC_LEVEL = 6;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_SET_NOISE_SUPPRESS.
+   */
+  int SPEEX_PREPROCESS_SET_NOISE_SUPPRESS = 18;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_SET_AGC_MAX_GAIN.
+   */
+  int SPEEX_PREPROCESS_SET_AGC_MAX_GAIN = 30;
+
+  /**
+   * The Constant SPEEX_PREPROCESS_GET_PROB.
+   */
+  int SPEEX_PREPROCESS_GET_PROB = 45;
+
+  /**
+   * Speex resampler init.
+   *
+   * @param nb_channels the number of channels
+   * @param in_rate     the input rate
+   * @param out_rate    the output rate
+   * @param quality     the quality, 0 to 10
+   * @param err         receives the error code
+   * @return the resampler state
+   */
+  Pointer speex_resampler_init(int nb_channels, int in_rate, int out_rate, int quality, IntByReference err);
+
+  /**
+   * Speex resampler destroy.
+   *
+   * @param st the resampler state
+   */
+  void speex_resampler_destroy(Pointer st);
+
+  /**
+   * Speex resampler process interleaved int.
+   *
+   * @param st      the resampler state
+   * @param in      the interleaved input
+   * @param in_len  the input frames per channel; receives the frames consumed
+   * @param out     the interleaved output
+   * @param out_len the output capacity in frames per channel; receives the frames written
+   * @return the error code
+   */
+  int speex_resampler_process_interleaved_int(Pointer st, short[] in, IntByReference in_len, short[] out,
+                                              IntByReference out_len);
+
+  /**
+   * Speex resampler get input latency.
+   *
+   * @param st the resampler state
+   * @return the latency in input frames
+   */
+  int speex_resampler_get_input_latency(Pointer st);
+
+  /**
+   * Speex resampler skip zeros.
+   *
+   * @param st the resampler state
+   * @return the error code
+   */
+  int speex_resampler_skip_zeros(Pointer st);
+
+  /**
+   * Speex resampler reset mem.
+   *
+   * @param st the resampler state
+   * @return the error code
+   */
+  int speex_resampler_reset_mem(Pointer st);
+
+  /**
+   * Speex preprocess state init.
+   *
+   * @param frame_size    the number of samples processed per call
+   * @param sampling_rate the sample rate
+   * @return the preprocessor state
+   */
+  Pointer speex_preprocess_state_init(int frame_size, int sampling_rate);
+
+  /**
+   * Speex preprocess state destroy.
+   *
+   * @param st the preprocessor state
+   */
+  void speex_preprocess_state_destroy(Pointer st);
+
+  /**
+   * Speex preprocess run, in place.
+   *
+   * @param st the preprocessor state
+   * @param x  one frame of mono audio
+   * @return 1 if the frame contains speech, 0 otherwise; always 1 unless VAD is enabled
+   */
+  int speex_preprocess_run(Pointer st, short[] x);
+
+  /**
+   * Speex preprocess ctl with an integer argument.
+   *
+   * @param st      the preprocessor state
+   * @param request the request
+   * @param ptr     the argument or result
+   * @return 0 on success, -1 for an unknown request
+   */
+  int speex_preprocess_ctl(Pointer st, int request, IntByReference ptr);
+
+  /**
+   * Speex preprocess ctl with a float argument.
+   *
+   * @param st      the preprocessor state
+   * @param request the request
+   * @param ptr     the argument or result
+   * @return 0 on success, -1 for an unknown request
+   */
+  int speex_preprocess_ctl(Pointer st, int request, FloatByReference ptr);
+}
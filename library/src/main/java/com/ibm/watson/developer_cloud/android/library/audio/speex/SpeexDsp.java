@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.speex;
+
+import com.sun.jna.Native;
+
+/**
+ * Loads libspeexdsp once, on first use.
+ */
+public final class SpeexDsp {
+  private static JNASpeexDsp instance;
+  private static boolean loaded;
+
+  private SpeexDsp() {
+  }
+
+  /**
+   * Gets the native library.
+   *
+   * @return the binding, or null if libspeexdsp could not be loaded on this platform
+   */
+  public static synchronized JNASpeexDsp getInstance() {
+    if (!loaded) {
+      loaded = true;
+      try {
+        instance = (JNASpeexDsp) Native.loadLibrary(JNASpeexDsp.JNA_LIBRARY_NAME, JNASpeexDsp.class);
+      } catch (UnsatisfiedLinkError e) {
+        instance = null;
+      }
+    }
+    return instance;
+  }
+
+  /**
+   * Checks if the native library is available.
+   *
+   * @return true if libspeexdsp could be loaded
+   */
+  public static boolean isAvailable() {
+    return getInstance() != null;
+  }
+}
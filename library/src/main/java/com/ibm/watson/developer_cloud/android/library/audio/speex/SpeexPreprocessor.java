@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.speex;
+
+import com.ibm.watson.developer_cloud.android.library.audio.PcmProcessor;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.FloatByReference;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * {@link PcmProcessor} running the libspeexdsp preprocessor: noise suppression, automatic gain control and a speech
+ * probability per frame. Cleaner input both improves recognition and keeps Opus from spending bits on background
+ * noise.
+ *
+ * <p>The preprocessor works on mono frames, so every channel gets its own state. Samples are processed frame by
+ * frame in reusable buffers; a trailing partial frame is passed through unchanged.
+ */
+public final class SpeexPreprocessor implements PcmProcessor {
+  private final JNASpeexDsp speex;
+  private final int frameSize;
+  private final int channels;
+  private final Pointer[] states;
+  private final short[] frame;
+  private final IntByReference intArgument = new IntByReference();
+  private final FloatByReference floatArgument = new FloatByReference();
+  private volatile int speechProbability = -1;
+
+  /**
+   * Instantiates a new preprocessor with every feature disabled.
+   *
+   * @param frameSize  the samples per channel in one frame
+   * @param sampleRate the sample rate
+   * @param channels   the number of interleaved channels
+   * @throws IllegalStateException if libspeexdsp is not available
+   */
+  public SpeexPreprocessor(int frameSize, int sampleRate, int channels) {
+    this.speex = SpeexDsp.getInstance();
+    if (speex == null) {
+      throw new IllegalStateException("libspeexdsp is not available");
+    }
+    this.frameSize = frameSize;
+    this.channels = channels;
+    this.frame = new short[frameSize];
+    this.states = new Pointer[channels];
+    for (int c = 0; c < channels; c++) {
+      states[c] = speex.speex_preprocess_state_init(frameSize, sampleRate);
+    }
+    setDenoise(false, 0);
+  }
+
+  /**
+   * Enables or disables noise suppression.
+   *
+   * @param enabled       true to suppress noise
+   * @param suppressionDb maximum attenuation of noise in dB, negative, e.g. -15
+   */
+  public void setDenoise(boolean enabled, int suppressionDb) {
+    ctl(JNASpeexDsp.SPEEX_PREPROCESS_SET_DENOISE, enabled ? 1 : 0);
+    if (enabled) {
+      ctl(JNASpeexDsp.SPEEX_PREPROCESS_SET_NOISE_SUPPRESS, suppressionDb);
+    }
+  }
+
+  /**
+   * Enables or disables automatic gain control.
+   *
+   * @param enabled   true to normalize the level
+   * @param level     the target level as a 16-bit amplitude, e.g. 8000
+   * @param maxGainDb the most the input may be amplified, in dB
+   */
+  public void setAutomaticGainControl(boolean enabled, float level, int maxGainDb) {
+    ctl(JNASpeexDsp.SPEEX_PREPROCESS_SET_AGC, enabled ? 1 : 0);
+    if (enabled) {
+      for (Pointer state : states) {
+        floatArgument.setValue(level);
+        speex.speex_preprocess_ctl(state, JNASpeexDsp.SPEEX_PREPROCESS_SET_AGC_LEVEL, floatArgument);
+      }
+      ctl(JNASpeexDsp.SPEEX_PREPROCESS_SET_AGC_MAX_GAIN, maxGainDb);
+    }
+  }
+
+  @Override
+  public void process(short[] samples, int offset, int length) {
+    int frameSamples = frameSize * channels;
+    for (int start = offset; start + frameSamples <= offset + length; start += frameSamples) {
+      for (int c = 0; c < channels; c++) {
+        for (int i = 0, j = start + c; i < frameSize; i++, j += channels) {
+          frame[i] = samples[j];
+        }
+        speex.speex_preprocess_run(states[c], frame);
+        for (int i = 0, j = start + c; i < frameSize; i++, j += channels) {
+          samples[j] = frame[i];
+        }
+      }
+      speex.speex_preprocess_ctl(states[0], JNASpeexDsp.SPEEX_PREPROCESS_GET_PROB, intArgument);
+      speechProbability = intArgument.getValue();
+    }
+  }
+
+  /**
+   * Gets the speech probability the preprocessor estimated for the last frame of the first channel.
+   *
+   * @return the probability in percent, -1 before the first frame
+   */
+  public int getSpeechProbability() {
+    return speechProbability;
+  }
+
+  @Override
+  public void release() {
+    for (int c = 0; c < channels; c++) {
+      if (states[c] != null) {
+        speex.speex_preprocess_state_destroy(states[c]);
+        states[c] = null;
+      }
+    }
+  }
+
+  private void ctl(int request, int value) {
+    for (Pointer state : states) {
+      intArgument.setValue(value);
+      speex.speex_preprocess_ctl(state, request, intArgument);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.speex;
+
+import com.ibm.watson.developer_cloud.android.library.audio.Resampler;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+
+/**
+ * {@link Resampler} backed by the libspeexdsp resampler bundled with the library.
+ */
+public final class SpeexResampler implements Resampler {
+  private final JNASpeexDsp speex;
+  private final int inputRate;
+  private final int outputRate;
+  private final int channels;
+  private final IntByReference inputFrames = new IntByReference();
+  private final IntByReference outputFrames = new IntByReference();
+  private Pointer state;
+  private short[] input = new short[0];
+  private short[] output = new short[0];
+
+  /**
+   * Instantiates a new resampler.
+   *
+   * @param channels   the number of interleaved channels
+   * @param inputRate  the input sample rate
+   * @param outputRate the output sample rate
+   * @param quality    the quality from {@link JNASpeexDsp#SPEEX_RESAMPLER_QUALITY_MIN} to
+   *                   {@link JNASpeexDsp#SPEEX_RESAMPLER_QUALITY_MAX}
+   * @throws IllegalStateException if libspeexdsp is not available or rejects the rates
+   */
+  public SpeexResampler(int channels, int inputRate, int outputRate, int quality) {
+    this.speex = SpeexDsp.getInstance();
+    if (speex == null) {
+      throw new IllegalStateException("libspeexdsp is not available");
+    }
+    this.inputRate = inputRate;
+    this.outputRate = outputRate;
+    this.channels = channels;
+    IntByReference error = new IntByReference();
+    this.state = speex.speex_resampler_init(channels, inputRate, outputRate, quality, error);
+    if (state == null || error.getValue() != JNASpeexDsp.RESAMPLER_ERR_SUCCESS) {
+      throw new IllegalStateException("speex_resampler_init failed with error " + error.getValue());
+    }
+    speex.speex_resampler_skip_zeros(state);
+  }
+
+  @Override
+  public int getInputRate() {
+    return inputRate;
+  }
+
+  @Override
+  public int getOutputRate() {
+    return outputRate;
+  }
+
+  @Override
+  public int getChannels() {
+    return channels;
+  }
+
+  @Override
+  public int getMaxOutputSamples(int inputSamples) {
+    long frames = inputSamples / channels;
+    return (int) ((frames * outputRate + inputRate - 1) / inputRate + 1) * channels;
+  }
+
+  @Override
+  public int process(short[] in, int inputOffset, int inputLength, short[] out, int outputOffset) {
+    int capacity = getMaxOutputSamples(inputLength);
+    // JNA passes arrays from their start, so offsets go through scratch arrays that are only grown, never shrunk
+    short[] source = in;
+    if (inputOffset != 0) {
+      if (input.length < inputLength) {
+        input = new short[inputLength];
+      }
+      System.arraycopy(in, inputOffset, input, 0, inputLength);
+      source = input;
+    }
+    short[] target = out;
+    if (outputOffset != 0) {
+      if (output.length < capacity) {
+        output = new short[capacity];
+      }
+      target = output;
+    }
+
+    inputFrames.setValue(inputLength / channels);
+    outputFrames.setValue(capacity / channels);
+    speex.speex_resampler_process_interleaved_int(state, source, inputFrames, target, outputFrames);
+    int written = outputFrames.getValue() * channels;
+    if (target != out) {
+      System.arraycopy(target, 0, out, outputOffset, written);
+    }
+    return written;
+  }
+
+  @Override
+  public void reset() {
+    speex.speex_resampler_reset_mem(state);
+    speex.speex_resampler_skip_zeros(state);
+  }
+
+  @Override
+  public void release() {
+    if (state != null) {
+      speex.speex_resampler_destroy(state);
+      state = null;
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package com.ibm.watson.developer_cloud.android.library.audio.utils;
+
+import com.ibm.watson.developer_cloud.android.library.audio.AdaptiveBitrateController;
+import com.ibm.watson.developer_cloud.android.library.audio.OverflowPolicy;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+
+/**
+ * Settings for a single microphone capture session.
+ */
+public class CaptureConfiguration {
+
+  /**
+   * Sample rate, in Hz, audio is captured and encoded at. Opus streams support 8000, 12000, 16000, 24000 and 48000:
+   * 8000 is narrowband for constrained uplinks, 48000 fullband for archival quality. Ignored when the stream reads
+   * from a {@code PcmSource}, which brings its own format.
+   */
+  public int sampleRate = SpeechConfiguration.SAMPLE_RATE;
+
+  /**
+   * Number of interleaved channels captured and encoded, 1 or 2. Ignored when the stream reads from a
+   * {@code PcmSource}.
+   */
+  public int channels = SpeechConfiguration.AUDIO_CHANNELS;
+
+  /**
+   * Sample rate, in Hz, the microphone is recorded at before being resampled to {@link #sampleRate}. Use the
+   * device's native rate, usually 48000, to avoid the resampling some vendors do inside {@code AudioRecord}, which is
+   * slow and differs between devices. 0 records at {@link #sampleRate} directly.
+   */
+  public int recordSampleRate = 0;
+
+  /**
+   * Quality of the resampler used when {@link #recordSampleRate} differs from {@link #sampleRate}, from 0 (fastest)
+   * to 10 (best). Only applies where libspeexdsp is available.
+   */
+  public int resamplerQuality = 3;
+
+  /**
+   * Suppress stationary background noise with the speexdsp preprocessor before audio is measured, gated and
+   * encoded. Needs libspeexdsp; ignored where it cannot be loaded.
+   */
+  public boolean noiseSuppression = false;
+
+  /**
+   * Maximum attenuation of noise, in dB, when {@link #noiseSuppression} is on.
+   */
+  public int noiseSuppressionDb = -15;
+
+  /**
+   * Normalize the input level with the speexdsp preprocessor, so quiet and loud speakers reach the recognizer at a
+   * similar level. Needs libspeexdsp; ignored where it cannot be loaded.
+   */
+  public boolean automaticGainControl = false;
+
+  /**
+   * Level, as a 16-bit amplitude, {@link #automaticGainControl} aims for.
+   */
+  public int agcLevel = 8000;
+
+  /**
+   * Most, in dB, {@link #automaticGainControl} may amplify the input.
+   */
+  public int agcMaxGainDb = 30;
+
+  /**
+   * Settings of the Opus encoder in Opus mode, for example {@link OpusEncoderConfiguration#lowestBandwidth()} for
+   * metered uplinks or {@link OpusEncoderConfiguration#lowestCpu()} for low-end devices. Change them during capture
+   * with {@code MicrophoneInputStream.setOpusEncoderConfiguration}.
+   */
+  public OpusEncoderConfiguration opusEncoder = new OpusEncoderConfiguration();
+
+  /**
+   * Step the Opus encoder down to lower bitrates, bandwidths and complexities while the reader of the stream falls
+   * behind, for example on a slow uplink, and back up once it catches up, so the stream stays live instead of
+   * queueing ever more audio. Builds on {@link #opusEncoder} as the best setting.
+   */
+  public boolean adaptiveBitrate = false;
+
+  /**
+   * How much encoded audio, in milliseconds of transmission at the rate the reader drains it, may be queued before
+   * {@link #adaptiveBitrate} steps the encoder down.
+   */
+  public int adaptiveBitrateLatencyMillis = AdaptiveBitrateController.DEFAULT_TARGET_LATENCY_MILLIS;
+
+  /**
+   * Keep Opus sessions in float from capture to encoder: the microphone records {@code ENCODING_PCM_FLOAT} on Android
+   * 6.0 and later, {@code MicrophoneInputStream.setFloatProcessor} stages process floats, and the encoder soft-clips
+   * and encodes them with {@code opus_encode_float}, without quantizing to 16 bits in between. Raw streams, and
+   * sessions using {@link #noiseSuppression}, {@link #automaticGainControl}, {@link #voiceActivityGate} or a
+   * {@link #recordSampleRate} that needs resampling, whose stages work on 16-bit PCM, capture 16-bit PCM as usual.
+   */
+  public boolean floatSamples = false;
+
+  /**
+   * How much audio, in milliseconds, can be queued between the capture thread and the reader of the stream.
+   */
+  public int bufferCapacityMillis = 5000;
+
+  /**
+   * What happens to captured audio when the reader falls so far behind that the buffer is full. The drop policies
+   * only apply to raw PCM streams: an Opus stream always blocks, as dropping bytes of it would tear Ogg pages and
+   * leave readers with a corrupt stream. Use {@link #adaptiveBitrate} to keep an Opus stream live instead.
+   */
+  public OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+  /**
+   * How much audio, in milliseconds, is read from the microphone and pushed downstream at a time. Smaller values lower
+   * the latency to the first transcript, larger ones reduce per-read overhead for batch use. Rounded up to a whole
+   * number of Opus frames of {@link OpusEncoderConfiguration#frameDurationMillis} for an Opus stream, and of 10 ms
+   * for raw PCM. An Opus stream ends an Ogg page with every quantum, so its audio reaches the reader as soon as raw
+   * audio would, at some 30 bytes of page overhead each.
+   */
+  public int captureQuantumMillis = 20;
+
+  /**
+   * Size, in milliseconds of audio, of the buffer {@code AudioRecord} fills internally between reads. Independent
+   * of {@link #captureQuantumMillis}; it only needs to cover scheduling hiccups of the capture thread. Never smaller
+   * than the minimum the device reports.
+   */
+  public int recordBufferMillis = 500;
+
+  /**
+   * Only pass audio downstream while speech is detected. Silence is then neither encoded nor streamed, which saves
+   * uplink bytes, encoder CPU and recognition time. Recognizers see the speech segments back to back.
+   */
+  public boolean voiceActivityGate = false;
+
+  /**
+   * How far, in dB, a chunk of audio has to be above the adaptive noise floor to count as speech.
+   */
+  public double speechThresholdDb = 9;
+
+  /**
+   * How long, in milliseconds, speech is still considered present after the last loud chunk, so pauses between words
+   * do not close the gate.
+   */
+  public int speechHangoverMillis = 400;
+
+  /**
+   * How much audio, in milliseconds, from before the detected speech onset is sent along with it, so the first
+   * syllable is not clipped.
+   */
+  public int preRollMillis = 300;
+
+  /**
+   * How long, in milliseconds, silence has to last after speech (on top of {@link #speechHangoverMillis}) before the
+   * utterance is considered finished and the end of speech is reported.
+   */
+  public int endOfSpeechSilenceMillis = 500;
+
+  /**
+   * End the stream once the end of speech is detected. Capture stops, the encoder finishes the Ogg stream and readers
+   * see the end of the stream after the remaining audio, so a recognizer can return its final result without waiting
+   * for its own inactivity timeout.
+   */
+  public boolean closeOnEndOfSpeech = false;
+
+  /**
+   * How many times per second, at most, amplitude and level listeners are updated. Levels are measured per 10 ms
+   * frame regardless; only the most recent one is published.
+   */
+  public int meterRateHz = 30;
+
+  /**
+   * Instantiate default configuration.
+   */
+  public CaptureConfiguration() {
+  }
+
+  /**
+   * Constructing configuration by parameters.
+   *
+   * @param bufferCapacityMillis the buffer capacity in milliseconds
+   * @param overflowPolicy       the overflow policy
+   */
+  public CaptureConfiguration(int bufferCapacityMillis, OverflowPolicy overflowPolicy) {
+    this.bufferCapacityMillis = bufferCapacityMillis;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Constructing configuration by parameters.
+   *
+   * @param sampleRate the sample rate in Hz
+   * @param channels   the channel count
+   */
+  public CaptureConfiguration(int sampleRate, int channels) {
+    this.sampleRate = sampleRate;
+    this.channels = channels;
+  }
+
+  /**
+   * Gets the sample rate the microphone is actually recorded at.
+   *
+   * @return {@link #recordSampleRate} if set, {@link #sampleRate} otherwise
+   */
+  public int getRecordSampleRate() {
+    return recordSampleRate > 0 ? recordSampleRate : sampleRate;
+  }
+
+  /**
+   * Gets the number of samples per channel in one 10 ms frame, the unit audio is measured and encoded in.
+   *
+   * @param sampleRate the sample rate in Hz
+   * @return the frame size in samples per channel
+   */
+  public static int frameSize(int sampleRate) {
+    return sampleRate / 100;
+  }
+}
@@ -15,4 +15,20 @@ public enum ContentType {
   public String toString() {
     return value;
   }
+
+  /**
+   * Gets the content type for audio in the given format. Raw PCM carries its rate and channel count as parameters,
+   * an Ogg Opus stream describes itself in its header.
+   *
+   * @param sampleRate the sample rate in Hz
+   * @param channels   the channel count
+   * @return the content type
+   */
+  public String toString(int sampleRate, int channels) {
+    if (this == OPUS) {
+      return value;
+    }
+    String type = "audio/l16;rate=" + sampleRate;
+    return channels == 1 ? type : type + ";channels=" + channels;
+  }
 }
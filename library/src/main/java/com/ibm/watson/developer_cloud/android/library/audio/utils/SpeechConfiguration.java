@@ -28,17 +28,18 @@ public class SpeechConfiguration {
   public static final String AUDIO_FORMAT_OGGOPUS = "audio/ogg;codecs=opus";
 
   /**
-   * Audio channels.
+   * Default audio channels. Sessions can capture in another format through {@link CaptureConfiguration}.
    */
   public static final int AUDIO_CHANNELS = 1;
 
   /**
-   * Frame size.
+   * Frame size at the default sample rate and frame duration, 10 ms. Opus frames can be longer, see
+   * {@code OpusEncoderConfiguration.frameDurationMillis}.
    */
   public static final int FRAME_SIZE = 160;
 
   /**
-   * Sample rate.
+   * Default sample rate.
    */
   public static final int SAMPLE_RATE = 16000;
 
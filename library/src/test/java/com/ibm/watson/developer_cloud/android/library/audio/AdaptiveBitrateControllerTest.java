@@ -0,0 +1,165 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration.Application;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration.Bandwidth;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AdaptiveBitrateController}, against a throttled reader simulated in 20 ms steps.
+ */
+public class AdaptiveBitrateControllerTest {
+
+  private static final int STEP_MILLIS = 20;
+
+  /**
+   * An encoder that writes an Ogg page of its current bitrate every page duration, and a reader limited to a given
+   * rate.
+   */
+  private static class Link {
+    final AudioRingBuffer queue = new AudioRingBuffer(1 << 20, 1, OverflowPolicy.DROP_NEWEST);
+    final AdaptiveBitrateController controller;
+    final byte[] scratch = new byte[1 << 16];
+    final int pageMillis;
+    OpusEncoderConfiguration current;
+    long now;
+    double pending;
+    double budget;
+    int stepsUp;
+    int maxQueued;
+
+    Link(OpusEncoderConfiguration base) {
+      this(base, 500);
+    }
+
+    Link(OpusEncoderConfiguration base, int pageMillis) {
+      this.pageMillis = pageMillis;
+      controller = new AdaptiveBitrateController(base, 16000, 1,
+              AdaptiveBitrateController.DEFAULT_TARGET_LATENCY_MILLIS, pageMillis);
+      current = base;
+    }
+
+    void run(int millis, int uplinkBytesPerSecond) {
+      maxQueued = 0;
+      for (long end = now + millis; now < end; now += STEP_MILLIS) {
+        pending += current.bitrate / 8.0 * STEP_MILLIS / 1000;
+        if (now % pageMillis == pageMillis - STEP_MILLIS) {
+          queue.write(scratch, 0, (int) pending);
+          pending -= (int) pending;
+        }
+        // an idle link saves up no more than one step of sending
+        double rate = uplinkBytesPerSecond * STEP_MILLIS / 1000.0;
+        budget = Math.min(budget + rate, 2 * rate);
+        int n = Math.min(queue.available(), (int) budget);
+        if (n > 0) {
+          budget -= queue.read(scratch, 0, n);
+        }
+        maxQueued = Math.max(maxQueued, queue.available());
+
+        int level = controller.getLevel();
+        OpusEncoderConfiguration next = controller.update(now, STEP_MILLIS, queue);
+        if (next != null) {
+          current = next;
+          if (controller.getLevel() < level) {
+            stepsUp++;
+          }
+        }
+      }
+    }
+  }
+
+  private static OpusEncoderConfiguration base() {
+    OpusEncoderConfiguration base = new OpusEncoderConfiguration();
+    base.bitrate = 40000;
+    return base;
+  }
+
+  @Test public void slowUplinkStepsDownAndStaysLive() {
+    Link link = new Link(base());
+    link.run(20000, 1500);
+    link.run(30000, 1500);
+
+    assertTrue(link.controller.getLevel() > 0);
+    // about a page is queued at most, where 40 kbps would queue 3.5 kB more every second
+    assertTrue("queued " + link.maxQueued, link.maxQueued < 2000);
+    assertEquals(1500, link.controller.getDrainBytesPerSecond(), 100);
+  }
+
+  @Test public void recoveredUplinkStepsBackUp() {
+    Link link = new Link(base());
+    link.run(15000, 1500);
+    assertTrue(link.controller.getLevel() > 0);
+
+    link.run(120000, 100000);
+    assertEquals(0, link.controller.getLevel());
+    assertEquals(40000, link.current.bitrate);
+  }
+
+  @Test public void pagePerQuantumStepsDownAndBackUp() {
+    // a live capture ends a page with every 20 ms quantum
+    Link link = new Link(base(), 20);
+    link.run(20000, 1500);
+    link.run(30000, 1500);
+    assertTrue(link.controller.getLevel() > 0);
+    assertTrue("queued " + link.maxQueued, link.maxQueued < 2000);
+    assertEquals(1500, link.controller.getDrainBytesPerSecond(), 100);
+
+    link.run(120000, 100000);
+    assertEquals(0, link.controller.getLevel());
+  }
+
+  @Test public void failedProbesBackOff() {
+    Link link = new Link(base());
+    // enough for 12 kbps, not for the 16 kbps every other probe tries
+    link.run(20000, 1800);
+    link.stepsUp = 0;
+    link.run(180000, 1800);
+
+    // probing every 5 s would step up some 30 times
+    assertTrue("probed " + link.stepsUp + " times", link.stepsUp > 0 && link.stepsUp <= 8);
+    assertTrue("queued " + link.maxQueued, link.maxQueued < 3000);
+  }
+
+  @Test public void ladderOnlyGetsCheaperAndKeepsTheRest() {
+    OpusEncoderConfiguration base = base();
+    base.application = Application.AUDIO;
+    base.frameDurationMillis = 20;
+    base.complexity = 5;
+    base.maxBandwidth = Bandwidth.WIDEBAND;
+    List<OpusEncoderConfiguration> ladder = AdaptiveBitrateController.ladder(base, 16000, 1);
+
+    assertEquals(40000, ladder.get(0).bitrate);
+    for (int i = 1; i < ladder.size(); i++) {
+      OpusEncoderConfiguration better = ladder.get(i - 1);
+      OpusEncoderConfiguration level = ladder.get(i);
+      assertTrue(level.bitrate < better.bitrate);
+      assertTrue(level.complexity <= better.complexity);
+      assertTrue(level.maxBandwidth.ordinal() <= better.maxBandwidth.ordinal());
+      assertEquals(Application.AUDIO, level.application);
+      assertEquals(20, level.frameDurationMillis);
+    }
+    assertEquals(6000, ladder.get(ladder.size() - 1).bitrate);
+
+    // the automatic bitrate of a 16 kHz mono stream is about 22 kbps, so the ladder starts below that
+    assertEquals(16000, AdaptiveBitrateController.ladder(new OpusEncoderConfiguration(), 16000, 1).get(1).bitrate);
+  }
+}
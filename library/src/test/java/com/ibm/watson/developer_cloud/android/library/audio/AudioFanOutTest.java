@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AudioFanOut}.
+ */
+public class AudioFanOutTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  private static class RecordingConsumer implements AudioConsumer {
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+    final long delayMillis;
+
+    RecordingConsumer(long delayMillis) {
+      this.delayMillis = delayMillis;
+    }
+
+    @Override public void consume(byte[] data, double amplitude, double volume) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+      consume(data, offset, length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length) {
+      received.write(data, offset, length);
+      if (delayMillis > 0) {
+        try {
+          Thread.sleep(delayMillis);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  @Test public void slowConsumerDoesNotHoldBackOthers() throws Exception {
+    AudioFanOut fanOut = new AudioFanOut(SAMPLE_RATE, 1);
+    RecordingConsumer fast = new RecordingConsumer(0);
+    RecordingConsumer slow = new RecordingConsumer(50);
+    fanOut.addConsumer(fast, 2000, OverflowPolicy.BLOCK);
+    fanOut.addConsumer(slow, 100, OverflowPolicy.DROP_OLDEST);
+
+    // one second of 20 ms chunks, written as fast as possible
+    byte[] chunk = new byte[640];
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    long start = System.nanoTime();
+    for (int i = 0; i < 50; i++) {
+      for (int j = 0; j < chunk.length; j++) {
+        chunk[j] = (byte) (i + j);
+      }
+      fanOut.write(chunk, 0, chunk.length);
+      expected.write(chunk);
+    }
+    long writeMillis = (System.nanoTime() - start) / 1000000;
+    fanOut.close();
+    fanOut.awaitDrained(5000);
+
+    assertTrue("producer was held up for " + writeMillis + " ms", writeMillis < 500);
+    assertArrayEquals(expected.toByteArray(), fast.received.toByteArray());
+    assertEquals(0, fanOut.getDroppedBytes(fast));
+    assertTrue(fanOut.getDroppedBytes(slow) > 0);
+    assertEquals(expected.size(), slow.received.size() + fanOut.getDroppedBytes(slow));
+  }
+}
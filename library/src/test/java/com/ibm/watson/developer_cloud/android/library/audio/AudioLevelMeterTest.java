@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link AudioLevelMeter}.
+ */
+public class AudioLevelMeterTest {
+  private static final int FRAME_SIZE = 160;
+
+  private static short[] sine(int length, double amplitude) {
+    short[] samples = new short[length];
+    for (int i = 0; i < length; i++) {
+      samples[i] = (short) Math.round(Math.sin(2 * Math.PI * i / 16.0) * amplitude);
+    }
+    return samples;
+  }
+
+  @Test public void measuresRmsAndPeakPerFrame() {
+    AudioLevelMeter meter = new AudioLevelMeter(FRAME_SIZE, 30);
+    short[] samples = sine(FRAME_SIZE, 16384);
+
+    // a partial frame is not published yet
+    meter.process(samples, 0, FRAME_SIZE / 2);
+    assertEquals(0, meter.getFrameCount());
+    meter.process(samples, FRAME_SIZE / 2, FRAME_SIZE / 2);
+
+    assertEquals(1, meter.getFrameCount());
+    assertEquals(-6.02, meter.getPeakDbfs(), 0.05);
+    assertEquals(-9.03, meter.getRmsDbfs(), 0.05);
+  }
+
+  @Test public void floatSamplesAreMeasuredOnTheSameScale() {
+    AudioLevelMeter meter = new AudioLevelMeter(FRAME_SIZE, 30);
+    float[] samples = new float[FRAME_SIZE];
+    for (int i = 0; i < FRAME_SIZE; i++) {
+      samples[i] = (float) Math.sin(2 * Math.PI * i / 16.0) * 0.5f;
+    }
+    meter.process(samples, 0, FRAME_SIZE);
+    assertEquals(-6.02, meter.getPeakDbfs(), 0.05);
+    assertEquals(-9.03, meter.getRmsDbfs(), 0.05);
+
+    // past full scale counts as full scale
+    samples[3] = 4f;
+    meter.process(samples, 0, FRAME_SIZE);
+    assertEquals(0, meter.getPeakDbfs(), 0.01);
+  }
+
+  @Test public void silenceIsReportedAtTheFloor() {
+    AudioLevelMeter meter = new AudioLevelMeter(FRAME_SIZE, 30);
+    meter.process(new short[FRAME_SIZE], 0, FRAME_SIZE);
+
+    assertEquals(AudioLevelMeter.MIN_DBFS, meter.getRmsDbfs(), 0);
+  }
+
+  @Test public void listenersAreRateLimited() throws Exception {
+    AudioLevelMeter meter = new AudioLevelMeter(FRAME_SIZE, 20);
+    final AtomicInteger callbacks = new AtomicInteger();
+    meter.setLevelListener(new LevelListener() {
+      @Override public void onLevel(double rmsDbfs, double peakDbfs) {
+        callbacks.incrementAndGet();
+      }
+    });
+
+    short[] samples = sine(FRAME_SIZE, 8000);
+    long end = System.currentTimeMillis() + 500;
+    int frames = 0;
+    while (System.currentTimeMillis() < end) {
+      meter.process(samples, 0, FRAME_SIZE);
+      frames++;
+      Thread.sleep(1);
+    }
+    meter.stop();
+
+    assertTrue(frames > 100);
+    assertTrue("published " + callbacks.get() + " times", callbacks.get() > 0 && callbacks.get() <= 12);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link AudioRingBuffer}.
+ */
+public class AudioRingBufferTest {
+
+  private static byte[] sequence(int start, int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) (start + i);
+    }
+    return data;
+  }
+
+  @Test public void readsBackInOrderAcrossTheWrap() {
+    AudioRingBuffer ring = new AudioRingBuffer(8, 2, OverflowPolicy.BLOCK);
+    byte[] out = new byte[6];
+
+    assertEquals(6, ring.write(sequence(0, 6), 0, 6));
+    assertEquals(6, ring.read(out, 0, 6));
+    assertEquals(6, ring.write(sequence(6, 6), 0, 6));
+    assertEquals(6, ring.read(out, 0, 6));
+
+    assertArrayEquals(sequence(6, 6), out);
+    assertEquals(6, ring.getHighWaterMark());
+    assertEquals(12, ring.getConsumedBytes());
+  }
+
+  @Test public void dropNewestKeepsQueuedAudio() {
+    AudioRingBuffer ring = new AudioRingBuffer(4, 2, OverflowPolicy.DROP_NEWEST);
+    byte[] out = new byte[4];
+
+    assertEquals(4, ring.write(sequence(0, 6), 0, 6));
+    assertEquals(0, ring.write(sequence(6, 2), 0, 2));
+    assertEquals(4, ring.read(out, 0, 4));
+
+    assertArrayEquals(sequence(0, 4), out);
+    assertEquals(4, ring.getDroppedBytes());
+    // dropped bytes were never read
+    assertEquals(4, ring.getConsumedBytes());
+  }
+
+  @Test public void dropOldestKeepsLatestAudio() {
+    AudioRingBuffer ring = new AudioRingBuffer(4, 2, OverflowPolicy.DROP_OLDEST);
+    byte[] out = new byte[4];
+
+    ring.write(sequence(0, 4), 0, 4);
+    ring.write(sequence(4, 2), 0, 2);
+    ring.write(sequence(6, 10), 0, 10);
+    assertEquals(4, ring.read(out, 0, 4));
+
+    assertArrayEquals(sequence(12, 4), out);
+    assertEquals(12, ring.getDroppedBytes());
+    assertEquals(4, ring.getConsumedBytes());
+  }
+
+  @Test public void blockingWriterWaitsForReader() throws Exception {
+    final AudioRingBuffer ring = new AudioRingBuffer(16, 2, OverflowPolicy.BLOCK);
+    final int total = 60000;
+
+    Thread producer = new Thread() {
+      @Override public void run() {
+        byte[] chunk = new byte[10];
+        for (int i = 0; i < total; i += chunk.length) {
+          for (int j = 0; j < chunk.length; j++) {
+            chunk[j] = (byte) (i + j);
+          }
+          ring.write(chunk, 0, chunk.length);
+        }
+        ring.close();
+      }
+    };
+    producer.start();
+
+    byte[] out = new byte[7];
+    int expected = 0;
+    int read;
+    while ((read = ring.read(out, 0, out.length)) != -1) {
+      for (int i = 0; i < read; i++) {
+        assertEquals((byte) expected++, out[i]);
+      }
+    }
+    producer.join();
+
+    assertEquals(total, expected);
+    assertEquals(0, ring.getDroppedBytes());
+  }
+
+  @Test public void closeDrainsThenSignalsEnd() {
+    AudioRingBuffer ring = new AudioRingBuffer(8, 2, OverflowPolicy.BLOCK);
+    byte[] out = new byte[8];
+
+    ring.write(sequence(0, 4), 0, 4);
+    ring.close();
+
+    assertEquals(0, ring.write(sequence(0, 2), 0, 2));
+    assertEquals(4, ring.read(out, 0, 8));
+    assertEquals(-1, ring.read(out, 0, 8));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import android.media.AudioRecord;
+
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link CaptureTelemetry} and the stats of a running stream.
+ */
+public class CaptureTelemetryTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int READ = 320;
+  private static final long READ_NANOS = 20000000L;
+
+  /**
+   * Fails the reads it is told to, the way {@code AudioRecord} reports a transient error, and otherwise passes the
+   * wrapped source through.
+   */
+  private static final class FailingSource implements PcmSource {
+    private final PcmSource source;
+    private final int failEvery;
+    private int reads;
+
+    FailingSource(PcmSource source, int failEvery) {
+      this.source = source;
+      this.failEvery = failEvery;
+    }
+
+    @Override public int getSampleRate() {
+      return source.getSampleRate();
+    }
+
+    @Override public int getChannels() {
+      return source.getChannels();
+    }
+
+    @Override public void start() throws IOException {
+      source.start();
+    }
+
+    @Override public int read(short[] buffer, int offset, int length) throws IOException {
+      if (++reads % failEvery == 0) {
+        throw new TransientReadException("read " + reads + " failed");
+      }
+      return source.read(buffer, offset, length);
+    }
+
+    @Override public void stop() {
+      source.stop();
+    }
+  }
+
+  private static CaptureStats drain(MicrophoneInputStream stream) throws IOException {
+    byte[] buffer = new byte[4096];
+    while (stream.read(buffer, 0, buffer.length) != -1) {
+      // drain
+    }
+    CaptureStats stats = stream.getCaptureStats();
+    stream.close();
+    return stats;
+  }
+
+  @Test public void steadyCaptureHasNoDrift() {
+    CaptureTelemetry telemetry = new CaptureTelemetry(SAMPLE_RATE, 1, 500);
+    long now = 1000000000L;
+    for (int i = 0; i < 100; i++) {
+      now += READ_NANOS;
+      assertEquals(now - READ_NANOS, telemetry.onRead(now, READ, READ));
+    }
+    CaptureStats stats = telemetry.snapshot(0, 0);
+    assertEquals(2000, stats.getCapturedMillis());
+    assertEquals(2000, stats.getElapsedMillis());
+    assertEquals(0, stats.getDriftMillis());
+    assertEquals(0, stats.getOverruns());
+    assertEquals(0, stats.getShortReads());
+  }
+
+  @Test public void lateReadWithinBufferIsNoOverrun() {
+    CaptureTelemetry telemetry = new CaptureTelemetry(SAMPLE_RATE, 1, 500);
+    long now = 0;
+    for (int i = 0; i < 100; i++) {
+      // the thread stalls for 300 ms once, then drains the buffered audio immediately
+      now += i == 50 ? 15 * READ_NANOS : i > 50 && i < 65 ? 0 : READ_NANOS;
+      telemetry.onRead(now, READ, READ);
+    }
+    CaptureStats stats = telemetry.snapshot(0, 0);
+    assertEquals(0, stats.getOverruns());
+    assertEquals(0, stats.getDriftMillis());
+    assertEquals(280, stats.getMaxDriftMillis());
+  }
+
+  @Test public void lostAudioCountsAsOverrunAndDrift() {
+    CaptureTelemetry telemetry = new CaptureTelemetry(SAMPLE_RATE, 1, 500);
+    long now = 0;
+    for (int i = 0; i < 100; i++) {
+      now += i == 50 ? READ_NANOS + 800000000L : READ_NANOS;
+      telemetry.onRead(now, READ, i == 70 ? READ / 2 : READ);
+    }
+    CaptureStats stats = telemetry.snapshot(0, 0);
+    assertEquals(1, stats.getOverruns());
+    assertEquals(1, stats.getShortReads());
+    assertEquals(810, stats.getDriftMillis());
+  }
+
+  @Test public void streamReportsRealTimeCapture() throws IOException {
+    MicrophoneInputStream stream = new MicrophoneInputStream(false, new CaptureConfiguration(),
+            new SyntheticSource(SyntheticSource.Signal.TONE, SAMPLE_RATE, 1, 500, 440, 0.5, true, 0));
+    final AtomicLong nextPosition = new AtomicLong();
+    final AtomicLong gaps = new AtomicLong();
+    stream.setFrameTimestampListener(new FrameTimestampListener() {
+      @Override
+      public void onFrames(long timestampNanos, long position, int frames) {
+        if (position != nextPosition.get()) {
+          gaps.incrementAndGet();
+        }
+        nextPosition.set(position + frames);
+      }
+    });
+
+    byte[] buffer = new byte[4096];
+    while (stream.read(buffer, 0, buffer.length) != -1) {
+      // drain
+    }
+    CaptureStats stats = stream.getCaptureStats();
+    stream.close();
+
+    assertEquals(500, stats.getCapturedMillis());
+    assertEquals(0, stats.getReadErrors());
+    assertTrue(stats.toString(), Math.abs(stats.getDriftMillis()) < 100);
+    assertEquals(0, gaps.get());
+  }
+
+  @Test public void transientReadErrorsAreCountedAndCaptureGoesOn() throws IOException {
+    // 500 ms in 20 ms reads, every fifth one failing
+    CaptureStats stats = drain(new MicrophoneInputStream(false, new CaptureConfiguration(),
+            new FailingSource(new SyntheticSource(SyntheticSource.Signal.TONE, 500), 5)));
+
+    assertEquals(500, stats.getCapturedMillis());
+    assertEquals(6, stats.getReadErrors());
+  }
+
+  @Test public void captureEndsWhenReadsKeepFailing() throws IOException {
+    long start = System.nanoTime();
+    CaptureStats stats = drain(new MicrophoneInputStream(false, new CaptureConfiguration(),
+            new FailingSource(new SyntheticSource(SyntheticSource.Signal.TONE, 500), 1)));
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+    assertEquals(0, stats.getCapturedMillis());
+    assertEquals(MicrophoneCaptureThread.MAX_FAILED_READS, stats.getReadErrors());
+    // backed off between retries instead of spinning through them
+    int backoffMillis = 0;
+    for (int i = 1; i < MicrophoneCaptureThread.MAX_FAILED_READS; i++) {
+      backoffMillis += MicrophoneCaptureThread.FAILED_READ_BACKOFF_MILLIS * i;
+    }
+    assertTrue("gave up after " + elapsedMillis + " ms", elapsedMillis >= backoffMillis);
+  }
+
+  @Test public void onlyADeadAudioRecordEndsCapture() throws IOException {
+    assertEquals(320, AudioRecordSource.check(320));
+    for (int error : new int[] {AudioRecord.ERROR, AudioRecord.ERROR_BAD_VALUE, AudioRecord.ERROR_INVALID_OPERATION}) {
+      try {
+        AudioRecordSource.check(error);
+        fail("error " + error + " was not reported");
+      } catch (TransientReadException e) {
+        // reads again
+      }
+    }
+    try {
+      AudioRecordSource.check(AudioRecord.ERROR_DEAD_OBJECT);
+      fail("a dead AudioRecord was not reported");
+    } catch (IOException e) {
+      assertFalse(e instanceof TransientReadException);
+    }
+  }
+}
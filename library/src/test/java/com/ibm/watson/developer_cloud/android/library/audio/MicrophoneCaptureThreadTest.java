@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import android.media.AudioFormat;
+import android.os.Build;
+
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MicrophoneCaptureThread}.
+ */
+public class MicrophoneCaptureThreadTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int CHUNK = SAMPLE_RATE / 2;
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static final class CountingConsumer implements AudioConsumer {
+    long bytes;
+
+    @Override public void consume(byte[] data, double amplitude, double volume) {
+      bytes += data.length;
+    }
+
+    @Override public void consume(byte[] data) {
+      bytes += data.length;
+    }
+
+    @Override public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+      bytes += length;
+    }
+
+    @Override public void consume(byte[] data, int offset, int length) {
+      bytes += length;
+    }
+  }
+
+  @Test public void steadyStateCaptureDoesNotAllocate() {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+    CountingConsumer consumer = new CountingConsumer();
+    MicrophoneCaptureThread thread = new MicrophoneCaptureThread(consumer, false);
+    AudioBufferPool pool = new AudioBufferPool(2, CHUNK * 2);
+    thread.setBufferPool(pool);
+
+    short[] samples = new short[CHUNK];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) (Math.sin(i * 0.05) * 8000);
+    }
+
+    // warm up so class loading and JIT do not show up in the measurement
+    for (int i = 0; i < 200; i++) {
+      thread.process(samples, samples.length);
+    }
+
+    int seconds = 60;
+    int chunksPerSecond = SAMPLE_RATE / CHUNK;
+    long before = allocatedBytes();
+    for (int i = 0; i < seconds * chunksPerSecond; i++) {
+      thread.process(samples, samples.length);
+    }
+    long perSecond = (allocatedBytes() - before) / seconds;
+
+    assertEquals(0, pool.getMisses());
+    assertEquals((200 + seconds * chunksPerSecond) * CHUNK * 2L, consumer.bytes);
+    assertTrue("allocated " + perSecond + " bytes per second of audio", perSecond < 64);
+  }
+
+  @Test public void convertsToLittleEndian() {
+    byte[] bytes = new byte[4];
+    MicrophoneCaptureThread.toLittleEndian(new short[] { 0x1234, -2 }, 2, bytes);
+
+    assertEquals(0x34, bytes[0]);
+    assertEquals(0x12, bytes[1]);
+    assertEquals((byte) 0xfe, bytes[2]);
+    assertEquals((byte) 0xff, bytes[3]);
+  }
+
+  @Test public void floatSamplesAreClippedToLittleEndian() {
+    byte[] bytes = new byte[6];
+    MicrophoneCaptureThread.toLittleEndian(new float[] { 0.5f, -1.5f, 2f }, 3, bytes);
+
+    assertEquals(0x00, bytes[0]);
+    assertEquals(0x40, bytes[1]);
+    assertEquals(0x00, bytes[2]);
+    assertEquals((byte) 0x80, bytes[3]);
+    assertEquals((byte) 0xff, bytes[4]);
+    assertEquals(0x7f, bytes[5]);
+  }
+
+  @Test public void onlyOpusSessionsWithoutPcmStagesStayInFloat() {
+    CaptureConfiguration configuration = new CaptureConfiguration();
+    assertFalse(MicrophoneCaptureThread.floatPipeline(configuration, true));
+    configuration.floatSamples = true;
+    assertTrue(MicrophoneCaptureThread.floatPipeline(configuration, true));
+    assertFalse(MicrophoneCaptureThread.floatPipeline(configuration, false));
+    assertEquals(AudioFormat.ENCODING_PCM_FLOAT,
+            MicrophoneCaptureThread.recordEncoding(configuration, true, Build.VERSION_CODES.M));
+    // AudioRecord only records floats from Android 6.0 on
+    assertEquals(AudioFormat.ENCODING_PCM_16BIT,
+            MicrophoneCaptureThread.recordEncoding(configuration, true, Build.VERSION_CODES.M - 1));
+
+    configuration.recordSampleRate = 48000;
+    assertTrue(MicrophoneCaptureThread.floatPipeline(configuration, true));
+    assertEquals(AudioFormat.ENCODING_PCM_16BIT,
+            MicrophoneCaptureThread.recordEncoding(configuration, true, Build.VERSION_CODES.M));
+
+    configuration.noiseSuppression = true;
+    assertFalse(MicrophoneCaptureThread.floatPipeline(configuration, true));
+  }
+
+  @Test public void quantumIsRoundedUpToWholeFrames() {
+    assertEquals(320, MicrophoneCaptureThread.quantumSamples(20, SAMPLE_RATE, 160));
+    assertEquals(320, MicrophoneCaptureThread.quantumSamples(15, SAMPLE_RATE, 160));
+    assertEquals(160, MicrophoneCaptureThread.quantumSamples(0, SAMPLE_RATE, 160));
+    assertEquals(8000, MicrophoneCaptureThread.quantumSamples(500, SAMPLE_RATE, 160));
+
+    // Opus streams read whole frames of the configured duration
+    CaptureConfiguration configuration = new CaptureConfiguration();
+    configuration.opusEncoder.frameDurationMillis = 60;
+    assertEquals(960, MicrophoneCaptureThread.quantumFrameSize(configuration, true, SAMPLE_RATE));
+    assertEquals(160, MicrophoneCaptureThread.quantumFrameSize(configuration, false, SAMPLE_RATE));
+    assertEquals(960, MicrophoneCaptureThread.quantumSamples(20, SAMPLE_RATE,
+            MicrophoneCaptureThread.quantumFrameSize(configuration, true, SAMPLE_RATE)));
+  }
+}
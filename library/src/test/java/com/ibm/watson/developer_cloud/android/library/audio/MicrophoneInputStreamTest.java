@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusWriter;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for ending a {@link MicrophoneInputStream}.
+ */
+public class MicrophoneInputStreamTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  private static SyntheticSource liveSpeech() {
+    return new SyntheticSource(SyntheticSource.Signal.SPEECH, SAMPLE_RATE, 1, 60000, 200, 0.5, true, 0);
+  }
+
+  private static byte[] readToEnd(MicrophoneInputStream stream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int read;
+    while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  @Test public void closingARawStreamKeepsTheLastChunk() throws Exception {
+    MicrophoneInputStream stream = new MicrophoneInputStream(false, new CaptureConfiguration(), liveSpeech());
+    Thread.sleep(300);
+    stream.close();
+
+    byte[] audio = readToEnd(stream);
+    assertTrue(audio.length > 0);
+    assertEquals(stream.getCaptureStats().getCapturedFrames() * 2, audio.length);
+  }
+
+  @Test public void closingALiveOpusStreamKeepsItsEnd() throws Exception {
+    MicrophoneInputStream stream = new MicrophoneInputStream(true, new CaptureConfiguration(),
+            new MicrophoneSessionManagerTest.FakeSessionManager(0), liveSpeech());
+    Thread.sleep(300);
+    // read only once closed, as the websocket does after MicrophoneHelper.closeInputStream()
+    stream.close();
+
+    ByteBuffer ogg = ByteBuffer.wrap(readToEnd(stream)).order(ByteOrder.LITTLE_ENDIAN);
+    int headerType = 0;
+    long granulepos = 0;
+    int packets = 0;
+    while (ogg.remaining() > 0) {
+      assertEquals(0x5367674f, ogg.getInt(ogg.position()));
+      headerType = ogg.get(ogg.position() + 5);
+      granulepos = ogg.getLong(ogg.position() + 6);
+      int segments = ogg.get(ogg.position() + 26) & 0xff;
+      int bodyLength = 0;
+      for (int i = 0; i < segments; i++) {
+        int lacing = ogg.get(ogg.position() + 27 + i) & 0xff;
+        bodyLength += lacing;
+        if (lacing < 255) {
+          packets++;
+        }
+      }
+      ogg.position(ogg.position() + 27 + segments + bodyLength);
+    }
+
+    assertEquals("last page ends the stream", 4, headerType & 4);
+    int preSkip = MicrophoneSessionManagerTest.FakeEncoder.LOOKAHEAD * OpusWriter.OPUS_GRANULE_RATE / SAMPLE_RATE;
+    long frames = stream.getCaptureStats().getCapturedFrames();
+    assertTrue(frames > 0);
+    assertEquals(preSkip + frames * OpusWriter.OPUS_GRANULE_RATE / SAMPLE_RATE, granulepos);
+    // two header packets, then 10 ms frames that cover the lookahead too
+    assertTrue((packets - 2) * 160L * OpusWriter.OPUS_GRANULE_RATE / SAMPLE_RATE >= granulepos);
+  }
+
+  @Test public void closingAFullBlockingStreamDoesNotHang() throws Exception {
+    final MicrophoneInputStream stream = new MicrophoneInputStream(false, new CaptureConfiguration(100,
+            OverflowPolicy.BLOCK), new SyntheticSource(SyntheticSource.Signal.NOISE, 60000));
+    // nothing is read, so the capture thread soon waits for room
+    Thread.sleep(200);
+
+    Thread closer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          stream.close();
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    closer.start();
+    closer.join(5000);
+    assertTrue("close() hangs", !closer.isAlive());
+    // what fit is still there to read
+    assertEquals(3200, readToEnd(stream).length);
+  }
+}
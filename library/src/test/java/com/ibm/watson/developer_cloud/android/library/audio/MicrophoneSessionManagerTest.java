@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+
+import com.ibm.watson.developer_cloud.android.library.audio.opus.JNAOpus;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OggOpusEnc;
+import com.ibm.watson.developer_cloud.android.library.audio.opus.OpusEncoderConfiguration;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+import com.sun.jna.Pointer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link MicrophoneSessionManager}.
+ */
+public class MicrophoneSessionManagerTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int BUFFER_BYTES = 6400;
+
+  /**
+   * Stands in for the microphone, which needs a device.
+   */
+  static final class FakeRecord extends AudioRecord {
+    boolean released;
+
+    FakeRecord(int sampleRate, int encoding, int recordBufferBytes) {
+      super(0, sampleRate, AudioFormat.CHANNEL_IN_MONO, encoding, recordBufferBytes);
+    }
+
+    @Override
+    public int getState() {
+      return AudioRecord.STATE_INITIALIZED;
+    }
+
+    @Override
+    public void release() {
+      released = true;
+    }
+  }
+
+  /**
+   * Stands in for libopus: every packet is two bytes.
+   */
+  static final class FakeEncoder extends OggOpusEnc {
+    static final int LOOKAHEAD = 104;
+
+    // may be set from the super constructor, so these must not have initializers
+    int frames;
+    int resets;
+    boolean released;
+
+    FakeEncoder(AudioConsumer consumer, int sampleRate, int channels, OpusEncoderConfiguration configuration)
+            throws IOException {
+      super(consumer, sampleRate, channels, configuration);
+    }
+
+    @Override
+    protected Pointer createEncoder(int sampleRate, int channels, int application) {
+      return null;
+    }
+
+    @Override
+    protected int encoderCtl(int request, int value) {
+      return JNAOpus.OPUS_OK;
+    }
+
+    @Override
+    protected int getLookahead() {
+      return LOOKAHEAD;
+    }
+
+    @Override
+    protected void resetEncoder() {
+      resets++;
+    }
+
+    @Override
+    protected int encodeFrame(ShortBuffer pcm, ByteBuffer packet) {
+      frames++;
+      packet.put(0, (byte) 0x78);
+      packet.put(1, (byte) frames);
+      return 2;
+    }
+
+    @Override
+    public void release() {
+      released = true;
+      super.release();
+    }
+  }
+
+  /**
+   * Hands out fake records and encoders and counts them.
+   */
+  static final class FakeSessionManager extends MicrophoneSessionManager {
+    int records;
+    int encoders;
+
+    FakeSessionManager(long idleTimeoutMillis) {
+      super(idleTimeoutMillis);
+    }
+
+    @Override
+    protected AudioRecord createRecord(int sampleRate, int channels, int encoding, int recordBufferBytes) {
+      records++;
+      return new FakeRecord(sampleRate, encoding, recordBufferBytes);
+    }
+
+    @Override
+    protected OggOpusEnc createEncoder(AudioConsumer consumer, int sampleRate, int channels,
+                                       OpusEncoderConfiguration configuration) throws IOException {
+      encoders++;
+      return new FakeEncoder(consumer, sampleRate, channels, configuration);
+    }
+  }
+
+  private static AudioRecord acquireRecord(MicrophoneSessionManager sessions, int sampleRate) {
+    return sessions.acquireRecord(sampleRate, 1, AudioFormat.ENCODING_PCM_16BIT, BUFFER_BYTES);
+  }
+
+  @Test public void matchingRecordsAreReused() {
+    FakeSessionManager sessions = new FakeSessionManager(60000);
+    AudioRecord first = acquireRecord(sessions, SAMPLE_RATE);
+    sessions.releaseRecord(first);
+    assertSame(first, acquireRecord(sessions, SAMPLE_RATE));
+    sessions.releaseRecord(first);
+
+    // another format replaces the warm record
+    AudioRecord other = acquireRecord(sessions, 8000);
+    assertNotSame(first, other);
+    assertTrue(((FakeRecord) first).released);
+    assertEquals(2, sessions.records);
+    sessions.shutdown();
+  }
+
+  @Test public void concurrentSessionsGetTheirOwnRecords() {
+    FakeSessionManager sessions = new FakeSessionManager(60000);
+    AudioRecord first = acquireRecord(sessions, SAMPLE_RATE);
+    AudioRecord second = acquireRecord(sessions, SAMPLE_RATE);
+    assertNotSame(first, second);
+
+    // only one is kept warm
+    sessions.releaseRecord(first);
+    sessions.releaseRecord(second);
+    assertTrue(((FakeRecord) second).released);
+    assertFalse(((FakeRecord) first).released);
+    sessions.shutdown();
+  }
+
+  @Test public void matchingEncodersAreResetForTheNextStream() throws IOException {
+    FakeSessionManager sessions = new FakeSessionManager(60000);
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    OggOpusEnc first = sessions.acquireEncoder(null, SAMPLE_RATE, 1, configuration);
+    sessions.releaseEncoder(first);
+    assertSame(first, sessions.acquireEncoder(null, SAMPLE_RATE, 1, configuration));
+    assertEquals(1, ((FakeEncoder) first).resets);
+    sessions.releaseEncoder(first);
+
+    // the frame duration is fixed once an encoder exists
+    OpusEncoderConfiguration longer = new OpusEncoderConfiguration();
+    longer.frameDurationMillis = 20;
+    OggOpusEnc other = sessions.acquireEncoder(null, SAMPLE_RATE, 1, longer);
+    assertNotSame(first, other);
+    assertTrue(((FakeEncoder) first).released);
+    assertEquals(2, sessions.encoders);
+    sessions.shutdown();
+  }
+
+  @Test public void preparedResourcesAreTakenByTheNextSession() throws IOException {
+    FakeSessionManager sessions = new FakeSessionManager(60000);
+    CaptureConfiguration configuration = new CaptureConfiguration();
+    sessions.prepare(configuration, true);
+    assertEquals(1, sessions.records);
+    assertEquals(1, sessions.encoders);
+
+    int encoding = MicrophoneCaptureThread.recordEncoding(configuration, true);
+    sessions.acquireRecord(configuration.getRecordSampleRate(), configuration.channels, encoding,
+            MicrophoneCaptureThread.recordBufferBytes(configuration, encoding));
+    sessions.acquireEncoder(null, configuration.sampleRate, configuration.channels, configuration.opusEncoder);
+    assertEquals(1, sessions.records);
+    assertEquals(1, sessions.encoders);
+    sessions.shutdown();
+  }
+
+  @Test public void idleResourcesAreReleasedAfterTheTimeout() throws IOException, InterruptedException {
+    FakeSessionManager sessions = new FakeSessionManager(50);
+    AudioRecord record = acquireRecord(sessions, SAMPLE_RATE);
+    OggOpusEnc encoder = sessions.acquireEncoder(null, SAMPLE_RATE, 1, new OpusEncoderConfiguration());
+    sessions.releaseRecord(record);
+    sessions.releaseEncoder(encoder);
+    assertFalse(((FakeRecord) record).released);
+
+    Thread.sleep(500);
+    assertTrue(((FakeRecord) record).released);
+    assertTrue(((FakeEncoder) encoder).released);
+    assertNotSame(record, acquireRecord(sessions, SAMPLE_RATE));
+  }
+
+  @Test public void shutdownReleasesWarmResources() throws IOException {
+    FakeSessionManager sessions = new FakeSessionManager(60000);
+    AudioRecord record = acquireRecord(sessions, SAMPLE_RATE);
+    OggOpusEnc encoder = sessions.acquireEncoder(null, SAMPLE_RATE, 1, new OpusEncoderConfiguration());
+    sessions.releaseRecord(record);
+    sessions.releaseEncoder(encoder);
+
+    sessions.shutdown();
+    assertTrue(((FakeRecord) record).released);
+    assertTrue(((FakeEncoder) encoder).released);
+
+    // still usable afterwards
+    assertNotSame(record, acquireRecord(sessions, SAMPLE_RATE));
+    assertEquals(2, sessions.records);
+  }
+
+  @Test public void withoutTimeoutNothingIsKept() throws IOException {
+    FakeSessionManager sessions = new FakeSessionManager(0);
+    AudioRecord record = acquireRecord(sessions, SAMPLE_RATE);
+    OggOpusEnc encoder = sessions.acquireEncoder(null, SAMPLE_RATE, 1, new OpusEncoderConfiguration());
+    sessions.releaseRecord(record);
+    sessions.releaseEncoder(encoder);
+    assertTrue(((FakeRecord) record).released);
+    assertTrue(((FakeEncoder) encoder).released);
+  }
+}
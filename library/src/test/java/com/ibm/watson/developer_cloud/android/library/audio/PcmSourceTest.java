@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link PcmSource} implementations, and for running the capture pipeline off a file or generator.
+ */
+public class PcmSourceTest {
+  private static final int SAMPLE_RATE = 16000;
+
+  @Test public void wavFileIsParsedAndReplayed() throws IOException {
+    short[] samples = new short[1000];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) (i * 31 - 15000);
+    }
+    WavFileSource source = new WavFileSource(new ByteArrayInputStream(wav(samples, SAMPLE_RATE, 1)), false);
+    assertEquals(SAMPLE_RATE, source.getSampleRate());
+    assertEquals(1, source.getChannels());
+
+    source.start();
+    short[] buffer = new short[160];
+    int total = 0;
+    int read;
+    while ((read = source.read(buffer, 0, buffer.length)) != -1) {
+      for (int i = 0; i < read; i++) {
+        assertEquals(samples[total + i], buffer[i]);
+      }
+      total += read;
+    }
+    source.stop();
+    assertEquals(samples.length, total);
+  }
+
+  @Test public void realTimeReplayIsPaced() throws IOException {
+    SyntheticSource source = new SyntheticSource(SyntheticSource.Signal.TONE, SAMPLE_RATE, 1, 300, 440, 0.5, true, 0);
+    short[] buffer = new short[320];
+    long start = System.nanoTime();
+    source.start();
+    while (source.read(buffer, 0, buffer.length) != -1) {
+      // drain
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    assertTrue("replay took " + elapsedMillis + " ms", elapsedMillis >= 280);
+  }
+
+  @Test public void syntheticSpeechRunsThroughPipelineAsFastAsPossible() throws IOException {
+    long durationMillis = 60000;
+    InputStream stream = new MicrophoneInputStream(false, new CaptureConfiguration(),
+            new SyntheticSource(SyntheticSource.Signal.SPEECH, durationMillis));
+
+    byte[] buffer = new byte[4096];
+    long total = 0;
+    long start = System.nanoTime();
+    int read;
+    while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+      total += read;
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    stream.close();
+
+    assertEquals(durationMillis * SAMPLE_RATE / 1000 * 2, total);
+    assertTrue("a minute of audio took " + elapsedMillis + " ms", elapsedMillis < durationMillis);
+  }
+
+  @Test public void syntheticFloatsMatchShorts() throws IOException {
+    SyntheticSource shorts = new SyntheticSource(SyntheticSource.Signal.SPEECH, 1000);
+    SyntheticSource floats = new SyntheticSource(SyntheticSource.Signal.SPEECH, 1000);
+    short[] expected = new short[SAMPLE_RATE];
+    float[] actual = new float[SAMPLE_RATE];
+    assertEquals(SAMPLE_RATE, shorts.read(expected, 0, SAMPLE_RATE));
+    assertEquals(SAMPLE_RATE, floats.read(actual, 0, SAMPLE_RATE));
+    for (int i = 0; i < SAMPLE_RATE; i++) {
+      assertEquals(expected[i], actual[i] * Short.MAX_VALUE, 0.5);
+    }
+    assertEquals(-1, floats.read(actual, 0, SAMPLE_RATE));
+  }
+
+  @Test public void streamTakesFormatFromSource() throws IOException {
+    MicrophoneInputStream stream = new MicrophoneInputStream(false, new CaptureConfiguration(),
+            new SyntheticSource(SyntheticSource.Signal.NOISE, 8000, 2, 2000, 0, 0.5, false, 0));
+    assertEquals("audio/l16;rate=8000;channels=2", stream.getContentType());
+
+    byte[] buffer = new byte[4096];
+    long total = 0;
+    int read;
+    while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+      total += read;
+    }
+    stream.close();
+    assertEquals(2 * 8000 * 2 * 2, total);
+  }
+
+  private static byte[] wav(short[] samples, int sampleRate, int channels) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write("RIFF".getBytes("US-ASCII"));
+    writeInt(out, 36 + samples.length * 2);
+    out.write("WAVEfmt ".getBytes("US-ASCII"));
+    writeInt(out, 16);
+    writeShort(out, 1);
+    writeShort(out, channels);
+    writeInt(out, sampleRate);
+    writeInt(out, sampleRate * channels * 2);
+    writeShort(out, channels * 2);
+    writeShort(out, 16);
+    out.write("data".getBytes("US-ASCII"));
+    writeInt(out, samples.length * 2);
+    for (short sample : samples) {
+      writeShort(out, sample);
+    }
+    return out.toByteArray();
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    writeShort(out, value);
+    writeShort(out, value >> 16);
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value) {
+    out.write(value & 0xff);
+    out.write((value >> 8) & 0xff);
+  }
+}
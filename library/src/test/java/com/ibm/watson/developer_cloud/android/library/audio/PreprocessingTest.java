@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexDsp;
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexPreprocessor;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.CaptureConfiguration;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the speexdsp preprocessing stage and its time measurement.
+ */
+public class PreprocessingTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int FRAME_SIZE = 160;
+
+  @Test public void processingTimeIsAveragedPerFrame() {
+    ProcessingTime time = new ProcessingTime(10);
+    time.record(200000, 2);
+    time.record(400000, 2);
+    assertEquals(4, time.getFrames());
+    assertEquals(150, time.getAverageMicrosPerFrame(), 0.001);
+    assertEquals(200, time.getMaxMicrosPerFrame(), 0.001);
+    assertEquals(0.015, time.getLoad(), 0.0001);
+  }
+
+  @Test public void captureRunsWithoutNativePreprocessor() throws IOException {
+    Assume.assumeTrue(!SpeexDsp.isAvailable());
+    CaptureConfiguration configuration = new CaptureConfiguration();
+    configuration.noiseSuppression = true;
+    MicrophoneInputStream stream = new MicrophoneInputStream(false, configuration,
+            new SyntheticSource(SyntheticSource.Signal.NOISE, 1000));
+    byte[] buffer = new byte[4096];
+    long total = 0;
+    int read;
+    while ((read = stream.read(buffer, 0, buffer.length)) != -1) {
+      total += read;
+    }
+    stream.close();
+    assertEquals(SAMPLE_RATE * 2, total);
+    assertEquals(0, stream.getPreprocessingTime().getFrames());
+    assertEquals(-1, stream.getSpeechProbability());
+  }
+
+  @Test public void denoiseAttenuatesStationaryNoise() {
+    Assume.assumeTrue(SpeexDsp.isAvailable());
+    SpeexPreprocessor preprocessor = new SpeexPreprocessor(FRAME_SIZE, SAMPLE_RATE, 1);
+    preprocessor.setDenoise(true, -25);
+    Random random = new Random(0);
+    short[] frame = new short[FRAME_SIZE];
+    double inputEnergy = 0;
+    double outputEnergy = 0;
+    try {
+      for (int n = 0; n < 300; n++) {
+        for (int i = 0; i < FRAME_SIZE; i++) {
+          frame[i] = (short) (random.nextGaussian() * 1000);
+        }
+        boolean measured = n >= 200; // let the noise estimate settle
+        for (int i = 0; measured && i < FRAME_SIZE; i++) {
+          inputEnergy += frame[i] * frame[i];
+        }
+        preprocessor.process(frame, 0, FRAME_SIZE);
+        for (int i = 0; measured && i < FRAME_SIZE; i++) {
+          outputEnergy += frame[i] * frame[i];
+        }
+      }
+    } finally {
+      preprocessor.release();
+    }
+    assertTrue(outputEnergy < inputEnergy / 10);
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexDsp;
+import com.ibm.watson.developer_cloud.android.library.audio.speex.SpeexResampler;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the {@link Resampler} implementations and {@link ResamplingSource}.
+ */
+public class ResamplerTest {
+  private static final int NATIVE_RATE = 48000;
+  private static final int SESSION_RATE = 16000;
+  private static final int BLOCK = NATIVE_RATE / 100;
+
+  @Test public void passbandToneKeepsItsLevel() {
+    short[] output = resample(new JavaResampler(1, NATIVE_RATE, SESSION_RATE), 1000, 1);
+    assertEquals(10000 / Math.sqrt(2), rms(output, 1000, 0, 1), 150);
+  }
+
+  @Test public void toneAboveOutputNyquistIsRemoved() {
+    short[] output = resample(new JavaResampler(1, NATIVE_RATE, SESSION_RATE), 12000, 1);
+    // at least 40 dB down
+    assertTrue(rms(output, 1000, 0, 1) < 10000 / Math.sqrt(2) / 100);
+  }
+
+  @Test public void outputLengthFollowsRatio() {
+    JavaResampler resampler = new JavaResampler(1, NATIVE_RATE, SESSION_RATE);
+    short[] output = resample(resampler, 1000, 1);
+    int expected = SESSION_RATE - resampler.getInputLatency() * SESSION_RATE / NATIVE_RATE;
+    assertEquals(expected, output.length, 2);
+  }
+
+  @Test public void upsamplingWithUnevenRatio() {
+    JavaResampler resampler = new JavaResampler(1, 44100, NATIVE_RATE);
+    short[] input = tone(440, 44100, 1, 44100);
+    short[] output = new short[resampler.getMaxOutputSamples(input.length)];
+    int written = resampler.process(input, 0, input.length, output, 0);
+    assertEquals(NATIVE_RATE - resampler.getInputLatency() * NATIVE_RATE / 44100, written, 2);
+    short[] result = new short[written];
+    System.arraycopy(output, 0, result, 0, written);
+    assertEquals(10000 / Math.sqrt(2), rms(result, 2000, 0, 1), 150);
+  }
+
+  @Test public void channelsStaySeparate() {
+    short[] output = resample(new JavaResampler(2, NATIVE_RATE, SESSION_RATE), 1000, 2);
+    assertEquals(10000 / Math.sqrt(2), rms(output, 2000, 0, 2), 150);
+    assertEquals(0, rms(output, 2000, 1, 2), 1);
+  }
+
+  @Test public void sourceDeliversSessionRate() throws IOException {
+    SyntheticSource microphone = new SyntheticSource(SyntheticSource.Signal.TONE, NATIVE_RATE, 1, 1000, 1000, 0.3,
+            false, 0);
+    ResamplingSource source = new ResamplingSource(microphone, new JavaResampler(1, NATIVE_RATE, SESSION_RATE));
+    assertEquals(SESSION_RATE, source.getSampleRate());
+
+    source.start();
+    short[] buffer = new short[320];
+    int total = 0;
+    int read;
+    while ((read = source.read(buffer, 0, buffer.length)) != -1) {
+      total += read;
+    }
+    source.stop();
+    assertEquals(SESSION_RATE, total, 20);
+  }
+
+  @Test public void speexMatchesJavaFallback() {
+    Assume.assumeTrue(SpeexDsp.isAvailable());
+    SpeexResampler resampler = new SpeexResampler(1, NATIVE_RATE, SESSION_RATE, 3);
+    try {
+      short[] output = resample(resampler, 1000, 1);
+      assertEquals(10000 / Math.sqrt(2), rms(output, 1000, 0, 1), 300);
+    } finally {
+      resampler.release();
+    }
+  }
+
+  /**
+   * Resamples one second of a tone in 10 ms blocks.
+   */
+  private static short[] resample(Resampler resampler, double frequency, int channels) {
+    // only the first channel carries the tone
+    short[] input = tone(frequency, NATIVE_RATE, channels, NATIVE_RATE);
+    short[] output = new short[resampler.getMaxOutputSamples(input.length)];
+    int written = 0;
+    for (int offset = 0; offset < input.length; offset += BLOCK * channels) {
+      written += resampler.process(input, offset, BLOCK * channels, output, written);
+    }
+    short[] result = new short[written];
+    System.arraycopy(output, 0, result, 0, written);
+    return result;
+  }
+
+  private static short[] tone(double frequency, int sampleRate, int channels, int frames) {
+    short[] samples = new short[frames * channels];
+    for (int i = 0; i < frames; i++) {
+      samples[i * channels] = (short) Math.round(10000 * Math.sin(2 * Math.PI * frequency * i / sampleRate));
+    }
+    return samples;
+  }
+
+  /**
+   * RMS of one channel, skipping the filter's start-up transient.
+   */
+  private static double rms(short[] samples, int skipFrames, int channel, int channels) {
+    double sum = 0;
+    int count = 0;
+    for (int i = (skipFrames * channels) + channel; i < samples.length; i += channels) {
+      sum += (double) samples[i] * samples[i];
+      count++;
+    }
+    return Math.sqrt(sum / count);
+  }
+}
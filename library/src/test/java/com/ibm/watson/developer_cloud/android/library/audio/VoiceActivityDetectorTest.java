@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link VoiceActivityDetector}, {@link VoiceActivityGate} and {@link Endpointer}.
+ */
+public class VoiceActivityDetectorTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int CHUNK = 320; // 20 ms
+  private static final double NOISE = 2000;
+  private static final double SPEECH = 2000000;
+
+  @Test public void detectsSpeechAboveAdaptiveFloorWithHangover() {
+    VoiceActivityDetector detector = new VoiceActivityDetector(SAMPLE_RATE, 9, 100);
+
+    for (int i = 0; i < 50; i++) {
+      assertFalse(detector.update(NOISE, CHUNK));
+    }
+    assertTrue(detector.update(SPEECH, CHUNK));
+
+    // 100 ms of hangover is five 20 ms chunks
+    for (int i = 0; i < 4; i++) {
+      assertTrue(detector.update(NOISE, CHUNK));
+    }
+    assertFalse(detector.update(NOISE, CHUNK));
+  }
+
+  @Test public void floorFollowsLouderBackground() {
+    VoiceActivityDetector detector = new VoiceActivityDetector(SAMPLE_RATE, 9, 100);
+
+    for (int i = 0; i < 50; i++) {
+      detector.update(NOISE, CHUNK);
+    }
+    // a steady background only a little louder than before is absorbed into the floor
+    for (int i = 0; i < 500; i++) {
+      assertFalse(detector.update(NOISE * 4, CHUNK));
+    }
+    assertTrue(detector.getNoiseFloor() > NOISE * 3);
+  }
+
+  @Test public void gateReleasesPreRollBeforeOnset() {
+    VoiceActivityGate gate = new VoiceActivityGate(40, SAMPLE_RATE, 1);
+    byte[] chunk = new byte[CHUNK * 2];
+
+    for (int i = 0; i < 10; i++) {
+      Arrays.fill(chunk, (byte) i);
+      assertFalse(gate.offer(chunk, 0, chunk.length, false));
+    }
+    assertTrue(gate.offer(chunk, 0, chunk.length, true));
+
+    // 40 ms of pre-roll holds the last two chunks
+    byte[] drained = new byte[4 * CHUNK];
+    int total = 0;
+    int read;
+    while ((read = gate.drainPreRoll(drained, total, drained.length - total)) > 0) {
+      total += read;
+    }
+    byte[] expected = new byte[4 * CHUNK];
+    Arrays.fill(expected, 0, 2 * CHUNK, (byte) 8);
+    Arrays.fill(expected, 2 * CHUNK, 4 * CHUNK, (byte) 9);
+
+    assertEquals(4 * CHUNK, total);
+    assertArrayEquals(expected, drained);
+    assertEquals(8 * 2 * CHUNK, gate.getSuppressedBytes());
+  }
+
+  @Test public void endpointerReportsEndAfterTrailingSilence() {
+    final int[] events = new int[2];
+    Endpointer endpointer = new Endpointer(SAMPLE_RATE, 100);
+    endpointer.setListener(new EndpointListener() {
+      @Override public void onSpeechStart() {
+        events[0]++;
+      }
+
+      @Override public void onEndOfSpeech() {
+        events[1]++;
+      }
+    });
+
+    // leading silence never ends an utterance
+    for (int i = 0; i < 20; i++) {
+      assertFalse(endpointer.update(false, CHUNK));
+    }
+    assertFalse(endpointer.update(true, CHUNK));
+    assertFalse(endpointer.update(true, CHUNK));
+    for (int i = 0; i < 4; i++) {
+      assertFalse(endpointer.update(false, CHUNK));
+    }
+    assertTrue(endpointer.update(false, CHUNK));
+    assertFalse(endpointer.update(false, CHUNK));
+
+    assertTrue(endpointer.isEnded());
+    assertEquals(1, events[0]);
+    assertEquals(1, events[1]);
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the direct-mapped bindings against the interface-mapped ones. Needs libopus on the library path, so it only
+ * runs on devices and on hosts where it is installed.
+ */
+public class JNAOpusDirectTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int FRAME_SIZE = 160;
+
+  @Before public void requireLibopus() {
+    try {
+      NativeLibrary.getInstance(JNAOpus.JNA_LIBRARY_NAME);
+    } catch (UnsatisfiedLinkError e) {
+      Assume.assumeTrue("libopus not available", false);
+    }
+  }
+
+  @Test public void bothMappingsEncodeTheSamePackets() {
+    ShortBuffer pcm = tone();
+    ByteBuffer direct = ByteBuffer.allocateDirect(OggOpusEnc.MAX_PACKET_BYTES);
+    ByteBuffer proxied = ByteBuffer.allocateDirect(OggOpusEnc.MAX_PACKET_BYTES);
+    Pointer directEncoder = createDirect();
+    PointerByReference proxiedEncoder = createProxied();
+
+    for (int i = 0; i < 50; i++) {
+      int directLength = JNAOpusDirect.opus_encode(directEncoder, pcm, FRAME_SIZE, direct, direct.capacity());
+      int proxiedLength = JNAOpus.INSTANCE.opus_encode(proxiedEncoder, pcm, FRAME_SIZE, proxied, proxied.capacity());
+      assertTrue(directLength > 0);
+      assertEquals(proxiedLength, directLength);
+      for (int j = 0; j < directLength; j++) {
+        assertEquals(proxied.get(j), direct.get(j));
+      }
+    }
+
+    byte[] packet = new byte[OggOpusEnc.MAX_PACKET_BYTES];
+    direct.get(packet);
+    int[] lookahead = new int[1];
+    assertEquals(JNAOpus.OPUS_OK,
+            JNAOpusDirect.opus_encoder_ctl(directEncoder, JNAOpus.OPUS_GET_LOOKAHEAD_REQUEST, lookahead));
+    assertTrue(lookahead[0] > 0);
+    assertEquals(1, JNAOpusDirect.opus_packet_get_nb_channels(packet));
+    assertEquals(FRAME_SIZE, JNAOpusDirect.opus_packet_get_nb_samples(packet, 1, SAMPLE_RATE));
+
+    JNAOpusDirect.opus_encoder_destroy(directEncoder);
+    JNAOpus.INSTANCE.opus_encoder_destroy(proxiedEncoder);
+  }
+
+  private static ShortBuffer tone() {
+    ShortBuffer pcm = ByteBuffer.allocateDirect(FRAME_SIZE * 2).order(ByteOrder.nativeOrder()).asShortBuffer();
+    for (int i = 0; i < FRAME_SIZE; i++) {
+      pcm.put(i, (short) (8000 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE)));
+    }
+    return pcm;
+  }
+
+  private static Pointer createDirect() {
+    int[] error = new int[1];
+    Pointer encoder = JNAOpusDirect.opus_encoder_create(SAMPLE_RATE, 1, JNAOpus.OPUS_APPLICATION_VOIP, error);
+    assertEquals(JNAOpus.OPUS_OK, error[0]);
+    return encoder;
+  }
+
+  private static PointerByReference createProxied() {
+    IntBuffer error = IntBuffer.allocate(1);
+    PointerByReference encoder = JNAOpus.INSTANCE.opus_encoder_create(SAMPLE_RATE, 1, JNAOpus.OPUS_APPLICATION_VOIP,
+            error);
+    assertEquals(JNAOpus.OPUS_OK, error.get(0));
+    return encoder;
+  }
+}
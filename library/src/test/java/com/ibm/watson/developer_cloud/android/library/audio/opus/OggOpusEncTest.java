@@ -0,0 +1,556 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.ibm.watson.developer_cloud.android.library.audio.AudioConsumer;
+import com.sun.jna.Pointer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests and allocation benchmark for {@link OggOpusEnc}.
+ */
+public class OggOpusEncTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int FRAME_SIZE = 160;
+  private static final int CHUNK = 320;
+  private static final int PACKET_BYTES = 40;
+  private static final int LOOKAHEAD = 104;
+
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static final class CountingConsumer implements AudioConsumer {
+    long bytes;
+
+    @Override public void consume(byte[] data, double amplitude, double volume) {
+      bytes += data.length;
+    }
+
+    @Override public void consume(byte[] data) {
+      bytes += data.length;
+    }
+
+    @Override public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+      bytes += length;
+    }
+
+    @Override public void consume(byte[] data, int offset, int length) {
+      bytes += length;
+    }
+  }
+
+  /**
+   * Stands in for libopus, which is only built for Android, and records what reached it.
+   */
+  private static final class FakeOpusEnc extends OggOpusEnc {
+    short firstSample;
+    float firstFloat;
+    int frames;
+    int floatFrames;
+    int softClips;
+    short[] encoded = new short[0];
+    boolean keepSamples;
+    int resets;
+    // set from the super constructor, so these must not have initializers
+    int application;
+    Map<Integer, Integer> ctls;
+
+    FakeOpusEnc(AudioConsumer ac) throws IOException {
+      super(ac, SAMPLE_RATE, 1);
+    }
+
+    FakeOpusEnc(AudioConsumer ac, OpusEncoderConfiguration configuration) throws IOException {
+      super(ac, SAMPLE_RATE, 1, configuration);
+    }
+
+    @Override
+    protected Pointer createEncoder(int sampleRate, int channels, int application) {
+      this.application = application;
+      return null;
+    }
+
+    @Override
+    protected int encoderCtl(int request, int value) {
+      if (ctls == null) {
+        ctls = new HashMap<>();
+      }
+      ctls.put(request, value);
+      return JNAOpus.OPUS_OK;
+    }
+
+    @Override
+    protected OpusRepacketizer createRepacketizer(OpusWriter writer, int packetDurationMillis) {
+      return new OpusRepacketizerTest.FakeRepacketizer(writer, SAMPLE_RATE, packetDurationMillis);
+    }
+
+    @Override
+    protected int getLookahead() {
+      return LOOKAHEAD;
+    }
+
+    @Override
+    protected void resetEncoder() {
+      resets++;
+    }
+
+    @Override
+    protected void softClip(FloatBuffer pcm, float[] memory) {
+      assertEquals(1, memory.length);
+      softClips++;
+      for (int i = 0; i < pcm.limit(); i++) {
+        pcm.put(i, Math.max(-1f, Math.min(1f, pcm.get(i))));
+      }
+    }
+
+    @Override
+    protected int encodeFloatFrame(FloatBuffer pcm, ByteBuffer packet) {
+      assertTrue(pcm.isDirect() && packet.isDirect());
+      assertEquals(getFrameSize(), pcm.remaining());
+      firstFloat = pcm.get(0);
+      floatFrames++;
+      packet.put(0, (byte) 0xf0);
+      return PACKET_BYTES;
+    }
+
+    @Override
+    protected int encodeFrame(ShortBuffer pcm, ByteBuffer packet) {
+      assertTrue(pcm.isDirect() && packet.isDirect());
+      assertEquals(getFrameSize(), pcm.remaining());
+      firstSample = pcm.get(0);
+      if (keepSamples) {
+        short[] grown = Arrays.copyOf(encoded, encoded.length + FRAME_SIZE);
+        pcm.duplicate().get(grown, encoded.length, FRAME_SIZE);
+        encoded = grown;
+      }
+      frames++;
+      packet.put(0, (byte) 0xf0);
+      return PACKET_BYTES;
+    }
+  }
+
+  @Test public void floatInputIsSoftClippedAndEncodedAsIs() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new OpusWriterTest.CollectingConsumer());
+    encoder.onStart();
+    float[] samples = new float[CHUNK];
+    Arrays.fill(samples, 0.25f);
+    samples[FRAME_SIZE] = 1.5f;
+    encoder.encodeAndWrite(samples, 0, 250);
+    assertEquals(1, encoder.floatFrames);
+    assertEquals(0.25f, encoder.firstFloat, 0);
+    assertEquals(90, encoder.getBufferedSamples());
+    encoder.encodeAndWrite(FloatBuffer.wrap(samples, 250, CHUNK - 250));
+    assertEquals(2, encoder.floatFrames);
+    assertEquals(1f, encoder.firstFloat, 0);
+    assertEquals(2, encoder.softClips);
+    assertEquals(0, encoder.frames);
+
+    OpusEncoderConfiguration hardClipping = encoder.getConfiguration();
+    hardClipping.softClip = false;
+    encoder.configure(hardClipping);
+    encoder.encodeAndWrite(samples, FRAME_SIZE, FRAME_SIZE);
+    assertEquals(1.5f, encoder.firstFloat, 0);
+    assertEquals(2, encoder.softClips);
+  }
+
+  @Test public void formatsOnlyChangeAtFrameBoundaries() throws IOException {
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer);
+    encoder.onStart();
+    encoder.encodeAndWrite(new float[FRAME_SIZE + 10], 0, FRAME_SIZE + 10);
+    try {
+      encoder.encodeAndWrite(new short[CHUNK], 0, CHUNK);
+      fail("16-bit samples completing a float frame");
+    } catch (IllegalStateException expected) {
+    }
+    encoder.encodeAndWrite(new float[FRAME_SIZE - 10], 0, FRAME_SIZE - 10);
+    encoder.encodeAndWrite(new short[10], 0, 10);
+    try {
+      encoder.encodeAndWrite(new float[CHUNK], 0, CHUNK);
+      fail("float samples completing a 16-bit frame");
+    } catch (IllegalStateException expected) {
+    }
+    encoder.encodeAndWrite(new short[FRAME_SIZE - 10], 0, FRAME_SIZE - 10);
+    encoder.encodeAndWrite(new float[30], 0, 30);
+    encoder.finish();
+    assertEquals(3, encoder.floatFrames);
+    assertEquals(1, encoder.frames);
+
+    // the trailing float frame is trimmed like a 16-bit one
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    assertEquals((3 * FRAME_SIZE + 30) * 3 + LOOKAHEAD * 3, pages.get(pages.size() - 1).granulepos);
+  }
+
+  @Test public void byteAndShortInputEncodeTheSameSamples() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    encoder.onStart();
+    encoder.encodeAndWrite(new byte[]{0x34, 0x12}, 0, 2);
+    encoder.encodeAndWrite(new short[]{0, -2}, 1, 1);
+    encoder.encodeAndWrite(ShortBuffer.wrap(new short[]{0, 0, 7}, 2, 1));
+    assertEquals(0, encoder.frames);
+    assertEquals(3, encoder.getBufferedSamples());
+    encoder.keepSamples = true;
+    encoder.flush();
+    assertEquals(1, encoder.frames);
+    assertEquals(0x1234, encoder.encoded[0]);
+    assertEquals(-2, encoder.encoded[1]);
+    assertEquals(7, encoder.encoded[2]);
+    assertEquals(0, encoder.encoded[3]);
+  }
+
+  @Test public void anyChunkSizeEncodesWholeFrames() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    encoder.onStart();
+    encoder.keepSamples = true;
+    short[] samples = new short[FRAME_SIZE * 25 + 17];
+    byte[] bytes = new byte[samples.length * 2];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) (i * 31);
+      bytes[2 * i] = (byte) samples[i];
+      bytes[2 * i + 1] = (byte) (samples[i] >> 8);
+    }
+
+    // odd chunk sizes through all three inputs, splitting samples between byte calls
+    int[] chunks = {1, 7, 159, 161, 33, 480, 2, 77};
+    int position = 0;
+    for (int i = 0; position < samples.length; i++) {
+      int chunk = Math.min(chunks[i % chunks.length], samples.length - position);
+      if (i % 3 == 0) {
+        encoder.encodeAndWrite(samples, position, chunk);
+      } else if (i % 3 == 1) {
+        encoder.encodeAndWrite(ShortBuffer.wrap(samples, position, chunk));
+      } else {
+        encoder.encodeAndWrite(bytes, 2 * position, 1);
+        encoder.encodeAndWrite(bytes, 2 * position + 1, 2 * chunk - 1);
+      }
+      position += chunk;
+    }
+
+    assertEquals(25, encoder.frames);
+    assertEquals(17, encoder.getBufferedSamples());
+    assertTrue(Arrays.equals(Arrays.copyOf(samples, FRAME_SIZE * 25), encoder.encoded));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void samplesCannotCompleteHalfASample() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    encoder.onStart();
+    encoder.encodeAndWrite(new byte[]{1}, 0, 1);
+    encoder.encodeAndWrite(new short[]{1}, 0, 1);
+  }
+
+  @Test public void finishEncodesRemainderAndTrimsPadding() throws IOException {
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer);
+    encoder.onStart();
+    encoder.encodeAndWrite(new short[FRAME_SIZE * 3 + 40], 0, FRAME_SIZE * 3 + 40);
+    assertEquals(3, encoder.frames);
+    encoder.finish();
+    assertEquals(4, encoder.frames);
+    assertEquals(0, encoder.getBufferedSamples());
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    OpusWriterTest.Page last = pages.get(pages.size() - 1);
+    assertEquals(4, last.headerType);
+    assertEquals(4, last.lacing.length);
+    // 16 kHz samples count three times at 48 kHz, after the pre-skip; the padding of the last frame covers the
+    // lookahead, so no frame of silence follows
+    assertEquals(encoder.getPreSkip() + (FRAME_SIZE * 3 + 40) * 3, last.granulepos);
+    assertTrue(last.granulepos <= 4 * FRAME_SIZE * 3);
+  }
+
+  @Test public void finishFlushesTheLookaheadAfterFrameAlignedInput() throws IOException {
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer);
+    encoder.onStart();
+    encoder.encodeAndWrite(new short[FRAME_SIZE * 3], 0, FRAME_SIZE * 3);
+    encoder.finish();
+    assertEquals(4, encoder.frames);
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    OpusWriterTest.Page last = pages.get(pages.size() - 1);
+    assertEquals(4, last.lacing.length);
+    // only the real samples count, and the packets decode to at least that many
+    assertEquals(encoder.getPreSkip() + FRAME_SIZE * 3 * 3, last.granulepos);
+    assertTrue(last.granulepos <= 4 * FRAME_SIZE * 3);
+
+    assertEquals(0, OggOpusEnc.flushFrames(LOOKAHEAD, FRAME_SIZE - 40, FRAME_SIZE));
+    assertEquals(1, OggOpusEnc.flushFrames(LOOKAHEAD, FRAME_SIZE - 100, FRAME_SIZE));
+    assertEquals(2, OggOpusEnc.flushFrames(312, 0, FRAME_SIZE));
+  }
+
+  @Test public void headersAreWrittenOnceWithPreSkip() throws IOException {
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer);
+    assertEquals(OpusWriter.State.NEW, encoder.getState());
+    encoder.onStart();
+    assertEquals(OpusWriter.State.STREAMING, encoder.getState());
+    for (int i = 0; i < 200; i++) {
+      encoder.encodeAndWrite(new short[CHUNK], 0, CHUNK);
+    }
+    encoder.finish();
+    assertEquals(OpusWriter.State.FINISHED, encoder.getState());
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    assertEquals("OpusHead", new String(pages.get(0).body, 0, 8, "US-ASCII"));
+    assertEquals(LOOKAHEAD * 3, OpusWriterTest.readInt(pages.get(0).body, 10) & 0xffff);
+    assertEquals("OpusTags", new String(pages.get(1).body, 0, 8, "US-ASCII"));
+    int packets = 0;
+    for (int i = 2; i < pages.size(); i++) {
+      assertTrue(new String(pages.get(i).body, "ISO-8859-1").indexOf("Opus") < 0);
+      packets += pages.get(i).lacing.length;
+    }
+    // the last frame of silence flushes the lookahead
+    assertEquals(401, packets);
+  }
+
+  @Test public void emptyStreamIsStillComplete() throws IOException {
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    new FakeOpusEnc(consumer).finish();
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    assertEquals(3, pages.size());
+    assertEquals(4, pages.get(2).headerType);
+  }
+
+  @Test public void resetStartsNextStreamOnSameEncoder() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    encoder.onStart();
+    encoder.encodeAndWrite(new short[FRAME_SIZE + 1], 0, FRAME_SIZE + 1);
+    encoder.finish();
+
+    OpusWriterTest.CollectingConsumer next = new OpusWriterTest.CollectingConsumer();
+    encoder.reset(next);
+    assertEquals(1, encoder.resets);
+    assertEquals(OpusWriter.State.NEW, encoder.getState());
+    assertEquals(0, encoder.getBufferedSamples());
+    encoder.onStart();
+    encoder.encodeAndWrite(new short[FRAME_SIZE], 0, FRAME_SIZE);
+    encoder.finish();
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(next.received.toByteArray());
+    assertEquals("OpusHead", new String(pages.get(0).body, 0, 8, "US-ASCII"));
+    assertEquals(encoder.getPreSkip() + FRAME_SIZE * 3, pages.get(pages.size() - 1).granulepos);
+  }
+
+  @Test public void outOfOrderCallsAreRejected() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    assertRejected(encoder, "encode before onStart");
+    encoder.onStart();
+    try {
+      encoder.onStart();
+      fail("onStart twice");
+    } catch (IllegalStateException expected) {
+    }
+    try {
+      encoder.reset(new CountingConsumer());
+      fail("reset while streaming");
+    } catch (IllegalStateException expected) {
+    }
+    encoder.finish();
+    assertRejected(encoder, "encode after finish");
+    try {
+      encoder.finish();
+      fail("finish twice");
+    } catch (IllegalStateException expected) {
+    }
+    encoder.release();
+    encoder.release();
+    try {
+      encoder.reset(new CountingConsumer());
+      fail("reset after release");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void defaultSettingsAreAppliedAtCreation() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    assertEquals(JNAOpus.OPUS_APPLICATION_VOIP, encoder.application);
+    assertEquals(JNAOpus.OPUS_AUTO, (int) encoder.ctls.get(JNAOpus.OPUS_SET_BITRATE_REQUEST));
+    assertEquals(16, (int) encoder.ctls.get(JNAOpus.OPUS_SET_LSB_DEPTH_REQUEST));
+    assertEquals(JNAOpus.OPUS_BANDWIDTH_FULLBAND, (int) encoder.ctls.get(JNAOpus.OPUS_SET_MAX_BANDWIDTH_REQUEST));
+    assertEquals(11, encoder.ctls.size());
+  }
+
+  @Test public void profilesCanBeOverriddenAndChangedMidStream() throws IOException {
+    OpusEncoderConfiguration archival = OpusEncoderConfiguration.archival();
+    archival.bitrate = 128000;
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer(), archival);
+    assertEquals(JNAOpus.OPUS_APPLICATION_AUDIO, encoder.application);
+    assertEquals(128000, (int) encoder.ctls.get(JNAOpus.OPUS_SET_BITRATE_REQUEST));
+    archival.bitrate = 64000;
+    assertEquals(128000, encoder.getConfiguration().bitrate);
+
+    encoder.onStart();
+    encoder.encodeAndWrite(new short[CHUNK], 0, CHUNK);
+    OpusEncoderConfiguration cheaper = encoder.getConfiguration();
+    cheaper.complexity = 0;
+    cheaper.dtx = true;
+    encoder.configure(cheaper);
+    assertEquals(0, (int) encoder.ctls.get(JNAOpus.OPUS_SET_COMPLEXITY_REQUEST));
+    assertEquals(1, (int) encoder.ctls.get(JNAOpus.OPUS_SET_DTX_REQUEST));
+    encoder.encodeAndWrite(new short[CHUNK], 0, CHUNK);
+    encoder.finish();
+    // archival uses 20 ms frames, and one more flushes the lookahead
+    assertEquals(3, encoder.frames);
+  }
+
+  @Test public void longerFramesAccumulateMoreAudioPerPacket() throws IOException {
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    configuration.frameDurationMillis = 60;
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer, configuration);
+    assertEquals(960, encoder.getFrameSize());
+    encoder.onStart();
+    for (int i = 0; i < SAMPLE_RATE / CHUNK; i++) {
+      encoder.encodeAndWrite(new short[CHUNK], 0, CHUNK);
+    }
+    assertEquals(16, encoder.frames);
+    assertEquals(SAMPLE_RATE - 16 * 960, encoder.getBufferedSamples());
+    encoder.finish();
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    int packets = 0;
+    for (int i = 2; i < pages.size(); i++) {
+      packets += pages.get(i).lacing.length;
+    }
+    assertEquals(17, packets);
+    assertEquals(encoder.getPreSkip() + SAMPLE_RATE * 3, pages.get(pages.size() - 1).granulepos);
+
+    configuration.frameDurationMillis = 20;
+    try {
+      encoder.configure(configuration);
+      fail("frame duration changed");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void repacketizedStreamsCarryFewerPacketsOfTheSameAudio() throws IOException {
+    OpusEncoderConfiguration configuration = new OpusEncoderConfiguration();
+    configuration.packetDurationMillis = 60;
+    OpusWriterTest.CollectingConsumer consumer = new OpusWriterTest.CollectingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer, configuration);
+    encoder.onStart();
+    encoder.encodeAndWrite(new short[FRAME_SIZE * 14 + 40], 0, FRAME_SIZE * 14 + 40);
+    encoder.finish();
+    assertEquals(15, encoder.frames);
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(consumer.received.toByteArray());
+    int packets = 0;
+    for (int i = 2; i < pages.size(); i++) {
+      packets += pages.get(i).lacing.length;
+    }
+    // 6, 6 and the last 3 frames, each a code 3 packet of equally long frames
+    assertEquals(3, packets);
+    assertEquals(2 + 6 * (PACKET_BYTES - 1), pages.get(2).lacing[0] & 0xff);
+    assertEquals(encoder.getPreSkip() + (FRAME_SIZE * 14 + 40) * 3, pages.get(pages.size() - 1).granulepos);
+
+    configuration.packetDurationMillis = 20;
+    try {
+      encoder.configure(configuration);
+      fail("packet duration changed");
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+
+  @Test public void namedProfilesDiffer() {
+    assertEquals(OpusEncoderConfiguration.Application.RESTRICTED_LOWDELAY,
+            OpusEncoderConfiguration.lowestLatency().application);
+    assertTrue(OpusEncoderConfiguration.lowestBandwidth().dtx);
+    assertEquals(12000, OpusEncoderConfiguration.lowestBandwidth().bitrate);
+    assertEquals(0, OpusEncoderConfiguration.lowestCpu().complexity);
+    assertEquals(OpusEncoderConfiguration.Application.AUDIO, OpusEncoderConfiguration.archival().application);
+  }
+
+  @Test public void invalidSettingsAreRejected() throws IOException {
+    FakeOpusEnc encoder = new FakeOpusEnc(new CountingConsumer());
+    OpusEncoderConfiguration[] invalid = new OpusEncoderConfiguration[4];
+    for (int i = 0; i < invalid.length; i++) {
+      invalid[i] = new OpusEncoderConfiguration();
+    }
+    invalid[0].complexity = 11;
+    invalid[1].bitrate = 100;
+    invalid[2].maxBandwidth = OpusEncoderConfiguration.Bandwidth.AUTO;
+    // the application decides the lookahead the headers announce
+    invalid[3].application = OpusEncoderConfiguration.Application.RESTRICTED_LOWDELAY;
+    for (OpusEncoderConfiguration configuration : invalid) {
+      try {
+        encoder.configure(configuration);
+        fail(configuration.toString());
+      } catch (IllegalArgumentException expected) {
+      }
+    }
+    assertEquals(new OpusEncoderConfiguration().toString(), encoder.getConfiguration().toString());
+  }
+
+  private static void assertRejected(OggOpusEnc encoder, String message) throws IOException {
+    try {
+      encoder.encodeAndWrite(new short[1], 0, 1);
+      fail(message);
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  @Test public void encodingDoesNotAllocate() throws IOException {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+
+    CountingConsumer consumer = new CountingConsumer();
+    FakeOpusEnc encoder = new FakeOpusEnc(consumer);
+    encoder.onStart();
+    short[] samples = new short[CHUNK];
+    byte[] bytes = new byte[CHUNK * 2];
+
+    // warm up so class loading and JIT do not show up in the measurement
+    for (int i = 0; i < 1000; i++) {
+      encoder.encodeAndWrite(samples, 0, CHUNK);
+      encoder.encodeAndWrite(bytes, 0, bytes.length);
+    }
+
+    int seconds = 60;
+    int chunksPerSecond = SAMPLE_RATE / CHUNK;
+    long before = allocatedBytes();
+    for (int i = 0; i < seconds * chunksPerSecond; i++) {
+      // half the audio through each input type
+      if (i % 2 == 0) {
+        encoder.encodeAndWrite(samples, 0, CHUNK);
+      } else {
+        encoder.encodeAndWrite(bytes, 0, bytes.length);
+      }
+    }
+    long perSecond = (allocatedBytes() - before) / seconds;
+    encoder.finish();
+
+    // plus the frame flushing the lookahead
+    assertEquals(4000 + seconds * chunksPerSecond * 2 + 1, encoder.frames);
+    assertTrue(consumer.bytes > encoder.frames * PACKET_BYTES);
+    System.out.println("OggOpusEnc: " + perSecond + " bytes allocated per encoded second");
+    assertTrue("allocated " + perSecond + " bytes per encoded second", perSecond < 64);
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.ibm.watson.developer_cloud.android.library.audio.AudioConsumer;
+import com.ibm.watson.developer_cloud.android.library.audio.PcmSource;
+import com.ibm.watson.developer_cloud.android.library.audio.SyntheticSource;
+import com.sun.jna.NativeLibrary;
+import com.sun.jna.Pointer;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests and throughput benchmark for {@link OggOpusTranscoder}. The benchmark needs libopus on the library path, so it
+ * only runs on devices and on hosts where it is installed.
+ */
+public class OggOpusTranscoderTest {
+  private static final int SAMPLE_RATE = 16000;
+  private static final int FRAME_SIZE = 160;
+  private static final int LOOKAHEAD = 104;
+  private static final int PRE_SKIP = LOOKAHEAD * 48000 / SAMPLE_RATE;
+
+  /**
+   * Stands in for libopus: every packet holds the first sample of its frame.
+   */
+  private static final class FakeOpusEnc extends OggOpusEnc {
+    FakeOpusEnc(AudioConsumer ac, OpusEncoderConfiguration configuration) throws IOException {
+      super(ac, SAMPLE_RATE, 1, configuration);
+    }
+
+    @Override
+    protected Pointer createEncoder(int sampleRate, int channels, int application) {
+      return null;
+    }
+
+    @Override
+    protected int encoderCtl(int request, int value) {
+      return JNAOpus.OPUS_OK;
+    }
+
+    @Override
+    protected int getLookahead() {
+      return LOOKAHEAD;
+    }
+
+    @Override
+    protected int encodeFrame(ShortBuffer pcm, ByteBuffer packet) {
+      packet.putShort(0, pcm.get(0));
+      packet.put(2, (byte) 0);
+      return 3;
+    }
+  }
+
+  private static final class FakeTranscoder extends OggOpusTranscoder {
+    FakeTranscoder() {
+      super(new OpusEncoderConfiguration());
+    }
+
+    @Override
+    protected OggOpusEnc createEncoder(AudioConsumer consumer, int sampleRate, int channels,
+                                       OpusEncoderConfiguration settings, OpusStatePool pool) throws IOException {
+      return new FakeOpusEnc(consumer, settings);
+    }
+  }
+
+  /**
+   * Replays samples in uneven chunks, as fast as they are read.
+   */
+  private static final class ArraySource implements PcmSource {
+    private final short[] samples;
+    private int position;
+
+    ArraySource(short[] samples) {
+      this.samples = samples;
+    }
+
+    @Override public int getSampleRate() {
+      return SAMPLE_RATE;
+    }
+
+    @Override public int getChannels() {
+      return 1;
+    }
+
+    @Override public void start() {
+    }
+
+    @Override public int read(short[] buffer, int offset, int length) {
+      if (position == samples.length) {
+        return -1;
+      }
+      int count = Math.min(Math.min(length, 1234), samples.length - position);
+      System.arraycopy(samples, position, buffer, offset, count);
+      position += count;
+      return count;
+    }
+
+    @Override public void stop() {
+    }
+  }
+
+  /**
+   * Samples that tell which frame they belong to.
+   */
+  private static short[] numberedFrames(int length) {
+    short[] samples = new short[length];
+    for (int i = 0; i < length; i++) {
+      samples[i] = (short) (i / FRAME_SIZE);
+    }
+    return samples;
+  }
+
+  private static int frameOf(byte[] packet) {
+    return ByteBuffer.wrap(packet).getShort(0);
+  }
+
+  @Test public void singleStreamContinuesAcrossSegments() throws IOException {
+    int length = 95 * SAMPLE_RATE + 37;
+    OggOpusTranscoder transcoder = new FakeTranscoder();
+    transcoder.setThreads(3);
+    transcoder.setSegmentMillis(10000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(length, transcoder.transcode(new ArraySource(numberedFrames(length)), out));
+
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(out.toByteArray());
+    assertEquals(2, pages.get(0).headerType);
+    assertEquals(PRE_SKIP, pages.get(0).body[10] & 0xff | (pages.get(0).body[11] & 0xff) << 8);
+    long granulepos = 0;
+    for (int i = 1; i < pages.size(); i++) {
+      assertEquals(i == pages.size() - 1 ? 4 : 0, pages.get(i).headerType);
+      assertTrue(pages.get(i).granulepos >= granulepos);
+      granulepos = pages.get(i).granulepos;
+    }
+    assertEquals(PRE_SKIP + (long) length * 48000 / SAMPLE_RATE, granulepos);
+
+    // no frame is missing or encoded twice where segments meet
+    List<byte[]> packets = OggOpusTranscoder.readPackets(out.toByteArray());
+    assertEquals(2 + (length + FRAME_SIZE - 1) / FRAME_SIZE, packets.size());
+    for (int i = 2; i < packets.size(); i++) {
+      assertEquals(i - 2, frameOf(packets.get(i)));
+    }
+  }
+
+  @Test public void singleStreamEndsWithTheLookaheadFlushed() throws IOException {
+    // frame-aligned, so no padding covers the lookahead of the last segment
+    int length = 95 * SAMPLE_RATE;
+    OggOpusTranscoder transcoder = new FakeTranscoder();
+    transcoder.setThreads(3);
+    transcoder.setSegmentMillis(10000);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transcoder.transcode(new ArraySource(numberedFrames(length)), out);
+
+    List<byte[]> packets = OggOpusTranscoder.readPackets(out.toByteArray());
+    assertEquals(2 + length / FRAME_SIZE + 1, packets.size());
+    assertEquals(0, frameOf(packets.get(packets.size() - 1)));
+    List<OpusWriterTest.Page> pages = OpusWriterTest.parse(out.toByteArray());
+    long granulepos = pages.get(pages.size() - 1).granulepos;
+    assertEquals(PRE_SKIP + (long) length * 48000 / SAMPLE_RATE, granulepos);
+    assertTrue(granulepos <= (long) (packets.size() - 2) * FRAME_SIZE * 48000 / SAMPLE_RATE);
+  }
+
+  @Test public void chainedStreamsAreCompleteLinks() throws IOException {
+    int length = 95 * SAMPLE_RATE + 37;
+    OggOpusTranscoder transcoder = new FakeTranscoder();
+    transcoder.setThreads(3);
+    transcoder.setSegmentMillis(10000);
+    transcoder.setOutput(OggOpusTranscoder.Output.CHAINED_STREAMS);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transcoder.transcode(new ArraySource(numberedFrames(length)), out);
+
+    int links = 0;
+    long samples = 0;
+    long decoded = 0;
+    for (OpusWriterTest.Page page : OpusWriterTest.parse(out.toByteArray())) {
+      if ((page.headerType & 2) != 0) {
+        links++;
+        decoded = 0;
+        assertEquals("OpusHead", new String(page.body, 0, 8, "US-ASCII"));
+      } else if (page.granulepos > 0) {
+        decoded += (long) page.lacing.length * FRAME_SIZE * 48000 / SAMPLE_RATE;
+      }
+      if ((page.headerType & 4) != 0) {
+        // each link flushes its own lookahead, so its packets decode to at least what its granule position claims
+        assertTrue(page.granulepos <= decoded);
+        samples += (page.granulepos - PRE_SKIP) * SAMPLE_RATE / 48000;
+      }
+    }
+    assertTrue("only " + links + " links", links >= 8 && links <= 13);
+    assertEquals(length, samples);
+
+    // every link starts where the previous one ended, after the silence flushing the lookahead of the previous one
+    List<byte[]> packets = OggOpusTranscoder.readPackets(out.toByteArray());
+    int frame = 0;
+    for (byte[] packet : packets) {
+      if (packet.length == 3 && (frame == 0 || frameOf(packet) != 0)) {
+        assertEquals(frame++, frameOf(packet));
+      }
+    }
+    assertEquals((length + FRAME_SIZE - 1) / FRAME_SIZE, frame);
+  }
+
+  @Test public void cutsFallIntoSilence() {
+    short[] samples = new short[100 * FRAME_SIZE];
+    for (int i = 0; i < samples.length; i++) {
+      samples[i] = (short) (i % 7 * 1000 - 3000);
+    }
+    for (int i = 61 * FRAME_SIZE; i < 63 * FRAME_SIZE; i++) {
+      samples[i] = 0;
+    }
+    assertEquals(62 * FRAME_SIZE, OggOpusTranscoder.findCut(samples, 40 * FRAME_SIZE, 90 * FRAME_SIZE, FRAME_SIZE));
+  }
+
+  @Test public void emptySourceGivesEmptyStream() throws IOException {
+    for (OggOpusTranscoder.Output output : OggOpusTranscoder.Output.values()) {
+      OggOpusTranscoder transcoder = new FakeTranscoder();
+      transcoder.setOutput(output);
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertEquals(0, transcoder.transcode(new ArraySource(new short[0]), out));
+      List<OpusWriterTest.Page> pages = OpusWriterTest.parse(out.toByteArray());
+      assertEquals(3, pages.size());
+      assertEquals(4, pages.get(2).headerType);
+      assertEquals(PRE_SKIP, pages.get(2).granulepos);
+    }
+  }
+
+  @Test public void parallelTranscodingThroughput() throws IOException {
+    try {
+      NativeLibrary.getInstance(JNAOpus.JNA_LIBRARY_NAME);
+    } catch (UnsatisfiedLinkError e) {
+      Assume.assumeTrue("libopus not available", false);
+    }
+    long durationMillis = 10 * 60000;
+
+    long start = System.nanoTime();
+    OggOpusEnc encoder = new OggOpusEnc(new OpusWriterTest.CollectingConsumer(), SAMPLE_RATE, 1,
+            new OpusEncoderConfiguration());
+    SyntheticSource source = new SyntheticSource(SyntheticSource.Signal.SPEECH, durationMillis);
+    short[] buffer = new short[4096];
+    int read;
+    encoder.onStart();
+    source.start();
+    while ((read = source.read(buffer, 0, buffer.length)) != -1) {
+      encoder.encodeAndWrite(buffer, 0, read);
+    }
+    source.stop();
+    encoder.close();
+    long sequentialNanos = System.nanoTime() - start;
+
+    OggOpusTranscoder transcoder = new OggOpusTranscoder(new OpusEncoderConfiguration());
+    start = System.nanoTime();
+    transcoder.transcode(new SyntheticSource(SyntheticSource.Signal.SPEECH, durationMillis),
+            new ByteArrayOutputStream());
+    long parallelNanos = System.nanoTime() - start;
+
+    // timings depend on the host, so they are reported rather than asserted
+    System.out.println("OggOpusTranscoder: " + durationMillis * 1000000 / sequentialNanos
+            + "x real time on one encoder, " + durationMillis * 1000000 / parallelNanos + "x on "
+            + transcoder.getThreads() + " threads");
+  }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for {@link OpusRepacketizer}.
+ */
+public class OpusRepacketizerTest {
+  private static final int SAMPLE_RATE = 16000;
+  /**
+   * CELT narrowband, 10 ms frames.
+   */
+  private static final byte CELT_10MS = (byte) 0x90;
+  /**
+   * CELT narrowband, 20 ms frames.
+   */
+  private static final byte CELT_20MS = (byte) 0x98;
+
+  /**
+   * Stands in for the libopus repacketizer, for packets of one frame and packets of equally long frames.
+   */
+  static final class FakeRepacketizer extends OpusRepacketizer {
+    private final List<byte[]> frames = new ArrayList<>();
+    private int toc;
+    int destroyed;
+
+    FakeRepacketizer(OpusWriter writer, int sampleRate, int packetDurationMillis) {
+      super(writer, sampleRate, packetDurationMillis);
+    }
+
+    @Override
+    protected void init() {
+      frames.clear();
+    }
+
+    @Override
+    protected int cat(ByteBuffer input, int offset, int length) {
+      byte[] packet = new byte[length];
+      for (int i = 0; i < length; i++) {
+        packet[i] = input.get(offset + i);
+      }
+      int count = framesIn(packet, 0, length);
+      int header = (packet[0] & 0x3) == 3 ? 2 : 1;
+      if (count <= 0 || (packet[0] & 0x3) == 2 || (!frames.isEmpty() && (packet[0] & 0xfc) != toc)
+              || (frames.size() + count) * samplesPerFrame(packet[0], 48000) > 5760) {
+        return JNAOpus.OPUS_INVALID_PACKET;
+      }
+      toc = packet[0] & 0xfc;
+      int size = (length - header) / count;
+      for (int i = 0; i < count; i++) {
+        frames.add(Arrays.copyOfRange(packet, header + i * size, header + (i + 1) * size));
+      }
+      return JNAOpus.OPUS_OK;
+    }
+
+    @Override
+    protected int outRange(int begin, int end, ByteBuffer output) {
+      int position = 0;
+      if (end - begin == 1) {
+        output.put(position++, (byte) toc);
+      } else {
+        output.put(position++, (byte) (toc | 3));
+        output.put(position++, (byte) (end - begin));
+      }
+      for (int i = begin; i < end; i++) {
+        assertEquals(frames.get(begin).length, frames.get(i).length);
+        for (byte b : frames.get(i)) {
+          output.put(position++, b);
+        }
+      }
+      return position;
+    }
+
+    @Override
+    protected void destroy() {
+      destroyed++;
+    }
+  }
+
+  /**
+   * Records the packets instead of writing Ogg pages.
+   */
+  private static final class PacketWriter extends OpusWriter {
+    final List<byte[]> packets = new ArrayList<>();
+    final List<Integer> samples = new ArrayList<>();
+
+    @Override
+    public void writePacket(byte[] data, int offset, int len, int frames) {
+      packets.add(Arrays.copyOfRange(data, offset, offset + len));
+      samples.add(frames);
+    }
+  }
+
+  private static void write(OpusRepacketizer repacketizer, int samples, byte... packet) throws IOException {
+    repacketizer.writePacket(packet, 0, packet.length, samples);
+  }
+
+  @Test public void framesAreMergedIntoPacketsOfTheTargetDuration() throws IOException {
+    PacketWriter writer = new PacketWriter();
+    FakeRepacketizer repacketizer = new FakeRepacketizer(writer, SAMPLE_RATE, 60);
+    for (int i = 0; i < 13; i++) {
+      write(repacketizer, 160, CELT_10MS, (byte) i, (byte) i);
+    }
+    // the end of a stream counts for less than the frame holds
+    write(repacketizer, 100, CELT_10MS, (byte) 13, (byte) 13);
+    assertEquals(2, writer.packets.size());
+    assertEquals(2, repacketizer.getBufferedFrames());
+    repacketizer.flush();
+
+    assertEquals(3, writer.packets.size());
+    assertArrayEquals(new byte[]{(byte) 0x93, 6, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5}, writer.packets.get(0));
+    assertArrayEquals(new byte[]{(byte) 0x93, 2, 12, 12, 13, 13}, writer.packets.get(2));
+    assertEquals(Arrays.asList(960, 960, 260), writer.samples);
+    assertEquals(0, repacketizer.getBufferedFrames());
+  }
+
+  @Test public void longPacketsAreSplitIntoTheirFrames() throws IOException {
+    PacketWriter writer = new PacketWriter();
+    FakeRepacketizer repacketizer = new FakeRepacketizer(writer, SAMPLE_RATE, 20);
+    write(repacketizer, 960, (byte) (CELT_20MS | 3), (byte) 3, (byte) 1, (byte) 1, (byte) 2, (byte) 2, (byte) 3,
+            (byte) 3);
+
+    assertEquals(3, writer.packets.size());
+    assertArrayEquals(new byte[]{CELT_20MS, 2, 2}, writer.packets.get(1));
+    assertEquals(Arrays.asList(320, 320, 320), writer.samples);
+    assertEquals(0, repacketizer.getBufferedFrames());
+  }
+
+  @Test public void aChangeOfModeEndsThePacket() throws IOException {
+    PacketWriter writer = new PacketWriter();
+    FakeRepacketizer repacketizer = new FakeRepacketizer(writer, SAMPLE_RATE, 60);
+    write(repacketizer, 160, CELT_10MS, (byte) 1);
+    write(repacketizer, 160, CELT_10MS, (byte) 2);
+    for (int i = 0; i < 3; i++) {
+      write(repacketizer, 320, CELT_20MS, (byte) 3, (byte) 3);
+    }
+
+    assertEquals(2, writer.packets.size());
+    assertArrayEquals(new byte[]{(byte) 0x93, 2, 1, 2}, writer.packets.get(0));
+    assertArrayEquals(new byte[]{(byte) 0x9b, 3, 3, 3, 3, 3, 3, 3}, writer.packets.get(1));
+    assertEquals(Arrays.asList(320, 960), writer.samples);
+  }
+
+  @Test public void packetsItCannotTakeApartGoOutInOrder() throws IOException {
+    PacketWriter writer = new PacketWriter();
+    FakeRepacketizer repacketizer = new FakeRepacketizer(writer, SAMPLE_RATE, 60);
+    write(repacketizer, 160, CELT_10MS, (byte) 1);
+    write(repacketizer, 160, (byte) (CELT_10MS | 3));
+    write(repacketizer, 160, CELT_10MS, (byte) 2);
+    repacketizer.flush();
+
+    assertEquals(3, writer.packets.size());
+    assertArrayEquals(new byte[]{CELT_10MS, 1}, writer.packets.get(0));
+    assertArrayEquals(new byte[]{(byte) 0x93}, writer.packets.get(1));
+    assertArrayEquals(new byte[]{CELT_10MS, 2}, writer.packets.get(2));
+    repacketizer.release();
+    repacketizer.release();
+  }
+
+  @Test public void tocBytesGiveFramesAndDurations() {
+    // SILK 10 and 60 ms, hybrid 10 and 20 ms, CELT 2.5 and 20 ms
+    assertEquals(480, OpusRepacketizer.samplesPerFrame((byte) 0x00, 48000));
+    assertEquals(2880, OpusRepacketizer.samplesPerFrame((byte) 0x18, 48000));
+    assertEquals(480, OpusRepacketizer.samplesPerFrame((byte) 0x60, 48000));
+    assertEquals(960, OpusRepacketizer.samplesPerFrame((byte) 0x68, 48000));
+    assertEquals(120, OpusRepacketizer.samplesPerFrame((byte) 0x80, 48000));
+    assertEquals(960, OpusRepacketizer.samplesPerFrame((byte) 0xf8, 48000));
+    assertEquals(160, OpusRepacketizer.samplesPerFrame(CELT_10MS, SAMPLE_RATE));
+
+    assertEquals(1, OpusRepacketizer.framesIn(new byte[]{0x00}, 0, 1));
+    assertEquals(2, OpusRepacketizer.framesIn(new byte[]{0x01, 0}, 0, 2));
+    assertEquals(2, OpusRepacketizer.framesIn(new byte[]{0x02, 0}, 0, 2));
+    assertEquals(5, OpusRepacketizer.framesIn(new byte[]{0x03, (byte) 0x85}, 0, 2));
+    assertEquals(-1, OpusRepacketizer.framesIn(new byte[]{0x03}, 0, 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void packetsLongerThanOpusAllowsAreRejected() {
+    new FakeRepacketizer(new PacketWriter(), SAMPLE_RATE, 121);
+  }
+}
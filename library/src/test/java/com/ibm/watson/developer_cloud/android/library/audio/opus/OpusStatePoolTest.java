@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.sun.jna.Pointer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link OpusStatePool}.
+ */
+public class OpusStatePoolTest {
+
+  /**
+   * Hands out fake native states and records what happens to them.
+   */
+  private static final class FakePool extends OpusStatePool {
+    long nextAddress = 0x1000;
+    int resets;
+    final List<Pointer> destroyed = new ArrayList<>();
+
+    FakePool(int maxIdlePerKey) {
+      super(maxIdlePerKey);
+    }
+
+    @Override
+    protected Pointer createEncoderState(int sampleRate, int channels, int application) {
+      return new Pointer(nextAddress += 0x100);
+    }
+
+    @Override
+    protected Pointer createDecoderState(int sampleRate, int channels) {
+      return new Pointer(nextAddress += 0x100);
+    }
+
+    @Override
+    protected void resetState(Pointer state, boolean decoder) {
+      resets++;
+    }
+
+    @Override
+    protected void destroyState(Pointer state, boolean decoder) {
+      destroyed.add(state);
+    }
+  }
+
+  /**
+   * Encoder that leases from a pool but stands in for the rest of libopus.
+   */
+  private static final class PooledOpusEnc extends OggOpusEnc {
+    PooledOpusEnc(OpusStatePool pool) throws IOException {
+      super(null, 16000, 1, new OpusEncoderConfiguration(), pool);
+    }
+
+    @Override
+    protected int getLookahead() {
+      return 104;
+    }
+
+    @Override
+    protected int encoderCtl(int request, int value) {
+      return JNAOpus.OPUS_OK;
+    }
+  }
+
+  @Test public void returnedStatesAreResetAndReusedPerFormat() throws IOException {
+    FakePool pool = new FakePool(2);
+    OpusStatePool.State first = pool.leaseEncoder(16000, 1, JNAOpus.OPUS_APPLICATION_VOIP);
+    Pointer pointer = first.getPointer();
+    pool.giveBack(first);
+    assertEquals(1, pool.getIdleCount());
+
+    // another format gets its own state
+    OpusStatePool.State stereo = pool.leaseEncoder(16000, 2, JNAOpus.OPUS_APPLICATION_VOIP);
+    assertNotSame(pointer, stereo.getPointer());
+    OpusStatePool.State decoder = pool.leaseDecoder(16000, 1);
+    assertTrue(decoder.isDecoder());
+    assertNotSame(pointer, decoder.getPointer());
+    assertEquals(0, pool.resets);
+
+    OpusStatePool.State again = pool.leaseEncoder(16000, 1, JNAOpus.OPUS_APPLICATION_VOIP);
+    assertSame(pointer, again.getPointer());
+    assertEquals(1, pool.resets);
+    assertEquals(3, pool.getCreatedCount());
+    assertEquals(3, pool.getLeasedCount());
+    assertEquals(0, pool.getIdleCount());
+  }
+
+  @Test public void idleStatesAreBounded() throws IOException {
+    FakePool pool = new FakePool(2);
+    List<OpusStatePool.State> states = new ArrayList<>();
+    for (int i = 0; i < 5; i++) {
+      states.add(pool.leaseEncoder(48000, 1, JNAOpus.OPUS_APPLICATION_AUDIO));
+    }
+    for (OpusStatePool.State state : states) {
+      pool.giveBack(state);
+    }
+    assertEquals(2, pool.getIdleCount());
+    assertEquals(3, pool.destroyed.size());
+
+    pool.clear();
+    assertEquals(0, pool.getIdleCount());
+    assertEquals(5, pool.destroyed.size());
+  }
+
+  @Test public void stateCannotBeGivenBackTwice() throws IOException {
+    FakePool pool = new FakePool(2);
+    OpusStatePool.State state = pool.leaseDecoder(8000, 1);
+    pool.giveBack(state);
+    try {
+      pool.giveBack(state);
+      fail("given back twice");
+    } catch (IllegalStateException expected) {
+    }
+    assertEquals(1, pool.getIdleCount());
+  }
+
+  @Test public void leaksAreDetectedAndReclaimed() throws IOException, InterruptedException {
+    FakePool pool = new FakePool(2);
+    pool.setRecordLeaseSites(true);
+    Pointer leaked = leaseAndDrop(pool);
+    OpusStatePool.State kept = pool.leaseEncoder(16000, 1, JNAOpus.OPUS_APPLICATION_VOIP);
+
+    for (int i = 0; i < 100 && pool.getLeakedCount() == 0; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertEquals(1, pool.getLeakedCount());
+    assertEquals(1, pool.getLeasedCount());
+    assertEquals(leaked, pool.destroyed.get(0));
+    pool.giveBack(kept);
+  }
+
+  private static Pointer leaseAndDrop(OpusStatePool pool) throws IOException {
+    return pool.leaseEncoder(16000, 1, JNAOpus.OPUS_APPLICATION_VOIP).getPointer();
+  }
+
+  @Test public void encodersLeaseFromTheirPool() throws IOException {
+    FakePool pool = new FakePool(2);
+    OggOpusEnc encoder = new PooledOpusEnc(pool);
+    assertEquals(1, pool.getLeasedCount());
+    encoder.release();
+    encoder.release();
+    assertEquals(0, pool.getLeasedCount());
+    assertEquals(1, pool.getIdleCount());
+
+    // the next session's encoder needs no new native state
+    new PooledOpusEnc(pool).release();
+    assertEquals(1, pool.getCreatedCount());
+    assertEquals(1, pool.resets);
+  }
+
+  @Test public void initializingAgainGivesThePreviousLeaseBack() throws IOException {
+    FakePool pool = new FakePool(2);
+    OggOpusEnc encoder = new PooledOpusEnc(pool);
+    encoder.initEncoder(null, 48000, 2, new OpusEncoderConfiguration());
+    assertEquals(1, pool.getLeasedCount());
+    assertEquals(1, pool.getIdleCount());
+    encoder.release();
+    assertEquals(0, pool.getLeasedCount());
+    assertEquals(2, pool.getIdleCount());
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017 IBM Corp. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on
+ * an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+
+package com.ibm.watson.developer_cloud.android.library.audio.opus;
+
+import com.ibm.watson.developer_cloud.android.library.audio.AudioConsumer;
+import com.ibm.watson.developer_cloud.android.library.audio.utils.ContentType;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the Ogg framing written by {@link OpusWriter}.
+ */
+public class OpusWriterTest {
+
+  static class CollectingConsumer implements AudioConsumer {
+    final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+    @Override public void consume(byte[] data, double amplitude, double volume) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data) {
+      consume(data, 0, data.length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length, double amplitude, double volume) {
+      consume(data, offset, length);
+    }
+
+    @Override public void consume(byte[] data, int offset, int length) {
+      received.write(data, offset, length);
+    }
+  }
+
+  /**
+   * One parsed Ogg page.
+   */
+  static final class Page {
+    int headerType;
+    long granulepos;
+    int[] lacing;
+    byte[] body;
+  }
+
+  @Test public void headerDescribesFormat() throws IOException {
+    List<Page> pages = writeStream(48000, 2, 0);
+    byte[] head = pages.get(0).body;
+    assertEquals("OpusHead", new String(head, 0, 8, "US-ASCII"));
+    assertEquals(2, head[9]);
+    assertEquals(48000, readInt(head, 12));
+  }
+
+  @Test public void granulePositionCountsAt48kHz() throws IOException {
+    // 10 ms frames advance the granule position by 480 whatever the input rate
+    for (int sampleRate : new int[]{8000, 16000, 48000}) {
+      List<Page> pages = writeStream(sampleRate, 1, 120);
+      Page last = pages.get(pages.size() - 1);
+      assertEquals(4, last.headerType);
+      assertEquals(120 * 480, last.granulepos);
+    }
+  }
+
+  @Test public void largePacketsAreLacedAcrossSegments() throws IOException {
+    CollectingConsumer consumer = new CollectingConsumer();
+    OpusWriter writer = new OpusWriter(consumer, 48000, 2, 2880);
+    writer.writeHeader("test");
+    // enough large packets that a page runs out of lacing values before it reaches its packet count
+    int[] lengths = {254, 255, 256, 510, 1275, 3000, 0, 1, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000,
+        1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000,
+        1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000,
+        1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000, 1000};
+    for (int length : lengths) {
+      writer.writePacket(new byte[length], 0, length);
+    }
+    writer.close();
+
+    List<Page> pages = parse(consumer.received.toByteArray());
+    List<Integer> packets = new ArrayList<>();
+    int packet = 0;
+    for (int i = 2; i < pages.size(); i++) {
+      assertTrue(pages.get(i).lacing.length <= 255);
+      for (int lacing : pages.get(i).lacing) {
+        packet += lacing;
+        if (lacing < 255) {
+          packets.add(packet);
+          packet = 0;
+        }
+      }
+    }
+    List<Integer> expected = new ArrayList<>();
+    for (int length : lengths) {
+      // empty packets are not written
+      if (length > 0) {
+        expected.add(length);
+      }
+    }
+    assertEquals(expected, packets);
+  }
+
+  @Test public void pagesHoldTheSameDurationWhateverTheFrameSize() throws IOException {
+    CollectingConsumer consumer = new CollectingConsumer();
+    OpusWriter writer = new OpusWriter(consumer, 16000, 1, 960);
+    writer.writeHeader("test");
+    for (int i = 0; i < 20; i++) {
+      writer.writePacket(new byte[40], 0, 40);
+    }
+    writer.close();
+
+    List<Page> pages = parse(consumer.received.toByteArray());
+    // 60 ms packets, 8 to a page
+    assertEquals(5, pages.size());
+    assertEquals(8, pages.get(2).lacing.length);
+    assertEquals(8 * 2880, pages.get(2).granulepos);
+    assertEquals(20 * 2880, pages.get(4).granulepos);
+  }
+
+  @Test public void flushedPagesEndEarly() throws IOException {
+    CollectingConsumer consumer = new CollectingConsumer();
+    OpusWriter writer = new OpusWriter(consumer, 16000, 1);
+    writer.writeHeader("test");
+    for (int i = 0; i < 3; i++) {
+      writer.writePacket(new byte[40], 0, 40);
+    }
+    writer.flushPage();
+    int flushed = consumer.received.size();
+    // nothing is waiting, so no empty page is written
+    writer.flushPage();
+    assertEquals(flushed, consumer.received.size());
+    writer.writePacket(new byte[40], 0, 40);
+    writer.close();
+
+    List<Page> pages = parse(consumer.received.toByteArray());
+    assertEquals(4, pages.size());
+    assertEquals(3, pages.get(2).lacing.length);
+    assertEquals(0, pages.get(2).headerType);
+    assertEquals(3 * 480, pages.get(2).granulepos);
+    assertEquals(4, pages.get(3).headerType);
+    assertEquals(4 * 480, pages.get(3).granulepos);
+  }
+
+  @Test public void contentTypeCarriesFormat() {
+    assertEquals("audio/l16;rate=16000", ContentType.RAW.toString(16000, 1));
+    assertEquals("audio/l16;rate=8000;channels=2", ContentType.RAW.toString(8000, 2));
+    assertEquals(ContentType.OPUS.toString(), ContentType.OPUS.toString(48000, 2));
+  }
+
+  private static List<Page> writeStream(int sampleRate, int channels, int packets) throws IOException {
+    CollectingConsumer consumer = new CollectingConsumer();
+    OpusWriter writer = new OpusWriter(consumer, sampleRate, channels);
+    writer.writeHeader("test");
+    byte[] packet = new byte[40];
+    for (int i = 0; i < packets; i++) {
+      writer.writePacket(packet, 0, packet.length);
+    }
+    writer.close();
+    return parse(consumer.received.toByteArray());
+  }
+
+  static List<Page> parse(byte[] stream) {
+    List<Page> pages = new ArrayList<>();
+    int position = 0;
+    while (position < stream.length) {
+      assertEquals("OggS", new String(stream, position, 4));
+      Page page = new Page();
+      page.headerType = stream[position + 5];
+      page.granulepos = readInt(stream, position + 6) & 0xffffffffL | (long) readInt(stream, position + 10) << 32;
+      int segments = stream[position + 26] & 0xff;
+      page.lacing = new int[segments];
+      int bodyLength = 0;
+      for (int i = 0; i < segments; i++) {
+        page.lacing[i] = stream[position + 27 + i] & 0xff;
+        bodyLength += page.lacing[i];
+      }
+      int bodyStart = position + 27 + segments;
+      page.body = new byte[bodyLength];
+      System.arraycopy(stream, bodyStart, page.body, 0, bodyLength);
+      pages.add(page);
+      position = bodyStart + bodyLength;
+    }
+    return pages;
+  }
+
+  static int readInt(byte[] data, int offset) {
+    return (data[offset] & 0xff) | (data[offset + 1] & 0xff) << 8 | (data[offset + 2] & 0xff) << 16
+            | (data[offset + 3] & 0xff) << 24;
+  }
+}